@@ -1,16 +1,26 @@
 package com.wavefront.sdk.common;
 
+import com.wavefront.sdk.common.annotation.Nullable;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 
 import javax.net.SocketFactory;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,9 +29,17 @@ import java.util.logging.Logger;
  * Creates a TCP client suitable for the WF proxy. That is: a client which is long-lived and
  * semantically one-way. This client tries persistently to reconnect to the given host and port
  * if a connection is ever broken. If the server (in practice, the WF proxy) sends a TCP FIN or
- * TCP RST, we will treat it as a "broken connection" and just try to connect again on the next
- * call to write(). This means each ReconnectingSocket has a polling thread for the server
- * to listen for connection resets.
+ * TCP RST, or a write fails, we will treat it as a "broken connection" and try to connect again
+ * in the background, with an exponential backoff and jitter between attempts. Writes fail right
+ * away while the connection is broken, so that the calling threads are never held up by a
+ * connection attempt. The connections of all the ReconnectingSockets are watched for a FIN or
+ * RST by a single thread shared by the JVM, and the connection attempts are made by another.
+ * Connections made with the default {@link javax.net.SocketFactory} use a
+ * {@link java.nio.channels.SocketChannel}, so that a termination is noticed as soon as it is
+ * received; those of other factories are polled every few seconds.
+ * <p>
+ * On Java 16 or later, the client can also connect to a Unix domain socket, such as that of a
+ * proxy running next to the application, with the same reconnection semantics.
  *
  * @author Mori Bellamy (mori@wavefront.com).
  * @version $Id: $Id
@@ -30,16 +48,37 @@ public class ReconnectingSocket {
   private static final Logger logger = Logger.getLogger(
       ReconnectingSocket.class.getCanonicalName());
 
-  private static final int
-      SERVER_CONNECT_TIMEOUT_MILLIS = 5000,
-      SERVER_READ_TIMEOUT_MILLIS = 2000,
-      SERVER_POLL_INTERVAL_MILLIS = 4000;
+  private static final int SERVER_CONNECT_TIMEOUT_MILLIS = 5000;
 
+  private static final long
+      INITIAL_RECONNECT_BACKOFF_MILLIS = 100,
+      MAX_RECONNECT_BACKOFF_MILLIS = 30_000;
+
+  // larger messages are encoded into a buffer that is not kept for the next ones
+  private static final int MAX_ENCODE_BUFFER_BYTES = 64 * 1024;
+  private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024));
+
+  @Nullable
   private final InetSocketAddress address;
+  @Nullable
   private final SocketFactory socketFactory;
-  private volatile boolean serverTerminated;
-  private final Timer pollingTimer;
-  private AtomicReference<Socket> underlyingSocket;
+  @Nullable
+  private final String unixSocketPath;
+  // the host and port, or the path, of the server in messages
+  private final String server;
+  // false from a failure until the connection is reset
+  private volatile boolean connected = true;
+  private final AtomicBoolean reconnectScheduled = new AtomicBoolean(false);
+  private volatile ScheduledFuture<?> pendingReset;
+  private volatile boolean closed = false;
+  // only used by the reset thread
+  private int consecutiveResetFailures = 0;
+  private long disconnectedAtNanos;
+  // the watch of the current connection, guarded by this
+  private SocketMonitor.Watch watch;
+  // a SocketChannel, or a Socket of a custom factory
+  private AtomicReference<Closeable> underlyingSocket;
   private AtomicReference<BufferedOutputStream> socketOutputStream;
 
   private WavefrontSdkDeltaCounter writeSuccesses;
@@ -48,6 +87,8 @@ public class ReconnectingSocket {
   private WavefrontSdkDeltaCounter flushErrors;
   private WavefrontSdkDeltaCounter resetSuccesses;
   private WavefrontSdkDeltaCounter resetErrors;
+  private WavefrontSdkDeltaCounter resetAttempts;
+  private WavefrontSdkDeltaCounter downtimeMillis;
 
   /**
    * Attempts to open a connected socket to the specified host and port.
@@ -77,22 +118,38 @@ public class ReconnectingSocket {
   public ReconnectingSocket(InetSocketAddress address, SocketFactory socketFactory,
                             WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix)
       throws IOException {
+    this(address, socketFactory, null, address.getHostName() + ":" + address.getPort(),
+        sdkMetricsRegistry, entityPrefix);
+  }
+
+  /**
+   * Attempts to open a connected Unix domain socket at the specified path. This requires Java
+   * 16 or later, see {@link #supportsUnixDomainSockets()}.
+   *
+   * @param unixSocketPath      The path of the Unix domain socket of the server.
+   * @param sdkMetricsRegistry  The {@link com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry} for internal metrics.
+   * @param entityPrefix        A prefix for internal metrics pertaining to this instance.
+   * @throws java.io.IOException When we cannot open the remote socket.
+   * @throws java.lang.UnsupportedOperationException if Unix domain sockets are not supported.
+   */
+  public ReconnectingSocket(String unixSocketPath, WavefrontSdkMetricsRegistry sdkMetricsRegistry,
+                            String entityPrefix) throws IOException {
+    this(null, null, unixSocketPath, unixSocketPath, sdkMetricsRegistry, entityPrefix);
+  }
+
+  private ReconnectingSocket(@Nullable InetSocketAddress address,
+                             @Nullable SocketFactory socketFactory,
+                             @Nullable String unixSocketPath, String server,
+                             WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix)
+      throws IOException {
     this.address = address;
-    this.serverTerminated = false;
     this.socketFactory = socketFactory;
+    this.unixSocketPath = unixSocketPath;
+    this.server = server;
 
     this.underlyingSocket = new AtomicReference<>(createAndConnectSocket());
     this.socketOutputStream = new AtomicReference<>(new BufferedOutputStream(
-        underlyingSocket.get().getOutputStream()));
-
-    this.pollingTimer = new Timer();
-
-    pollingTimer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        maybeReconnect();
-      }
-    }, SERVER_POLL_INTERVAL_MILLIS, SERVER_POLL_INTERVAL_MILLIS);
+        outputStream(underlyingSocket.get())));
 
     entityPrefix = entityPrefix == null || entityPrefix.isEmpty() ? "" : entityPrefix + ".";
     writeSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.success");
@@ -101,129 +158,270 @@ public class ReconnectingSocket {
     flushErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "flush.errors");
     resetSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.success");
     resetErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.errors");
-  }
+    resetAttempts = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.attempts");
+    downtimeMillis = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "downtime_millis");
+    sdkMetricsRegistry.newGauge(entityPrefix + "connected", () -> connected ? 1 : 0);
 
-  private Socket createAndConnectSocket() throws IOException {
-    Socket socket = socketFactory.createSocket();
+    BufferedOutputStream stream = socketOutputStream.get();
     try {
-      socket.connect(address, SERVER_CONNECT_TIMEOUT_MILLIS);
-      socket.setSoTimeout(SERVER_READ_TIMEOUT_MILLIS);
+      synchronized (this) {
+        this.watch = watch(underlyingSocket.get(), () -> markBroken(stream));
+      }
     } catch (IOException e) {
+      underlyingSocket.get().close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns whether connecting to a Unix domain socket is supported, which requires Java 16 or
+   * later.
+   *
+   * @return true if Unix domain sockets are supported.
+   */
+  public static boolean supportsUnixDomainSockets() {
+    return UnixDomainSockets.isSupported();
+  }
+
+  private Closeable createAndConnectSocket() throws IOException {
+    if (unixSocketPath == null && socketFactory != SocketFactory.getDefault()) {
+      Socket socket = socketFactory.createSocket();
       try {
-        socket.close();
-      } catch (IOException ce) {
-        e.addSuppressed(ce);
+        socket.connect(address, SERVER_CONNECT_TIMEOUT_MILLIS);
+      } catch (IOException e) {
+        closeAfterFailure(socket, e);
+        throw e;
       }
+      return socket;
+    }
+    // a channel lets the monitor notice a termination without polling
+    SocketChannel channel = unixSocketPath != null ?
+        UnixDomainSockets.connect(unixSocketPath) : SocketChannel.open();
+    try {
+      if (unixSocketPath == null) {
+        channel.socket().connect(address, SERVER_CONNECT_TIMEOUT_MILLIS);
+      }
+      channel.configureBlocking(false);
+    } catch (IOException e) {
+      closeAfterFailure(channel, e);
       throw e;
     }
-    return socket;
+    return channel;
   }
 
-  private void maybeReconnect() {
+  private static void closeAfterFailure(Closeable socket, IOException e) {
     try {
-      byte[] message = new byte[1000];
-      int bytesRead;
-      try {
-        bytesRead = underlyingSocket.get().getInputStream().read(message);
-      } catch (IOException e) {
-        // Read timeout, just try again later. Important to set SO_TIMEOUT elsewhere.
+      socket.close();
+    } catch (IOException ce) {
+      e.addSuppressed(ce);
+    }
+  }
+
+  private static OutputStream outputStream(Closeable socket) throws IOException {
+    return socket instanceof SocketChannel ? new ChannelOutputStream((SocketChannel) socket) :
+        ((Socket) socket).getOutputStream();
+  }
+
+  private static SocketMonitor.Watch watch(Closeable socket, Runnable onTerminated)
+      throws IOException {
+    return socket instanceof SocketChannel ?
+        SocketMonitor.get().watch((SocketChannel) socket, onTerminated) :
+        SocketMonitor.get().watch((Socket) socket, onTerminated);
+  }
+
+  /**
+   * Marks the connection as broken, unless it was already reset since {@code failedStream} was
+   * used, and schedules an attempt to reset it.
+   */
+  private void markBroken(BufferedOutputStream failedStream) {
+    synchronized (this) {
+      if (socketOutputStream.get() != failedStream || !connected) {
         return;
       }
-      if (bytesRead == -1) {
-        serverTerminated = true;
+      connected = false;
+      disconnectedAtNanos = System.nanoTime();
+    }
+    scheduleReset(0);
+  }
+
+  private void scheduleReset(long delayMillis) {
+    if (reconnectScheduled.compareAndSet(false, true)) {
+      try {
+        pendingReset = SocketMonitor.get().schedule(() -> {
+          reconnectScheduled.set(false);
+          if (!closed) {
+            resetSocket();
+          }
+        }, delayMillis);
+      } catch (RuntimeException e) {
+        reconnectScheduled.set(false);
+        throw e;
       }
-    } catch (Exception e) {
-      logger.log(Level.SEVERE, "Cannot poll server for TCP FIN.");
     }
   }
 
   /**
-   * Closes the outputStream best-effort. Tries to re-instantiate the outputStream.
-   *
-   * @throws IOException If we cannot close a outputStream we had opened before.
+   * Tries to replace the broken connection with a new one, on the shared reset thread. If that
+   * fails, another attempt is scheduled after an exponentially growing delay with jitter.
    */
-  private synchronized void resetSocket() throws IOException {
+  private void resetSocket() {
+    resetAttempts.inc();
+    Closeable newSocket;
+    BufferedOutputStream newStream;
     try {
+      newSocket = createAndConnectSocket();
       try {
-        BufferedOutputStream old = socketOutputStream.get();
-        if (old != null) old.close();
+        newStream = new BufferedOutputStream(outputStream(newSocket));
       } catch (IOException e) {
-        logger.log(Level.INFO, "Could not flush to socket.", e);
-      } finally {
-        serverTerminated = false;
-        Socket newSocket = createAndConnectSocket();
+        newSocket.close();
+        throw e;
+      }
+    } catch (IOException e) {
+      resetErrors.inc();
+      consecutiveResetFailures++;
+      // equal jitter: half of the delay is fixed, the other half random
+      int shift = Math.min(consecutiveResetFailures - 1, 20);
+      long backoff = Math.min(INITIAL_RECONNECT_BACKOFF_MILLIS << shift,
+          MAX_RECONNECT_BACKOFF_MILLIS);
+      long delay = backoff - backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+      logger.log(Level.WARNING, String.format("Unable to reset connection to %s (%s), " +
+          "retrying in %d ms", server, e.getMessage(), delay));
+      scheduleReset(delay);
+      return;
+    }
+
+    BufferedOutputStream oldStream;
+    Closeable oldSocket;
+    boolean replaced;
+    synchronized (this) {
+      // the new connection is discarded if the socket was closed meanwhile
+      replaced = !closed;
+      if (!replaced) {
+        oldStream = newStream;
+        oldSocket = newSocket;
+      } else {
+        oldStream = socketOutputStream.getAndSet(newStream);
+        oldSocket = underlyingSocket.getAndSet(newSocket);
+        watch.cancel();
         try {
-          underlyingSocket.getAndSet(newSocket).close();
+          watch = watch(newSocket, () -> markBroken(newStream));
         } catch (IOException e) {
-          logger.log(Level.WARNING, "Could not close old socket.", e);
+          // a termination is then only noticed when a write fails
+          logger.log(Level.WARNING, "Could not watch connection", e);
         }
-        socketOutputStream.set(new BufferedOutputStream(underlyingSocket.get().getOutputStream()));
-        resetSuccesses.inc();
-        logger.log(Level.INFO, String.format("Successfully reset connection to %s:%d",
-            address.getHostName(), address.getPort()));
+        connected = true;
       }
-    } catch (Exception e) {
-      resetErrors.inc();
-      throw e;
     }
+    try {
+      oldStream.close();
+    } catch (IOException e) {
+      logger.log(Level.INFO, "Could not flush to socket.", e);
+    }
+    try {
+      oldSocket.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not close old socket.", e);
+    }
+    if (!replaced) {
+      return;
+    }
+    consecutiveResetFailures = 0;
+    downtimeMillis.inc(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAtNanos));
+    resetSuccesses.inc();
+    logger.log(Level.INFO, String.format("Successfully reset connection to %s", server));
+  }
+
+  /**
+   * Returns whether the connection is up. It is down from a failure until it is reset in the
+   * background, and writes fail meanwhile.
+   *
+   * @return true if the connection is up.
+   */
+  public boolean isConnected() {
+    return connected;
   }
 
   /**
-   * Try to send the given message. On failure, reset and try again. If _that_ fails,
-   * just rethrow the exception.
+   * Try to send the given message. On failure, or if the connection is broken, the exception
+   * is rethrown right away and the connection is reset in the background.
    *
-   * @throws java.lang.Exception when a single retry is not enough to have a successful write to
-   * the remote host.
+   * @throws java.lang.Exception when the message could not be written to the remote host.
    * @param message a {@link java.lang.String} object
    */
   public void write(String message) throws Exception {
+    write((CharSequence) message);
+  }
+
+  /**
+   * Try to send the given message, encoded as UTF-8 into a buffer reused by the calling thread.
+   * On failure, or if the connection is broken, the exception is rethrown right away and the
+   * connection is reset in the background.
+   *
+   * @throws java.lang.Exception when the message could not be written to the remote host.
+   * @param message the message, such as a builder holding line data
+   */
+  public void write(CharSequence message) throws Exception {
+    int length = Utils.utf8Length(message);
+    ByteBuffer buffer = ENCODE_BUFFER.get();
+    if (buffer.capacity() < length) {
+      buffer = ByteBuffer.allocate(length);
+      if (length <= MAX_ENCODE_BUFFER_BYTES) {
+        ENCODE_BUFFER.set(buffer);
+      }
+    }
+    buffer.clear();
+    Utils.encodeUtf8(message, buffer);
+    write(buffer.array(), buffer.position());
+  }
+
+  private void write(byte[] message, int length) throws Exception {
+    BufferedOutputStream os = socketOutputStream.get();
     try {
-      if (serverTerminated) {
-        throw new Exception("Remote server terminated.");  // Handled below.
+      if (!connected) {
+        throw new IOException("Connection to " + server + " is being reset");
       }
-      // Might be NPE due to previously failed call to resetSocket.
-      socketOutputStream.get().write(message.getBytes(StandardCharsets.UTF_8));
+      os.write(message, 0, length);
       writeSuccesses.inc();
     } catch (Exception e) {
-      try {
+      writeErrors.inc();
+      if (connected) {
         String warningMsg =
-            "Unable to write data to " + address.getHostName() + ":" + address.getPort() +
-            " (" + e.getMessage() +  "), reconnecting ...";
+            "Unable to write data to " + server + " (" + e.getMessage() + "), reconnecting ...";
         if (logger.isLoggable(Level.FINE)) {
           logger.log(Level.WARNING, warningMsg, e);
         } else {
           logger.warning(warningMsg);
         }
-        resetSocket();
-        socketOutputStream.get().write(message.getBytes(StandardCharsets.UTF_8));
-        writeSuccesses.inc();
-      } catch (Exception e2) {
-        writeErrors.inc();
-        throw e2;
+        markBroken(os);
       }
+      throw e;
     }
   }
 
   /**
-   * Flushes the outputStream best-effort. If that fails, we reset the connection.
+   * Flushes the outputStream best-effort. If that fails, we reset the connection in the
+   * background.
    *
    * @throws java.io.IOException if any.
    */
   public void flush() throws IOException {
+    if (!connected) {
+      return;
+    }
+    BufferedOutputStream os = socketOutputStream.get();
     try {
-      socketOutputStream.get().flush();
+      os.flush();
       flushSuccesses.inc();
     } catch (Exception e) {
       flushErrors.inc();
       String warningMsg =
-          "Unable to flush data to " + address.getHostName() + ":" + address.getPort() +
-          " (" + e.getMessage() +  "), reconnecting ...";
+          "Unable to flush data to " + server + " (" + e.getMessage() + "), reconnecting ...";
       if (logger.isLoggable(Level.FINE)) {
         logger.log(Level.WARNING, warningMsg, e);
       } else {
         logger.warning(warningMsg);
       }
-      resetSocket();
+      markBroken(os);
     }
   }
 
@@ -236,8 +434,93 @@ public class ReconnectingSocket {
     try {
       flush();
     } finally {
-      pollingTimer.cancel();
-      socketOutputStream.get().close();
+      synchronized (this) {
+        closed = true;
+        watch.cancel();
+      }
+      ScheduledFuture<?> reset = pendingReset;
+      if (reset != null) {
+        reset.cancel(false);
+      }
+      if (connected) {
+        socketOutputStream.get().close();
+      } else {
+        // what is left in the buffer of a broken connection cannot be sent anymore
+        underlyingSocket.get().close();
+      }
+    }
+  }
+
+  /**
+   * Writes to a connection whose channel is in non-blocking mode, as the monitor requires,
+   * waiting for room in the socket buffer when it is full like a blocking socket would. A write
+   * that makes no progress for {@link #SERVER_CONNECT_TIMEOUT_MILLIS} fails, so that the
+   * connection is marked broken and reset.
+   */
+  private static final class ChannelOutputStream extends OutputStream {
+    private final SocketChannel channel;
+    // opened the first time the socket buffer is full, and kept for the next times
+    @Nullable
+    private Selector selector;
+    // set once a write timed out, so that flushing the stream on close does not wait again
+    private boolean timedOut = false;
+
+    private ChannelOutputStream(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      if (timedOut) {
+        throw new SocketTimeoutException("A previous write timed out");
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+      long stalledAtNanos = 0;
+      boolean stalled = false;
+      while (buffer.hasRemaining()) {
+        if (channel.write(buffer) > 0) {
+          stalled = false;
+          continue;
+        }
+        // the socket buffer is full
+        long now = System.nanoTime();
+        if (!stalled) {
+          stalled = true;
+          stalledAtNanos = now;
+        }
+        long waitMillis = SERVER_CONNECT_TIMEOUT_MILLIS -
+            TimeUnit.NANOSECONDS.toMillis(now - stalledAtNanos);
+        if (waitMillis <= 0) {
+          timedOut = true;
+          throw new SocketTimeoutException("No data could be written for " +
+              SERVER_CONNECT_TIMEOUT_MILLIS + " ms");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Interrupted while writing");
+        }
+        if (selector == null) {
+          selector = Selector.open();
+          channel.register(selector, SelectionKey.OP_WRITE);
+        }
+        selector.select(waitMillis);
+        selector.selectedKeys().clear();
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      try {
+        if (selector != null) {
+          selector.close();
+        }
+      } finally {
+        channel.close();
+      }
     }
   }
 }
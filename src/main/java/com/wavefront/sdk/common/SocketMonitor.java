@@ -0,0 +1,279 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the connections of all the {@link ReconnectingSocket}s of the JVM for a TCP FIN or
+ * RST sent by the server, on a single thread.
+ * <p>
+ * Connections made through a {@link SocketChannel}, over TCP or a Unix domain socket, are
+ * registered with a {@link Selector} and a termination is noticed as soon as it is received.
+ * Sockets of a custom {@link javax.net.SocketFactory} are polled by the same thread with a short
+ * read timeout. The monitor thread is started when the first connection is watched and stops
+ * once none are left.
+ * Connection resets are run by a second shared thread, so that a slow connection attempt does
+ * not hold up the monitoring of the other connections.
+ *
+ * @version $Id: $Id
+ */
+final class SocketMonitor {
+  private static final Logger logger = Logger.getLogger(SocketMonitor.class.getCanonicalName());
+
+  private static final long POLL_INTERVAL_MILLIS = 4000;
+  private static final int POLL_READ_TIMEOUT_MILLIS = 10;
+
+  private static final SocketMonitor INSTANCE = new SocketMonitor();
+
+  private final Object lock = new Object();
+  // watches to register or cancel, in order, processed by the monitor thread
+  private final Queue<Watch> changes = new ConcurrentLinkedQueue<>();
+  private final ScheduledExecutorService resets = Executors.newSingleThreadScheduledExecutor(
+      new NamedThreadFactory("wavefrontSocketReset").setDaemon(true));
+  // guarded by lock
+  private Selector selector;
+  private int watched = 0;
+
+  // only used by the monitor thread
+  private final List<Watch> polled = new ArrayList<>();
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1024);
+  private final byte[] pollBuffer = new byte[1024];
+
+  private SocketMonitor() {
+  }
+
+  /**
+   * Returns the monitor shared by all the sockets of the JVM.
+   */
+  static SocketMonitor get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Starts watching a connected channel, which must be in non-blocking mode.
+   *
+   * @param channel      the channel to watch.
+   * @param onTerminated called on the monitor thread when the server terminates the connection.
+   * @return the watch, to be cancelled when the channel is closed.
+   * @throws IOException if the monitor could not be started.
+   */
+  Watch watch(SocketChannel channel, Runnable onTerminated) throws IOException {
+    return watch(new Watch(null, channel, onTerminated));
+  }
+
+  /**
+   * Starts watching a connected socket without a channel, which is polled.
+   *
+   * @param socket       the socket to watch.
+   * @param onTerminated called on the monitor thread when the server terminates the connection.
+   * @return the watch, to be cancelled when the socket is closed.
+   * @throws IOException if the monitor could not be started.
+   */
+  Watch watch(Socket socket, Runnable onTerminated) throws IOException {
+    return watch(new Watch(socket, null, onTerminated));
+  }
+
+  private Watch watch(Watch watch) throws IOException {
+    synchronized (lock) {
+      if (selector == null) {
+        Selector newSelector = Selector.open();
+        new NamedThreadFactory("wavefrontSocketMonitor").setDaemon(true).
+            newThread(() -> run(newSelector)).start();
+        selector = newSelector;
+      }
+      watched++;
+      changes.add(watch);
+      selector.wakeup();
+    }
+    return watch;
+  }
+
+  /**
+   * Runs a connection reset after the given delay, on the shared reset thread.
+   */
+  ScheduledFuture<?> schedule(Runnable reset, long delayMillis) {
+    return resets.schedule(reset, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void run(Selector selector) {
+    long nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+    try {
+      while (true) {
+        applyChanges(selector);
+        synchronized (lock) {
+          if (watched == 0 && changes.isEmpty()) {
+            this.selector = null;
+            return;
+          }
+        }
+        long timeout = 0;
+        if (!polled.isEmpty()) {
+          long untilPoll = nextPollNanos - System.nanoTime();
+          timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(untilPoll));
+        }
+        selector.select(timeout);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          read(key);
+        }
+        if (!polled.isEmpty() && System.nanoTime() - nextPollNanos >= 0) {
+          for (Iterator<Watch> it = polled.iterator(); it.hasNext(); ) {
+            Watch watch = it.next();
+            if (poll(watch)) {
+              it.remove();
+              terminated(watch);
+            }
+          }
+          nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.SEVERE, "Socket monitor stopped unexpectedly", e);
+      synchronized (lock) {
+        this.selector = null;
+      }
+    } finally {
+      polled.clear();
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not close socket monitor selector", e);
+      }
+    }
+  }
+
+  private void applyChanges(Selector selector) {
+    Watch watch;
+    while ((watch = changes.poll()) != null) {
+      if (watch.cancelled) {
+        if (watch.key != null) {
+          watch.key.cancel();
+        } else {
+          polled.remove(watch);
+        }
+        continue;
+      }
+      if (watch.channel == null) {
+        try {
+          watch.socket.setSoTimeout(POLL_READ_TIMEOUT_MILLIS);
+          polled.add(watch);
+        } catch (IOException e) {
+          terminated(watch);
+        }
+        continue;
+      }
+      try {
+        watch.key = watch.channel.register(selector, SelectionKey.OP_READ, watch);
+      } catch (ClosedChannelException e) {
+        terminated(watch);
+      }
+    }
+  }
+
+  private void read(SelectionKey key) {
+    if (!key.isValid()) {
+      return;
+    }
+    Watch watch = (Watch) key.attachment();
+    int bytesRead;
+    try {
+      // anything sent by the server is discarded
+      do {
+        readBuffer.clear();
+        bytesRead = watch.channel.read(readBuffer);
+      } while (bytesRead > 0);
+    } catch (IOException e) {
+      // a TCP RST, or the socket was closed
+      bytesRead = -1;
+    }
+    if (bytesRead < 0) {
+      key.cancel();
+      terminated(watch);
+    }
+  }
+
+  /**
+   * Reads from a polled socket, and returns whether the connection is terminated.
+   */
+  private boolean poll(Watch watch) {
+    try {
+      return watch.socket.getInputStream().read(pollBuffer) < 0;
+    } catch (SocketTimeoutException e) {
+      // nothing to read, the connection is still open
+      return false;
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  private void terminated(Watch watch) {
+    if (watch.cancelled) {
+      return;
+    }
+    try {
+      watch.onTerminated.run();
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Cannot handle terminated connection", e);
+    }
+  }
+
+  /**
+   * A socket being watched.
+   */
+  final class Watch {
+    // the socket that is polled, or the channel registered with the selector
+    @Nullable
+    private final Socket socket;
+    @Nullable
+    private final SocketChannel channel;
+    private final Runnable onTerminated;
+    private volatile boolean cancelled = false;
+    // only used by the monitor thread
+    private SelectionKey key;
+
+    private Watch(@Nullable Socket socket, @Nullable SocketChannel channel,
+                  Runnable onTerminated) {
+      this.socket = socket;
+      this.channel = channel;
+      this.onTerminated = onTerminated;
+    }
+
+    /**
+     * Stops watching the socket. A termination noticed at the same time may still be reported.
+     */
+    void cancel() {
+      synchronized (lock) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        watched--;
+        changes.add(this);
+        if (selector != null) {
+          selector.wakeup();
+        }
+      }
+    }
+  }
+}
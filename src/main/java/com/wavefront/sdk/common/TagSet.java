@@ -0,0 +1,206 @@
+package com.wavefront.sdk.common;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of point tags, sanitized and encoded once when it is created.
+ * <p>
+ * A tag set is a {@link Map}, so it can be passed wherever tags are, and the line data of
+ * metrics, histograms and logs is built by appending its encoded form instead of sanitizing each
+ * tag again. Spans take their tags as a list of pairs, see {@link #asPairs()}. Tag sets are meant
+ * to be created once for tags that do not change, such as application tags, and extended with
+ * the few tags that vary with {@link #with(String, String)}, which only encodes the added tags.
+ *
+ * @version $Id: $Id
+ */
+public final class TagSet extends AbstractMap<String, String> {
+  private static final TagSet EMPTY = new TagSet(new LinkedHashMap<>(), new LinkedHashMap<>());
+
+  private final Map<String, String> tags;
+  // the encoded form of each tag, keyed by tag key
+  private final Map<String, String> fragments;
+  private final String encoded;
+  private final List<Pair<String, String>> pairs;
+
+  private TagSet(LinkedHashMap<String, String> tags, LinkedHashMap<String, String> fragments) {
+    this.tags = Collections.unmodifiableMap(tags);
+    this.fragments = fragments;
+    StringBuilder sb = new StringBuilder();
+    for (String fragment : fragments.values()) {
+      sb.append(fragment);
+    }
+    this.encoded = sb.toString();
+    List<Pair<String, String>> pairList = new ArrayList<>(tags.size());
+    for (Map.Entry<String, String> tag : tags.entrySet()) {
+      pairList.add(Pair.of(tag.getKey(), tag.getValue()));
+    }
+    this.pairs = new PairList(this, pairList);
+  }
+
+  /**
+   * Returns the empty tag set.
+   *
+   * @return the empty tag set.
+   */
+  public static TagSet empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Returns a tag set with a single tag.
+   *
+   * @param key   the tag key.
+   * @param value the tag value.
+   * @return the tag set.
+   * @throws IllegalArgumentException if the key or value is blank.
+   */
+  public static TagSet of(String key, String value) {
+    return EMPTY.with(key, value);
+  }
+
+  /**
+   * Returns a tag set with the given tags.
+   *
+   * @param tags the tags.
+   * @return the tag set, which is {@code tags} itself if it already is a tag set.
+   * @throws IllegalArgumentException if a key or value is blank.
+   */
+  public static TagSet of(Map<String, String> tags) {
+    return tags instanceof TagSet ? (TagSet) tags : EMPTY.with(tags);
+  }
+
+  /**
+   * Returns a tag set with the given tags. When several tags have the same key, the last one
+   * is kept.
+   *
+   * @param tags the tags.
+   * @return the tag set.
+   * @throws IllegalArgumentException if a key or value is blank.
+   */
+  public static TagSet of(List<Pair<String, String>> tags) {
+    if (tags instanceof PairList) {
+      return ((PairList) tags).tagSet;
+    }
+    LinkedHashMap<String, String> map = new LinkedHashMap<>();
+    for (Pair<String, String> tag : tags) {
+      map.put(tag._1, tag._2);
+    }
+    return EMPTY.with(map);
+  }
+
+  /**
+   * Returns a tag set with the tags of this set and the given tag, which replaces any tag with
+   * the same key.
+   *
+   * @param key   the tag key.
+   * @param value the tag value.
+   * @return the new tag set.
+   * @throws IllegalArgumentException if the key or value is blank.
+   */
+  public TagSet with(String key, String value) {
+    return with(Collections.singletonMap(key, value));
+  }
+
+  /**
+   * Returns a tag set with the tags of this set and the given tags, which replace any tag with
+   * the same key.
+   *
+   * @param extraTags the tags to add.
+   * @return the new tag set.
+   * @throws IllegalArgumentException if a key or value is blank.
+   */
+  public TagSet with(Map<String, String> extraTags) {
+    if (extraTags.isEmpty()) {
+      return this;
+    }
+    LinkedHashMap<String, String> newTags = new LinkedHashMap<>(tags);
+    LinkedHashMap<String, String> newFragments = new LinkedHashMap<>(fragments);
+    Map<String, String> extraFragments = extraTags instanceof TagSet ?
+        ((TagSet) extraTags).fragments : null;
+    for (Map.Entry<String, String> tag : extraTags.entrySet()) {
+      String key = tag.getKey();
+      String value = tag.getValue();
+      if (Utils.isNullOrEmpty(key)) {
+        throw new IllegalArgumentException("tag key cannot be blank");
+      }
+      if (Utils.isNullOrEmpty(value)) {
+        throw new IllegalArgumentException("tag value cannot be blank for tag key: " + key);
+      }
+      newTags.put(key, value);
+      newFragments.put(key, extraFragments != null ? extraFragments.get(key) :
+          ' ' + Utils.sanitize(key) + '=' + Utils.sanitizeValue(value));
+    }
+    return new TagSet(newTags, newFragments);
+  }
+
+  /**
+   * Returns the tags of this set as an immutable list of pairs, to be passed as the tags of a
+   * span.
+   *
+   * @return the tags as a list of pairs.
+   */
+  public List<Pair<String, String>> asPairs() {
+    return pairs;
+  }
+
+  /**
+   * Returns the encoded tags, each preceded by a space.
+   */
+  String encoded() {
+    return encoded;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return tags.entrySet();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String get(Object key) {
+    return tags.get(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean containsKey(Object key) {
+    return tags.containsKey(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int size() {
+    return tags.size();
+  }
+
+  /**
+   * The tags of a tag set as a list of pairs, recognized when encoding spans.
+   */
+  static final class PairList extends AbstractList<Pair<String, String>> {
+    final TagSet tagSet;
+    private final List<Pair<String, String>> pairs;
+
+    private PairList(TagSet tagSet, List<Pair<String, String>> pairs) {
+      this.tagSet = tagSet;
+      this.pairs = pairs;
+    }
+
+    @Override
+    public Pair<String, String> get(int index) {
+      return pairs.get(index);
+    }
+
+    @Override
+    public int size() {
+      return pairs.size();
+    }
+  }
+}
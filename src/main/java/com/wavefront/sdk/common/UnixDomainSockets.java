@@ -0,0 +1,82 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens connections to Unix domain sockets, which are supported by {@link SocketChannel} from
+ * Java 16.
+ * <p>
+ * {@code java.net.UnixDomainSocketAddress} is resolved reflectively, so that this class builds
+ * against Java 8. On older versions, connecting fails with an
+ * {@link UnsupportedOperationException}.
+ *
+ * @version $Id: $Id
+ */
+final class UnixDomainSockets {
+
+  // UnixDomainSocketAddress.of(String), or null before Java 16
+  @Nullable
+  private static final Method ADDRESS_OF;
+
+  static {
+    Method addressOf = null;
+    try {
+      addressOf = Class.forName("java.net.UnixDomainSocketAddress").
+          getMethod("of", String.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Unix domain sockets are not supported
+    }
+    ADDRESS_OF = addressOf;
+  }
+
+  private UnixDomainSockets() {
+  }
+
+  /**
+   * Returns whether Unix domain sockets are supported.
+   */
+  static boolean isSupported() {
+    return ADDRESS_OF != null;
+  }
+
+  /**
+   * Opens a channel connected to the Unix domain socket at the given path, in blocking mode.
+   *
+   * @param path the path of the socket.
+   * @return the connected channel.
+   * @throws IOException if the connection could not be made.
+   */
+  static SocketChannel connect(String path) throws IOException {
+    return SocketChannel.open(address(path));
+  }
+
+  /**
+   * Returns the address of the Unix domain socket at the given path.
+   *
+   * @param path the path of the socket.
+   * @return the address.
+   * @throws IOException if the address could not be created.
+   */
+  static SocketAddress address(String path) throws IOException {
+    if (ADDRESS_OF == null) {
+      throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+    }
+    try {
+      return (SocketAddress) ADDRESS_OF.invoke(null, path);
+    } catch (InvocationTargetException e) {
+      // an invalid path
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -9,6 +9,9 @@ import com.wavefront.sdk.entities.histograms.HistogramGranularity;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 import com.wavefront.sdk.entities.tracing.SpanLogsDTO;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -41,6 +44,30 @@ public class Utils {
 
   private static final ObjectMapper JSON_PARSER = new ObjectMapper();
 
+  // ASCII characters allowed in metric names, sources and tag keys
+  private static final boolean[] LEGAL_CHARS = new boolean[128];
+
+  static {
+    for (char c = ','; c <= '9'; c++) {
+      LEGAL_CHARS[c] = true;
+    }
+    for (char c = 'A'; c <= 'Z'; c++) {
+      LEGAL_CHARS[c] = true;
+    }
+    for (char c = 'a'; c <= 'z'; c++) {
+      LEGAL_CHARS[c] = true;
+    }
+    LEGAL_CHARS['_'] = true;
+  }
+
+  // the longest string of a double, such as -2.2250738585072014E-308
+  private static final int MAX_DOUBLE_LENGTH = 24;
+  // integral doubles below this magnitude are written as longs, exactly
+  private static final long MAX_EXACT_INTEGRAL = 1L << 53;
+
+  // caches metric names and tag keys, tag values having too many distinct values to be cached
+  private static final SanitizedCache SANITIZED_NAMES = new SanitizedCache();
+
   /**
    * <p>sanitize.</p>
    *
@@ -48,7 +75,12 @@ public class Utils {
    * @return a {@link java.lang.String} object
    */
   public static String sanitize(String s) {
-    return sanitizeInternal(s, true, false);
+    String cached = SANITIZED_NAMES.get(s);
+    if (cached == null) {
+      cached = sanitizeInternal(s, true, false);
+      SANITIZED_NAMES.put(s, cached);
+    }
+    return cached;
   }
 
   /**
@@ -82,6 +114,16 @@ public class Utils {
     /*
      * Sanitize string of tags value, etc.
      */
+    int length = s.length();
+    boolean legal = length == 0 || (s.charAt(0) > ' ' && s.charAt(length - 1) > ' ');
+    for (int i = 0; legal && i < length; i++) {
+      char cur = s.charAt(i);
+      legal = cur != '"' && cur != '\n';
+    }
+    if (legal) {
+      // nothing to trim or escape
+      return "\"" + s + "\"";
+    }
     String res = s.trim();
     if (s.contains("\"") || s.contains("'")) {
       // for single quotes, once we are double-quoted, single quotes can exist happily inside it.
@@ -90,6 +132,27 @@ public class Utils {
     return "\"" + res.replace("\n", "\\n") + "\"";
   }
 
+  /**
+   * Appends a value of a point to line data. Integral values below 2^53 in magnitude are
+   * written without a fractional part, such as {@code 42422} instead of {@code 42422.0}, and
+   * nothing is allocated for them. Other values use the format of {@link Double#toString(double)}.
+   * <p>
+   * Integral values that {@link Double#toString(double)} writes in scientific notation, from
+   * 10^7 up to 2^53, take more characters than they did: {@code 1e15} is written as
+   * {@code 1000000000000000} instead of {@code 1.0E15}.
+   *
+   * @param sb    the builder to append to.
+   * @param value the value.
+   * @return the builder.
+   */
+  public static StringBuilder appendDouble(StringBuilder sb, double value) {
+    long integral = (long) value;
+    if (integral == value && integral > -MAX_EXACT_INTEGRAL && integral < MAX_EXACT_INTEGRAL) {
+      return sb.append(integral);
+    }
+    return sb.append(value);
+  }
+
   /**
    * <p>metricToLineData.</p>
    *
@@ -104,6 +167,28 @@ public class Utils {
   public static String metricToLineData(String name, double value, @Nullable Long timestamp,
                                         String source, @Nullable Map<String, String> tags,
                                         String defaultSource) {
+    return metricToLineData(new StringBuilder(), name, value, timestamp, source, tags,
+        defaultSource).toString();
+  }
+
+  /**
+   * Appends the line data of a metric to a builder, which can be reused to encode many points
+   * without creating a String for each. The builder is unchanged if the metric is invalid.
+   *
+   * @param sb            The builder to append to.
+   * @param name          The name of the metric.
+   * @param value         The value of the metric.
+   * @param timestamp     The timestamp of the metric, or null.
+   * @param source        The source of the metric, or null for the default source.
+   * @param tags          The tags of the metric.
+   * @param defaultSource The default source.
+   * @return the builder.
+   * @throws IllegalArgumentException if the metric is invalid.
+   */
+  public static StringBuilder metricToLineData(StringBuilder sb, String name, double value,
+                                               @Nullable Long timestamp, String source,
+                                               @Nullable Map<String, String> tags,
+                                               String defaultSource) {
     /*
      * Wavefront Metrics Data format
      * <metricName> <metricValue> [<timestamp>] source=<source> [pointTags]
@@ -123,16 +208,56 @@ public class Utils {
           getContextInfo(name, source, tags));
     }
 
-    int intitialCapacity = estimateMetricSize(name, value, source, tags);
-    final StringBuilder sb = new StringBuilder(intitialCapacity);
+    // the tags are validated while estimating the size, before anything is appended
+    sb.ensureCapacity(sb.length() + estimateMetricSize(name, value, source, tags));
     sb.append(sanitize(name));
-    sb.append(' ').append(value);
+    sb.append(' ');
+    appendDouble(sb, value);
     if (timestamp != null) {
       sb.append(' ');
-      sb.append(timestamp);
+      sb.append(timestamp.longValue());
+    }
+    appendSourceAndTags(sb, source, tags);
+    return sb;
+  }
+
+  /**
+   * Encodes the part of a metric line following its value and timestamp: the source and tags of
+   * the metric, and the terminating newline. This lets the line of a series be built by only
+   * appending its value and timestamp to its sanitized name and this suffix.
+   *
+   * @param name          The name of the metric, validated but not encoded.
+   * @param source        The source of the metric, or null for the default source.
+   * @param tags          The tags of the metric.
+   * @param defaultSource The default source.
+   * @return the encoded source and tags, starting with a space and ending with a newline.
+   * @throws IllegalArgumentException if the name or source is blank.
+   */
+  public static String metricSourceAndTags(String name, @Nullable String source,
+                                           @Nullable Map<String, String> tags,
+                                           String defaultSource) {
+    if (source == null || source.isEmpty()) {
+      source = defaultSource;
     }
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("metrics name cannot be blank " +
+          getContextInfo(name, source, tags));
+    }
+    if (source == null || source.isEmpty()) {
+      throw new IllegalArgumentException("source cannot be blank " +
+          getContextInfo(name, source, tags));
+    }
+    StringBuilder sb = new StringBuilder();
+    appendSourceAndTags(sb, source, tags);
+    return sb.toString();
+  }
+
+  private static void appendSourceAndTags(StringBuilder sb, String source,
+                                          @Nullable Map<String, String> tags) {
     sb.append(" source=").append(sanitizeValue(source));
-    if (tags != null) {
+    if (tags instanceof TagSet) {
+      sb.append(((TagSet) tags).encoded());
+    } else if (tags != null) {
       for (final Map.Entry<String, String> tag : tags.entrySet()) {
         String key = tag.getKey();
         String val = tag.getValue();
@@ -143,7 +268,6 @@ public class Utils {
       }
     }
     sb.append('\n');
-    return sb.toString();
   }
 
   /**
@@ -155,11 +279,14 @@ public class Utils {
 
     int size = 0;
     size += name.length() + SANITIZE_CHARS_LEN;
-    size += String.valueOf(value).length() + 1;
+    size += MAX_DOUBLE_LENGTH + 1;
     size += 11; // timestamp, including ' ' at beginning
     size += " source=".length() + source.length() + SANITIZE_CHARS_LEN;
 
-    if (tags != null) {
+    if (tags instanceof TagSet) {
+      // already validated and encoded
+      size += ((TagSet) tags).encoded().length();
+    } else if (tags != null) {
       final int EXTRA_TAG_CHARS_LEN = " =\"\"\"\"".length();
       for (final Map.Entry<String, String> tag : tags.entrySet()) {
         String key = tag.getKey();
@@ -196,6 +323,27 @@ public class Utils {
   public static String logToLineData(String name, double value, @Nullable Long timestamp,
                                      String source, @Nullable Map<String, String> tags,
                                      String defaultSource) {
+    return logToLineData(new StringBuilder(), name, value, timestamp, source, tags,
+        defaultSource).toString();
+  }
+
+  /**
+   * Appends the line data of a log to a builder. The builder is unchanged if the log is invalid.
+   *
+   * @param sb            The builder to append to.
+   * @param name          The name of the log.
+   * @param value         The value of the log.
+   * @param timestamp     The timestamp of the log, or null.
+   * @param source        The source of the log, or null for the default source.
+   * @param tags          The labels of the log.
+   * @param defaultSource The default source.
+   * @return the builder.
+   * @throws IllegalArgumentException if the log is invalid.
+   */
+  public static StringBuilder logToLineData(StringBuilder sb, String name, double value,
+                                            @Nullable Long timestamp, String source,
+                                            @Nullable Map<String, String> tags,
+                                            String defaultSource) {
     if (source == null || source.isEmpty()) {
       source = defaultSource;
     }
@@ -208,17 +356,31 @@ public class Utils {
               getContextInfo(name, source, tags));
     }
 
-    final StringBuilder sb = new StringBuilder();
+    int start = sb.length();
+    try {
+      appendLog(sb, name, value, timestamp, source, tags);
+    } catch (IllegalArgumentException e) {
+      sb.setLength(start);
+      throw e;
+    }
+    return sb;
+  }
+
+  private static void appendLog(StringBuilder sb, String name, double value,
+                                @Nullable Long timestamp, String source,
+                                @Nullable Map<String, String> tags) {
     sb.append(sanitize(name, true));
     sb.append(' ');
-    sb.append(value);
+    appendDouble(sb, value);
     if (timestamp != null) {
       sb.append(' ');
-      sb.append(timestamp);
+      sb.append(timestamp.longValue());
     }
     sb.append(" source=");
     sb.append(sanitizeValue(source));
-    if (tags != null) {
+    if (tags instanceof TagSet) {
+      sb.append(((TagSet) tags).encoded());
+    } else if (tags != null) {
       for (final Map.Entry<String, String> tag : tags.entrySet()) {
         String key = tag.getKey();
         String val = tag.getValue();
@@ -237,7 +399,6 @@ public class Utils {
       }
     }
     sb.append('\n');
-    return sb.toString();
   }
 
   /**
@@ -257,6 +418,31 @@ public class Utils {
                                            @Nullable Long timestamp, String source,
                                            @Nullable Map<String, String> tags,
                                            String defaultSource) {
+    return histogramToLineData(new StringBuilder(), name, centroids, histogramGranularities,
+        timestamp, source, tags, defaultSource).toString();
+  }
+
+  /**
+   * Appends the line data of a histogram to a builder, one line per granularity. The builder is
+   * unchanged if the histogram is invalid.
+   *
+   * @param sb                     The builder to append to.
+   * @param name                   The name of the histogram.
+   * @param centroids              The centroids of the histogram.
+   * @param histogramGranularities The granularities of the histogram.
+   * @param timestamp              The timestamp of the histogram, or null.
+   * @param source                 The source of the histogram, or null for the default source.
+   * @param tags                   The tags of the histogram.
+   * @param defaultSource          The default source.
+   * @return the builder.
+   * @throws IllegalArgumentException if the histogram is invalid.
+   */
+  public static StringBuilder histogramToLineData(StringBuilder sb, String name,
+                                                  List<Pair<Double, Integer>> centroids,
+                                                  Set<HistogramGranularity> histogramGranularities,
+                                                  @Nullable Long timestamp, String source,
+                                                  @Nullable Map<String, String> tags,
+                                                  String defaultSource) {
     /*
      * Wavefront Histogram Data format
      * {!M | !H | !D} [<timestamp>] #<count> <mean> [centroids] <histogramName> source=<source>
@@ -284,19 +470,35 @@ public class Utils {
       throw new IllegalArgumentException("A distribution should have at least one centroid " +
           getContextInfo(name, source, tags));
     }
-    final StringBuilder sb = new StringBuilder();
+    int start = sb.length();
+    try {
+      appendHistogram(sb, name, centroids, histogramGranularities, timestamp, source, tags);
+    } catch (IllegalArgumentException e) {
+      sb.setLength(start);
+      throw e;
+    }
+    return sb;
+  }
+
+  private static void appendHistogram(StringBuilder sb, String name,
+                                      List<Pair<Double, Integer>> centroids,
+                                      Set<HistogramGranularity> histogramGranularities,
+                                      @Nullable Long timestamp, String source,
+                                      @Nullable Map<String, String> tags) {
     for (HistogramGranularity histogramGranularity : histogramGranularities) {
       sb.append(histogramGranularity.identifier);
       if (timestamp != null) {
         sb.append(' ');
-        sb.append(Long.toString(timestamp));
+        sb.append(timestamp.longValue());
       }
       sb.append(' ');
       appendCompactedCentroids(sb, centroids);
       sb.append(sanitize(name));
       sb.append(" source=");
       sb.append(sanitizeValue(source));
-      if (tags != null) {
+      if (tags instanceof TagSet) {
+        sb.append(((TagSet) tags).encoded());
+      } else if (tags != null) {
         for (final Map.Entry<String, String> tag : tags.entrySet()) {
           String key = tag.getKey();
           String val = tag.getValue();
@@ -316,7 +518,6 @@ public class Utils {
       }
       sb.append('\n');
     }
-    return sb.toString();
   }
 
   /**
@@ -341,6 +542,36 @@ public class Utils {
                                              @Nullable List<UUID> followsFrom,
                                              @Nullable List<Pair<String, String>> tags,
                                              @Nullable List<SpanLog> spanLogs, String defaultSource) {
+    return tracingSpanToLineData(new StringBuilder(), name, startMillis, durationMillis, source,
+        traceId, spanId, parents, followsFrom, tags, spanLogs, defaultSource).toString();
+  }
+
+  /**
+   * Appends the line data of a span to a builder. The builder is unchanged if the span is invalid.
+   *
+   * @param sb             The builder to append to.
+   * @param name           The operation name of the span.
+   * @param startMillis    The start time of the span in milliseconds.
+   * @param durationMillis The duration of the span in milliseconds.
+   * @param source         The source of the span, or null for the default source.
+   * @param traceId        The trace the span belongs to.
+   * @param spanId         The identifier of the span.
+   * @param parents        The parents of the span.
+   * @param followsFrom    The spans the span follows from.
+   * @param tags           The tags of the span.
+   * @param spanLogs       The logs of the span.
+   * @param defaultSource  The default source.
+   * @return the builder.
+   * @throws IllegalArgumentException if the span is invalid.
+   */
+  public static StringBuilder tracingSpanToLineData(StringBuilder sb, String name,
+                                                    long startMillis, long durationMillis,
+                                                    String source, UUID traceId, UUID spanId,
+                                                    @Nullable List<UUID> parents,
+                                                    @Nullable List<UUID> followsFrom,
+                                                    @Nullable List<Pair<String, String>> tags,
+                                                    @Nullable List<SpanLog> spanLogs,
+                                                    String defaultSource) {
     /*
      * Wavefront Tracing Span Data format
      * <tracingSpanName> source=<source> [pointTags] <start_millis> <duration_milli_seconds>
@@ -365,8 +596,8 @@ public class Utils {
           getContextInfo(name, source, tags));
     }
 
-    int initialCapacity = estimateSpanSize(name, source, parents, followsFrom, tags, spanLogs);
-    final StringBuilder sb = new StringBuilder(initialCapacity);
+    sb.ensureCapacity(sb.length() +
+        estimateSpanSize(name, source, parents, followsFrom, tags, spanLogs));
     sb.append(sanitizeValue(name))
         .append(" source=").append(sanitizeValue(source))
         .append(" traceId=").append(traceId)
@@ -381,7 +612,9 @@ public class Utils {
         sb.append(" followsFrom=").append(item);
       }
     }
-    if (tags != null) {
+    if (tags instanceof TagSet.PairList) {
+      sb.append(((TagSet.PairList) tags).tagSet.encoded());
+    } else if (tags != null) {
       for (final Pair<String, String> tag : tags) {
         String key = tag._1;
         String val = tag._2;
@@ -395,7 +628,7 @@ public class Utils {
         .append(' ').append(durationMillis)
         .append('\n');
     // TODO - Support SpanLogs
-    return sb.toString();
+    return sb;
   }
 
   /**
@@ -417,6 +650,32 @@ public class Utils {
                                        @Nullable Map<String, String> annotations,
                                        String defaultSource, boolean jsonify)
       throws JsonProcessingException {
+    return eventToLineData(new StringBuilder(), name, startMillis, endMillis, source, tags,
+        annotations, defaultSource, jsonify).toString();
+  }
+
+  /**
+   * Appends the data of an event to a builder. The builder is unchanged if the event is invalid.
+   *
+   * @param sb            The builder to append to.
+   * @param name          The name of the event.
+   * @param startMillis   The start time of the event in milliseconds.
+   * @param endMillis     The end time of the event in milliseconds, or 0.
+   * @param source        The source of the event, or null for the default source.
+   * @param tags          The tags of the event.
+   * @param annotations   The annotations of the event.
+   * @param defaultSource The default source.
+   * @param jsonify       Whether to encode the event as JSON, for direct ingestion.
+   * @return the builder.
+   * @throws IllegalArgumentException if the event is invalid.
+   * @throws JsonProcessingException if the event cannot be encoded as JSON.
+   */
+  public static StringBuilder eventToLineData(StringBuilder sb, String name, long startMillis,
+                                              long endMillis, @Nullable String source,
+                                              @Nullable Map<String, String> tags,
+                                              @Nullable Map<String, String> annotations,
+                                              String defaultSource, boolean jsonify)
+      throws JsonProcessingException {
 
     /* Wavefront Event Data format
      *
@@ -497,19 +756,16 @@ public class Utils {
 
     if (jsonify) {
       // convert event to JSON string
-      final StringBuilder toReturn = new StringBuilder();
       // For JSON format in direct ingestion, annotations field is required even it is empty
       if (sanitizedAnnotations == null) {
         sanitizedAnnotations = new HashMap<>();
       }
-      toReturn.append(JSON_PARSER.writeValueAsString(new EventDTO(name, startMillis, endMillis,
+      return sb.append(JSON_PARSER.writeValueAsString(new EventDTO(name, startMillis, endMillis,
           source, sanitizedAnnotations, sanitizedTags)))
           .append("\n");
-      return toReturn.toString();
     }
 
     // convert event to line format
-    final StringBuilder sb = new StringBuilder();
 
     sb.append("@Event");
     sb.append(' ');
@@ -539,7 +795,7 @@ public class Utils {
     }
 
     sb.append('\n');
-    return sb.toString();
+    return sb;
   }
 
   /**
@@ -692,31 +948,28 @@ public class Utils {
      * Sanitize string of metric name, source and key of tags according to the rule of Wavefront proxy.
      */
 
+    boolean isTildaPrefixed = s.charAt(0) == 126;
+    boolean isDeltaPrefixed = (s.charAt(0) == 0x2206) || (s.charAt(0) == 0x0394);
+    boolean isDeltaTildaPrefixed = isDeltaPrefixed && s.charAt(1) == 126;
+    // scan for the first character to replace, most strings have none
+    int first = 0;
+    while (first < s.length() && isLegal(s.charAt(first), first, isTildaPrefixed,
+        isDeltaPrefixed, isDeltaTildaPrefixed, ignoreSlash)) {
+      first++;
+    }
+    if (first == s.length()) {
+      return addQuotes ? "\"" + s + "\"" : s;
+    }
     int capacity = s.length() + (addQuotes ? 2 : 0);
     StringBuilder sb = new StringBuilder(capacity);
     if (addQuotes) {
       sb.append('"');
     }
-    boolean isTildaPrefixed = s.charAt(0) == 126;
-    boolean isDeltaPrefixed = (s.charAt(0) == 0x2206) || (s.charAt(0) == 0x0394);
-    boolean isDeltaTildaPrefixed = isDeltaPrefixed && s.charAt(1) == 126;
-    for (int i = 0; i < s.length(); i++) {
+    sb.append(s, 0, first);
+    for (int i = first; i < s.length(); i++) {
       char cur = s.charAt(i);
-      boolean isLegal = true;
-      if (!(44 <= cur && cur <= 57) && !(65 <= cur && cur <= 90) && !(97 <= cur && cur <= 122) &&
-          cur != 95) {
-        if (!(i == 0 && (isDeltaPrefixed || isTildaPrefixed) || (i == 1 && isDeltaTildaPrefixed))) {
-          // first character can also be \u2206 (∆ - INCREMENT) or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
-          // or ~ tilda character for internal metrics
-          // second character can be ~ tilda character if first character is \u2206 (∆ - INCREMENT)
-          // or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
-          isLegal = false;
-        }
-      }
-      if (cur == '/' && !ignoreSlash) {
-        isLegal = false;
-      }
-      sb.append(isLegal ? cur : '-');
+      sb.append(isLegal(cur, i, isTildaPrefixed, isDeltaPrefixed, isDeltaTildaPrefixed,
+          ignoreSlash) ? cur : '-');
     }
     if (addQuotes) {
       sb.append('"');
@@ -724,6 +977,62 @@ public class Utils {
     return sb.toString();
   }
 
+  private static boolean isLegal(char cur, int i, boolean isTildaPrefixed,
+                                 boolean isDeltaPrefixed, boolean isDeltaTildaPrefixed,
+                                 boolean ignoreSlash) {
+    if (cur == '/') {
+      return ignoreSlash;
+    }
+    if (cur < 128 && LEGAL_CHARS[cur]) {
+      return true;
+    }
+    // first character can also be \u2206 (∆ - INCREMENT) or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
+    // or ~ tilda character for internal metrics
+    // second character can be ~ tilda character if first character is \u2206 (∆ - INCREMENT)
+    // or \u0394 (Δ - GREEK CAPITAL LETTER DELTA)
+    return i == 0 && (isDeltaPrefixed || isTildaPrefixed) || (i == 1 && isDeltaTildaPrefixed);
+  }
+
+  /**
+   * A small cache of sanitized strings, so that the names and tag keys sent over and over are
+   * not sanitized again. It is direct-mapped: a string replaces the entry with the same slot, so
+   * its size is bounded and lookups never lock.
+   */
+  private static final class SanitizedCache {
+    private static final int SIZE = 1024;
+    // strings longer than this are unlikely to be repeated and are not cached
+    private static final int MAX_LENGTH = 128;
+
+    private final Entry[] entries = new Entry[SIZE];
+
+    @Nullable
+    String get(String s) {
+      Entry entry = entries[slot(s)];
+      return entry != null && entry.raw.equals(s) ? entry.sanitized : null;
+    }
+
+    void put(String s, String sanitized) {
+      if (s.length() <= MAX_LENGTH) {
+        entries[slot(s)] = new Entry(s, sanitized);
+      }
+    }
+
+    private static int slot(String s) {
+      int h = s.hashCode();
+      return (h ^ (h >>> 16)) & (SIZE - 1);
+    }
+
+    private static final class Entry {
+      private final String raw;
+      private final String sanitized;
+
+      private Entry(String raw, String sanitized) {
+        this.raw = raw;
+        this.sanitized = sanitized;
+      }
+    }
+  }
+
   /**
    * Builds a best-effort string representation of a metric/histogram/span/event to provide additional
    * context to error messages. This implementation doesn't have to be as strict about escaping
@@ -770,7 +1079,7 @@ public class Utils {
       int count = centroid._2;
       if (accumulatedValue != null && value != accumulatedValue) {
         sb.append('#').append(accumulatedCount).append(' ');
-        sb.append(accumulatedValue).append(' ');
+        appendDouble(sb, accumulatedValue).append(' ');
         accumulatedValue = value;
         accumulatedCount = count;
       } else {
@@ -782,7 +1091,7 @@ public class Utils {
     }
     if (accumulatedValue != null) {
       sb.append('#').append(accumulatedCount).append(' ');
-      sb.append(accumulatedValue).append(' ');
+      appendDouble(sb, accumulatedValue).append(' ');
     }
   }
 
@@ -897,4 +1206,116 @@ public class Utils {
   public static boolean isNullOrEmpty(final String string) {
     return string == null || string.isEmpty();
   }
+
+  /**
+   * Returns the number of bytes {@code s} takes once encoded as UTF-8, without encoding it.
+   * Unpaired surrogates count as one byte, as they are replaced by '?' when encoded.
+   *
+   * @param s a {@link java.lang.CharSequence} object
+   * @return the length of the UTF-8 encoding of {@code s} in bytes
+   */
+  public static int utf8Length(CharSequence s) {
+    int length = s.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        continue;
+      }
+      if (c < 0x800) {
+        bytes += 1;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+          Character.isLowSurrogate(s.charAt(i + 1))) {
+        // a surrogate pair is 2 chars and 4 bytes
+        bytes += 2;
+        i++;
+      } else if (!Character.isSurrogate(c)) {
+        bytes += 2;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Encodes {@code s} as UTF-8 into a buffer, without creating an intermediate String or byte
+   * array. Unpaired surrogates are replaced by '?', like {@link String#getBytes}.
+   *
+   * @param s   the characters to encode.
+   * @param out the buffer to write to, which needs {@link #utf8Length(CharSequence)} bytes
+   *            remaining.
+   * @return the buffer.
+   * @throws java.nio.BufferOverflowException if the buffer is too small, in which case part of
+   *                                          the encoding may have been written.
+   */
+  public static ByteBuffer encodeUtf8(CharSequence s, ByteBuffer out) {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        out.put((byte) c);
+      } else if (c < 0x800) {
+        out.put((byte) (0xc0 | (c >> 6)));
+        out.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+          Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        out.put((byte) (0xf0 | (codePoint >> 18)));
+        out.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        out.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        out.put((byte) (0x80 | (codePoint & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        out.put((byte) '?');
+      } else {
+        out.put((byte) (0xe0 | (c >> 12)));
+        out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        out.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Concatenates items encoded as UTF-8 into an array of exactly their size, encoding each item
+   * only once.
+   *
+   * @param items the items, such as lines of data each ending with a newline.
+   * @return the encoded items.
+   */
+  public static byte[] encodeUtf8(List<? extends CharSequence> items) {
+    int length = 0;
+    for (CharSequence item : items) {
+      length += utf8Length(item);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (CharSequence item : items) {
+      encodeUtf8(item, buffer);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Writes items encoded as UTF-8 to a stream, through a buffer of the given size.
+   *
+   * @param items      the items, such as lines of data each ending with a newline.
+   * @param os         the stream to write to.
+   * @param bufferSize the size of the buffer, items larger than this are written on their own.
+   * @throws IOException if the items could not be written.
+   */
+  public static void writeUtf8(List<? extends CharSequence> items, OutputStream os,
+                               int bufferSize) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+    for (CharSequence item : items) {
+      int length = utf8Length(item);
+      if (length > buffer.remaining()) {
+        os.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+        if (length > buffer.capacity()) {
+          os.write(encodeUtf8(item, ByteBuffer.allocate(length)).array());
+          continue;
+        }
+      }
+      encodeUtf8(item, buffer);
+    }
+    os.write(buffer.array(), 0, buffer.position());
+  }
 }
@@ -4,6 +4,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 
 import com.wavefront.sdk.common.Constants;
+import com.wavefront.sdk.common.TagSet;
 import com.wavefront.sdk.common.annotation.Nullable;
 
 import java.util.Collections;
@@ -200,11 +201,14 @@ public class ApplicationTags {
 
   /**
    * Converts ApplicationTags to PointTags HashMap.
+   * <p>
+   * The tags are returned as a {@link TagSet}, encoded once for all the points sending them,
+   * unless one of them is blank.
    *
    * @return PointTag Map which is immutable.
    */
   public Map<String, String> toPointTags() {
-    return Collections.unmodifiableMap(new HashMap<String, String>() {{
+    Map<String, String> pointTags = new HashMap<String, String>() {{
       put(APPLICATION_TAG_KEY, application);
       put(CLUSTER_TAG_KEY, cluster == null ? Constants.NULL_TAG_VAL : cluster);
       put(SERVICE_TAG_KEY, service);
@@ -212,7 +216,13 @@ public class ApplicationTags {
       if (customTags != null) {
         putAll(customTags);
       }
-    }});
+    }};
+    try {
+      return TagSet.of(pointTags);
+    } catch (IllegalArgumentException e) {
+      // blank tags are reported when the points carrying them are sent
+      return Collections.unmodifiableMap(pointTags);
+    }
   }
 }
 
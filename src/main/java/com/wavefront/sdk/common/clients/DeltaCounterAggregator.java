@@ -0,0 +1,158 @@
+package com.wavefront.sdk.common.clients;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sums the increments of delta counters in memory, so that a single point per series is sent
+ * every flush interval instead of one point per increment.
+ * <p>
+ * Increments are added to an accumulator per series, which is drained with atomic swaps
+ * without blocking the threads incrementing it. Like a {@code DoubleAdder}, an accumulator
+ * spreads the increments of a contended series over several cells, but
+ * {@code DoubleAdder.sumThenReset()} is not used, as it loses the increments racing with the
+ * reset on Java 8. Series that were not incremented
+ * during an interval are removed. An increment racing with the removal of its series is moved to
+ * the new series instead of being lost.
+ *
+ * @version $Id: $Id
+ */
+final class DeltaCounterAggregator {
+
+  /**
+   * Sends the sum of a series.
+   */
+  @FunctionalInterface
+  interface Emitter {
+    void emit(String name, double value, @Nullable String source,
+              @Nullable Map<String, String> tags);
+  }
+
+  private final ConcurrentHashMap<SeriesKey, Accumulator> series = new ConcurrentHashMap<>();
+  private final SeriesKey.Validator validator;
+
+  DeltaCounterAggregator(SeriesKey.Validator validator) {
+    this.validator = validator;
+  }
+
+  /**
+   * Adds an increment to a series.
+   *
+   * @throws IllegalArgumentException if the series is new and invalid.
+   */
+  void add(String name, double value, @Nullable String source,
+           @Nullable Map<String, String> tags) {
+    SeriesKey key = new SeriesKey(name, source, tags);
+    while (value != 0) {
+      Accumulator accumulator = series.get(key);
+      if (accumulator == null) {
+        accumulator = series.computeIfAbsent(key.copy(), k -> {
+          validator.validate(name, source, tags);
+          return new Accumulator();
+        });
+      }
+      accumulator.add(value);
+      if (!accumulator.removed) {
+        return;
+      }
+      // the series was removed concurrently, take back whatever its last drain missed
+      value = accumulator.getAndReset();
+    }
+  }
+
+  /**
+   * Returns the number of series currently aggregated.
+   */
+  int size() {
+    return series.size();
+  }
+
+  /**
+   * Sends the sum of every series incremented since the previous drain, and resets it.
+   *
+   * @return the number of points sent.
+   */
+  synchronized int drain(Emitter emitter) {
+    int sent = 0;
+    for (Map.Entry<SeriesKey, Accumulator> entry : series.entrySet()) {
+      SeriesKey key = entry.getKey();
+      Accumulator accumulator = entry.getValue();
+      double value = accumulator.getAndReset();
+      if (value == 0 && series.remove(key, accumulator)) {
+        // an increment added before this flag is set is drained here, later ones are moved to
+        // a new series by the thread adding them
+        accumulator.removed = true;
+        value = accumulator.getAndReset();
+      }
+      if (value != 0) {
+        emitter.emit(key.name, value, key.source, key.tags);
+        sent++;
+      }
+    }
+    return sent;
+  }
+
+  private static final class Accumulator {
+    private static final long ZERO = Double.doubleToRawLongBits(0);
+    // a power of two, at least the number of processors, up to 16
+    private static final int CELLS = Math.min(16,
+        Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    // cells are 16 longs apart, so that each has its own cache line
+    private static final int STRIDE = 16;
+
+    // the bits of the sums, so that they can be read and reset in single atomic operations
+    private final AtomicLong base = new AtomicLong(ZERO);
+    // created once the base is contended
+    @Nullable
+    private volatile AtomicLongArray cells;
+    private volatile boolean removed = false;
+
+    void add(double value) {
+      AtomicLongArray cells = this.cells;
+      if (cells == null) {
+        long bits = base.get();
+        if (base.compareAndSet(bits, add(bits, value))) {
+          return;
+        }
+        cells = cells();
+      }
+      int cell = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & (CELLS - 1);
+      for (;;) {
+        int index = (cell + 1) * STRIDE;
+        long bits = cells.get(index);
+        if (cells.compareAndSet(index, bits, add(bits, value))) {
+          return;
+        }
+        // contended with another thread, try another cell
+        cell = ThreadLocalRandom.current().nextInt(CELLS);
+      }
+    }
+
+    double getAndReset() {
+      double sum = Double.longBitsToDouble(base.getAndSet(ZERO));
+      AtomicLongArray cells = this.cells;
+      if (cells != null) {
+        for (int cell = 0; cell < CELLS; cell++) {
+          sum += Double.longBitsToDouble(cells.getAndSet((cell + 1) * STRIDE, ZERO));
+        }
+      }
+      return sum;
+    }
+
+    private synchronized AtomicLongArray cells() {
+      if (cells == null) {
+        cells = new AtomicLongArray((CELLS + 1) * STRIDE);
+      }
+      return cells;
+    }
+
+    private static long add(long bits, double value) {
+      return Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + value);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.wavefront.sdk.common.clients;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Combines the values of gauges sent several times between two flushes, so that a single point
+ * per series is sent every flush interval.
+ * <p>
+ * Values are recorded without locking, by swapping the immutable snapshot of their series, so
+ * that a drain takes the sum and the count of an average atomically. Series that were not sent
+ * during an interval are removed, and a value racing with the removal of its series is moved to
+ * the new series instead of being lost.
+ *
+ * @version $Id: $Id
+ */
+final class GaugeCoalescer {
+
+  /**
+   * Sends the combined value of a series.
+   */
+  @FunctionalInterface
+  interface Emitter {
+    void emit(String name, double value, @Nullable Long timestamp, @Nullable String source,
+              @Nullable Map<String, String> tags);
+  }
+
+  private final GaugeCoalescing mode;
+  private final SeriesKey.Validator validator;
+  private final ConcurrentHashMap<SeriesKey, Accumulator> series = new ConcurrentHashMap<>();
+
+  GaugeCoalescer(GaugeCoalescing mode, SeriesKey.Validator validator) {
+    this.mode = mode;
+    this.validator = validator;
+  }
+
+  /**
+   * Records a value of a series.
+   *
+   * @throws IllegalArgumentException if the series is new and invalid.
+   */
+  void add(String name, double value, @Nullable Long timestamp, @Nullable String source,
+           @Nullable Map<String, String> tags) {
+    SeriesKey key = new SeriesKey(name, source, tags);
+    Snapshot snapshot = new Snapshot(1, value, Double.doubleToLongBits(value), timestamp);
+    while (snapshot != null) {
+      Accumulator accumulator = series.get(key);
+      if (accumulator == null) {
+        accumulator = series.computeIfAbsent(key.copy(), k -> {
+          validator.validate(name, source, tags);
+          return new Accumulator();
+        });
+      }
+      accumulator.merge(snapshot);
+      if (!accumulator.removed) {
+        return;
+      }
+      // the series was removed concurrently, take back whatever its last drain missed
+      snapshot = accumulator.take();
+    }
+  }
+
+  /**
+   * Returns the number of series currently coalesced.
+   */
+  int size() {
+    return series.size();
+  }
+
+  /**
+   * Sends the combined value of every series sent since the previous drain, and resets it.
+   *
+   * @return the number of points sent.
+   */
+  synchronized int drain(Emitter emitter) {
+    int sent = 0;
+    for (Map.Entry<SeriesKey, Accumulator> entry : series.entrySet()) {
+      SeriesKey key = entry.getKey();
+      Accumulator accumulator = entry.getValue();
+      Snapshot snapshot = accumulator.take();
+      if (snapshot == null && series.remove(key, accumulator)) {
+        // a value recorded before this flag is set is drained here, later ones are moved to a
+        // new series by the thread recording them
+        accumulator.removed = true;
+        snapshot = accumulator.take();
+      }
+      if (snapshot != null) {
+        emitter.emit(key.name, snapshot.value(), snapshot.timestamp, key.source, key.tags);
+        sent++;
+      }
+    }
+    return sent;
+  }
+
+  /**
+   * Values taken from an accumulator, or to merge into one.
+   */
+  private final class Snapshot {
+    private final long count;
+    private final double sum;
+    private final long bits;
+    @Nullable
+    private final Long timestamp;
+
+    private Snapshot(long count, double sum, long bits, @Nullable Long timestamp) {
+      this.count = count;
+      this.sum = sum;
+      this.bits = bits;
+      this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the values of this snapshot combined with those of a later one.
+     */
+    private Snapshot merge(Snapshot later) {
+      long mergedBits;
+      switch (mode) {
+        case MIN:
+        case MAX:
+          int comparison = Double.compare(Double.longBitsToDouble(later.bits),
+              Double.longBitsToDouble(bits));
+          boolean better = mode == GaugeCoalescing.MIN ? comparison < 0 : comparison > 0;
+          mergedBits = better ? later.bits : bits;
+          break;
+        default:
+          mergedBits = later.bits;
+          break;
+      }
+      return new Snapshot(count + later.count, sum + later.sum, mergedBits,
+          later.timestamp != null ? later.timestamp : timestamp);
+    }
+
+    private double value() {
+      switch (mode) {
+        case AVG:
+          return sum / count;
+        case COUNT:
+          return count;
+        default:
+          return Double.longBitsToDouble(bits);
+      }
+    }
+  }
+
+  private static final class Accumulator {
+    // the values recorded since the previous drain, or null if there are none
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private volatile boolean removed = false;
+
+    private void merge(Snapshot later) {
+      Snapshot current;
+      do {
+        current = snapshot.get();
+      } while (!snapshot.compareAndSet(current, current == null ? later : current.merge(later)));
+    }
+
+    /**
+     * Takes the values recorded since the previous call, or returns null if there are none.
+     */
+    @Nullable
+    private Snapshot take() {
+      return snapshot.getAndSet(null);
+    }
+  }
+}
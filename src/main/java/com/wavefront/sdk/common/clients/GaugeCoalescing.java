@@ -0,0 +1,20 @@
+package com.wavefront.sdk.common.clients;
+
+/**
+ * How the values of a gauge sent several times between two flushes are combined into the single
+ * point sent for it, see {@link WavefrontClient.Builder#coalesceGauges(GaugeCoalescing)}.
+ *
+ * @version $Id: $Id
+ */
+public enum GaugeCoalescing {
+  /** The last value sent. */
+  LAST,
+  /** The smallest value sent. */
+  MIN,
+  /** The largest value sent. */
+  MAX,
+  /** The average of the values sent. */
+  AVG,
+  /** The number of values sent. */
+  COUNT
+}
@@ -0,0 +1,64 @@
+package com.wavefront.sdk.common.clients;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies a series by its name, source and tags, to aggregate its values in memory.
+ *
+ * @version $Id: $Id
+ */
+final class SeriesKey {
+
+  /**
+   * Validates a new series, throwing an {@link IllegalArgumentException} if it is invalid.
+   */
+  @FunctionalInterface
+  interface Validator {
+    void validate(String name, @Nullable String source, @Nullable Map<String, String> tags);
+  }
+
+  final String name;
+  @Nullable
+  final String source;
+  @Nullable
+  final Map<String, String> tags;
+  private final int hashCode;
+
+  SeriesKey(String name, @Nullable String source, @Nullable Map<String, String> tags) {
+    this.name = name;
+    this.source = source;
+    this.tags = tags == null || tags.isEmpty() ? null : tags;
+    this.hashCode = Objects.hash(name, source, this.tags);
+  }
+
+  /**
+   * Copies the tags of a key about to be stored, in case the caller modifies them later.
+   */
+  SeriesKey copy() {
+    return tags == null ? this : new SeriesKey(name, source,
+        Collections.unmodifiableMap(new HashMap<>(tags)));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SeriesKey)) {
+      return false;
+    }
+    SeriesKey other = (SeriesKey) o;
+    return hashCode == other.hashCode && name.equals(other.name) &&
+        Objects.equals(source, other.source) && Objects.equals(tags, other.tags);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
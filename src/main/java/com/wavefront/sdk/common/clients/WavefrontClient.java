@@ -11,7 +11,15 @@ import com.wavefront.sdk.common.Utils;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.annotation.NonNull;
 import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.clients.buffer.ByteBoundedQueue;
+import com.wavefront.sdk.common.clients.buffer.ByteBudget;
+import com.wavefront.sdk.common.clients.buffer.DiskOverflowLog;
+import com.wavefront.sdk.common.clients.buffer.MpscRingBuffer;
+import com.wavefront.sdk.common.clients.buffer.OverflowPolicy;
+import com.wavefront.sdk.common.clients.service.CircuitBreaker;
+import com.wavefront.sdk.common.clients.service.HttpURLConnectionTransport;
 import com.wavefront.sdk.common.clients.service.ReportingService;
+import com.wavefront.sdk.common.clients.service.Transport;
 import com.wavefront.sdk.common.clients.service.token.CSPServerTokenURLConnectionFactory;
 import com.wavefront.sdk.common.clients.service.token.CSPTokenService;
 import com.wavefront.sdk.common.clients.service.token.CSPUserTokenURLConnectionFactory;
@@ -23,11 +31,13 @@ import com.wavefront.sdk.common.logging.MessageDedupingLogger;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.metrics.MetricSeries;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
@@ -36,22 +46,34 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
+import static com.wavefront.sdk.common.Constants.DELTA_PREFIX;
+import static com.wavefront.sdk.common.Constants.DELTA_PREFIX_2;
 import static com.wavefront.sdk.common.Constants.SPAN_SECONDARY_ID_KEY;
+import static com.wavefront.sdk.common.Utils.appendDouble;
 import static com.wavefront.sdk.common.Utils.eventToLineData;
 import static com.wavefront.sdk.common.Utils.getSemVerGauge;
 import static com.wavefront.sdk.common.Utils.histogramToLineData;
@@ -73,6 +95,9 @@ public class WavefrontClient implements WavefrontSender, Runnable {
   private static final MessageDedupingLogger logger = new MessageDedupingLogger(Logger.getLogger(
       WavefrontClient.class.getCanonicalName()), LogMessageType.values().length, 0.02);
 
+  // the minimum delay between two flushes triggered by full buffers
+  private static final long MIN_EARLY_FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   /**
    * Source to use if entity source is null
    */
@@ -86,15 +111,49 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
   private final int batchSize;
   private final int messageSizeBytes;
-  private final LinkedBlockingQueue<String> metricsBuffer;
-  private final LinkedBlockingQueue<String> histogramsBuffer;
-  private final LinkedBlockingQueue<String> tracingSpansBuffer;
-  private final LinkedBlockingQueue<String> spanLogsBuffer;
-  private final LinkedBlockingQueue<String> eventsBuffer;
-  private final LinkedBlockingQueue<String> logsBuffer;
+  private final BlockingQueue<String> metricsBuffer;
+  private final BlockingQueue<String> histogramsBuffer;
+  private final BlockingQueue<String> tracingSpansBuffer;
+  private final BlockingQueue<String> spanLogsBuffer;
+  private final BlockingQueue<String> eventsBuffer;
+  private final BlockingQueue<String> logsBuffer;
+
+  // Queues of not yet encoded entities, only used when serialization is deferred
+  @Nullable
+  private final BlockingQueue<DeferredEntity> deferredMetrics;
+  @Nullable
+  private final BlockingQueue<DeferredEntity> deferredHistograms;
+  @Nullable
+  private final BlockingQueue<DeferredEntity> deferredSpans;
+  @Nullable
+  private final BlockingQueue<DeferredEntity> deferredLogs;
+
+  private final FlushPipeline metricsPipeline;
+  private final FlushPipeline histogramsPipeline;
+  private final FlushPipeline tracingSpansPipeline;
+  private final FlushPipeline spanLogsPipeline;
+  private final FlushPipeline eventsPipeline;
+  private final FlushPipeline logsPipeline;
   private final ReportingService metricsReportingService;
   private final ReportingService tracesReportingService;
   private final ScheduledExecutorService scheduler;
+  // Flushes the pipelines concurrently, null when they are flushed on the scheduler thread
+  @Nullable
+  private final ExecutorService flushExecutor;
+  private final List<FlushPipeline> pipelines;
+  // Sends the chunks of a flush concurrently, null when they are sent one at a time
+  @Nullable
+  private final ExecutorService requestExecutor;
+  // Compresses the chunks of a flush ahead of sending them, null when they are compressed while
+  // being sent
+  @Nullable
+  private final ForkJoinPool compressionPool;
+  // Sums delta counters until the next flush, null when each one is sent as a point
+  @Nullable
+  private final DeltaCounterAggregator deltaCounterAggregator;
+  // Combines the values of a gauge until the next flush, null when each one is sent as a point
+  @Nullable
+  private final GaugeCoalescer gaugeCoalescer;
   private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
 
   // Internal point metrics
@@ -102,6 +161,8 @@ public class WavefrontClient implements WavefrontSender, Runnable {
   private final WavefrontSdkDeltaCounter pointsInvalid;
   private final WavefrontSdkDeltaCounter pointsDropped;
   private final WavefrontSdkDeltaCounter pointReportErrors;
+  private final WavefrontSdkDeltaCounter deltaCountersAggregated;
+  private final WavefrontSdkDeltaCounter pointsCoalesced;
 
   // Internal histogram metrics
   private final WavefrontSdkDeltaCounter histogramsValid;
@@ -144,6 +205,12 @@ public class WavefrontClient implements WavefrontSender, Runnable {
   // Flag to prevent sending after close() has been called
   private final AtomicBoolean closed = new AtomicBoolean(false);
 
+  // Number of items in a queue that triggers a flush ahead of schedule, 0 if disabled
+  private final int earlyFlushThreshold;
+  private final AtomicBoolean earlyFlushPending = new AtomicBoolean(false);
+  private volatile long lastEarlyFlushNanos = System.nanoTime() - MIN_EARLY_FLUSH_INTERVAL_NANOS;
+  private final WavefrontSdkDeltaCounter earlyFlushes;
+
   private final TokenService tokenService;
 
   public static class Builder {
@@ -164,12 +231,31 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     private int metricsPort = -1;
     private int tracesPort = -1;
     private int maxQueueSize = 50_000;
+    private long maxQueueBytes = 0;
+    private long maxTotalQueueBytes = 0;
     private int batchSize = 10_000;
     private long reportingServiceLogSuppressTimeSeconds = 300;
     private long flushInterval = 1;
     private TimeUnit flushIntervalTimeUnit = TimeUnit.SECONDS;
     private int messageSizeBytes = Integer.MAX_VALUE;
     private boolean includeSdkMetrics = true;
+    private boolean lockFreeBuffers = false;
+    private boolean deferredSerialization = false;
+    private int flushThreads = 1;
+    private int maxInFlightRequests = 1;
+    private double earlyFlushFraction = 0;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.dropNewest();
+    private long initialRetryBackoffMillis = 1000;
+    private long maxRetryBackoffMillis = 60_000;
+    private int circuitBreakerThreshold = 0;
+    private final Map<String, OverflowPolicy> overflowPolicies = Maps.newHashMap();
+    private String overflowDirectory = null;
+    private long maxOverflowBytes = 0;
+    private Transport transport = null;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionThreads = 0;
+    private boolean aggregateDeltaCounters = false;
+    private GaugeCoalescing gaugeCoalescing = null;
     private final Map<String, String> tags = Maps.newHashMap();
 
     private URI metricsUri;
@@ -256,6 +342,256 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Use bounded lock-free ring buffers instead of {@link LinkedBlockingQueue}s for the
+     * in-memory buffers. Enqueuing then neither takes a lock nor allocates, which reduces
+     * contention when many application threads send data concurrently. Default is false.
+     *
+     * @param lockFreeBuffers Whether or not to use lock-free ring buffers
+     * @return {@code this}
+     */
+    public Builder lockFreeBuffers(boolean lockFreeBuffers) {
+      this.lockFreeBuffers = lockFreeBuffers;
+      return this;
+    }
+
+    /**
+     * Defer the encoding of metrics, histograms, spans and logs to the flush thread. The send
+     * methods then only capture their arguments, and invalid data is counted as invalid on the
+     * flush thread instead of raising an {@link IllegalArgumentException} to the caller. Tag
+     * maps, tag lists, centroids and span logs are captured by reference and must not be
+     * modified after they are sent. Default is false.
+     *
+     * @param deferredSerialization Whether or not to encode data on the flush thread
+     * @return {@code this}
+     */
+    public Builder deferredSerialization(boolean deferredSerialization) {
+      this.deferredSerialization = deferredSerialization;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of bytes of UTF-8 encoded data held by each in-memory buffer, in
+     * addition to the item count bound set by {@link #maxQueueSize(int)}. Data that would
+     * exceed this size is dropped. Disabled by default.
+     *
+     * @param maxQueueBytes Max number of bytes held by each in-memory buffer
+     * @return {@code this}
+     */
+    public Builder maxQueueBytes(long maxQueueBytes) {
+      this.maxQueueBytes = maxQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of bytes of UTF-8 encoded data held by all the in-memory buffers
+     * together. Data that would exceed this size is dropped. Disabled by default.
+     *
+     * @param maxTotalQueueBytes Max number of bytes held by all the in-memory buffers
+     * @return {@code this}
+     */
+    public Builder maxTotalQueueBytes(long maxTotalQueueBytes) {
+      this.maxTotalQueueBytes = maxTotalQueueBytes;
+      return this;
+    }
+
+    /**
+     * Set the number of threads flushing the buffers. With more than one thread, each entity type
+     * is flushed concurrently with the others, so that a slow or unavailable endpoint does not
+     * delay the delivery of other entity types. Defaults to 1, flushing every entity type in turn
+     * on a single thread.
+     *
+     * @param flushThreads Number of threads flushing the buffers
+     * @return {@code this}
+     */
+    public Builder flushThreads(int flushThreads) {
+      this.flushThreads = flushThreads;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of requests sent to Wavefront concurrently. When a flush yields
+     * several chunks of data, up to this many of them are sent at the same time instead of one
+     * after the other. Defaults to 1.
+     *
+     * @param maxInFlightRequests Max number of concurrent requests to Wavefront
+     * @return {@code this}
+     */
+    public Builder maxInFlightRequests(int maxInFlightRequests) {
+      this.maxInFlightRequests = maxInFlightRequests;
+      return this;
+    }
+
+    /**
+     * Flush ahead of the periodic flush as soon as a buffer holds the given fraction of its
+     * capacity, or {@link #batchSize(int)} items, whichever is smaller. The periodic flush still
+     * bounds the latency of data. Disabled by default.
+     *
+     * @param earlyFlushFraction Fraction of the buffer capacity that triggers a flush, between 0
+     *                           (disabled) and 1
+     * @return {@code this}
+     */
+    public Builder earlyFlushFraction(double earlyFlushFraction) {
+      if (earlyFlushFraction < 0 || earlyFlushFraction > 1) {
+        throw new IllegalArgumentException("earlyFlushFraction must be between 0 and 1");
+      }
+      this.earlyFlushFraction = earlyFlushFraction;
+      return this;
+    }
+
+    /**
+     * Set what to do with data sent while its buffer is full, for every entity type that has no
+     * policy of its own. Defaults to {@link OverflowPolicy#dropNewest()}.
+     *
+     * @param overflowPolicy The policy applied to full buffers
+     * @return {@code this}
+     */
+    public Builder overflowPolicy(@NonNull OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * Set what to do with data of the given entity type sent while its buffer is full.
+     *
+     * @param entityType     One of "points", "histograms", "spans", "span_logs", "events" or
+     *                       "logs"
+     * @param overflowPolicy The policy applied to the buffer of that entity type
+     * @return {@code this}
+     */
+    public Builder overflowPolicy(@NonNull String entityType,
+                                  @NonNull OverflowPolicy overflowPolicy) {
+      switch (entityType) {
+        case "points":
+        case "histograms":
+        case "spans":
+        case "span_logs":
+        case "events":
+        case "logs":
+          overflowPolicies.put(entityType, overflowPolicy);
+          return this;
+        default:
+          throw new IllegalArgumentException("Unknown entity type: " + entityType);
+      }
+    }
+
+    /**
+     * Set how long to wait before sending data to an endpoint again after a request to it failed
+     * with a server error or no response. The delay doubles with every consecutive failure up to
+     * {@code maxBackoff}, and is randomized by up to half its value so that many clients do not
+     * retry in lockstep. Defaults to 1 second, up to 1 minute.
+     *
+     * @param initialBackoff The delay after the first failure
+     * @param maxBackoff     The maximum delay
+     * @param unit           The unit of the delays
+     * @return {@code this}
+     */
+    public Builder retryBackoff(long initialBackoff, long maxBackoff, @NonNull TimeUnit unit) {
+      this.initialRetryBackoffMillis = unit.toMillis(initialBackoff);
+      this.maxRetryBackoffMillis = unit.toMillis(maxBackoff);
+      return this;
+    }
+
+    /**
+     * Set the number of consecutive failed requests to an endpoint after which only a single
+     * small probe request is sent to it after each backoff delay, until one succeeds. Defaults
+     * to 0, which disables the circuit breaker: requests are then only delayed by the backoff.
+     *
+     * @param circuitBreakerThreshold Number of consecutive failures opening the circuit breaker,
+     *                                or 0 to disable it
+     * @return {@code this}
+     */
+    public Builder circuitBreakerThreshold(int circuitBreakerThreshold) {
+      this.circuitBreakerThreshold = circuitBreakerThreshold;
+      return this;
+    }
+
+    /**
+     * Spill data that does not fit in the in-memory buffers to memory-mapped files in the given
+     * directory, and replay it once data can be sent to Wavefront again. Each buffer spills at
+     * most {@code maxOverflowBytes} bytes. The files are deleted when the client is closed, so
+     * data that was not replayed by then is lost. Disabled by default.
+     *
+     * @param overflowDirectory The directory holding the overflow files
+     * @param maxOverflowBytes  Max number of bytes spilled to disk by each buffer
+     * @return {@code this}
+     */
+    public Builder diskOverflow(String overflowDirectory, long maxOverflowBytes) {
+      this.overflowDirectory = overflowDirectory;
+      this.maxOverflowBytes = maxOverflowBytes;
+      return this;
+    }
+
+    /**
+     * Set the transport sending the HTTP requests to Wavefront, shared by metrics and traces.
+     * Defaults to a {@link HttpURLConnectionTransport}. On Java 11 or later, the transport of
+     * {@link Transport#httpClient()} multiplexes every entity type over HTTP/2 connections
+     * instead.
+     *
+     * @param transport The transport sending the HTTP requests
+     * @return {@code this}
+     */
+    public Builder transport(Transport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Set the gzip compression level of the data sent to Wavefront, from
+     * {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}. Lower levels trade
+     * bandwidth for less CPU time on the flush threads. Defaults to
+     * {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * @param compressionLevel The gzip compression level
+     * @return {@code this}
+     */
+    public Builder compressionLevel(int compressionLevel) {
+      this.compressionLevel = compressionLevel;
+      return this;
+    }
+
+    /**
+     * Set the number of threads compressing the chunks of a batch in parallel ahead of sending
+     * them, when a batch is split in several messages. By default, each chunk is compressed while
+     * it is being sent.
+     *
+     * @param compressionThreads Number of threads compressing the chunks of a batch
+     * @return {@code this}
+     */
+    public Builder compressionThreads(int compressionThreads) {
+      this.compressionThreads = compressionThreads;
+      return this;
+    }
+
+    /**
+     * Sum the values of delta counters sent without a timestamp in memory, and send a single
+     * point per series (name, source and tags) every flush interval. This greatly reduces the
+     * number of points sent by applications incrementing the same delta counters many times
+     * between two flushes. This includes the delta counters sent through
+     * {@link #sendMetric} or a {@link #series}. Disabled by default.
+     *
+     * @param aggregateDeltaCounters Whether to aggregate delta counters before sending them
+     * @return {@code this}
+     */
+    public Builder aggregateDeltaCounters(boolean aggregateDeltaCounters) {
+      this.aggregateDeltaCounters = aggregateDeltaCounters;
+      return this;
+    }
+
+    /**
+     * Combine the values of a metric sent several times for the same series (name, source and
+     * tags) between two flushes, and send a single point per series every flush interval.
+     * Delta counters and points sent with an explicit timestamp are not affected, the latter
+     * being sent as is so that their timestamps are kept. Disabled by default.
+     *
+     * @param gaugeCoalescing How the values of a series are combined
+     * @return {@code this}
+     */
+    public Builder coalesceGauges(GaugeCoalescing gaugeCoalescing) {
+      this.gaugeCoalescing = gaugeCoalescing;
+      return this;
+    }
+
     public Builder cspBaseUrl(final String cspBaseUrl) {
       this.cspBaseUrl = cspBaseUrl;
       return this;
@@ -469,17 +805,40 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
     batchSize = builder.batchSize;
     messageSizeBytes = builder.messageSizeBytes;
-    metricsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    histogramsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    tracingSpansBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    spanLogsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    eventsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    logsBuffer = new LinkedBlockingQueue<>(builder.maxQueueSize);
-    metricsReportingService = new ReportingService(builder.metricsUri, tokenService, builder.reportingServiceLogSuppressTimeSeconds);
-    tracesReportingService = new ReportingService(builder.tracesUri, tokenService, builder.reportingServiceLogSuppressTimeSeconds);
+    ByteBudget totalQueueBudget = builder.maxTotalQueueBytes > 0 ?
+        new ByteBudget(builder.maxTotalQueueBytes) : null;
+    metricsBuffer = newLineBuffer(builder, totalQueueBudget);
+    histogramsBuffer = newLineBuffer(builder, totalQueueBudget);
+    tracingSpansBuffer = newLineBuffer(builder, totalQueueBudget);
+    spanLogsBuffer = newLineBuffer(builder, totalQueueBudget);
+    eventsBuffer = newLineBuffer(builder, totalQueueBudget);
+    logsBuffer = newLineBuffer(builder, totalQueueBudget);
+    if (builder.deferredSerialization) {
+      deferredMetrics = newBuffer(builder);
+      deferredHistograms = newBuffer(builder);
+      deferredSpans = newBuffer(builder);
+      deferredLogs = newBuffer(builder);
+    } else {
+      deferredMetrics = null;
+      deferredHistograms = null;
+      deferredSpans = null;
+      deferredLogs = null;
+    }
     scheduler = Executors.newScheduledThreadPool(1,
         new NamedThreadFactory("wavefrontClientSender").setDaemon(true));
-    scheduler.scheduleAtFixedRate(this, 1, builder.flushInterval, builder.flushIntervalTimeUnit);
+    flushExecutor = builder.flushThreads > 1 ? Executors.newFixedThreadPool(builder.flushThreads,
+        new NamedThreadFactory("wavefrontClientFlusher").setDaemon(true)) : null;
+    requestExecutor = builder.maxInFlightRequests > 1 ?
+        Executors.newFixedThreadPool(builder.maxInFlightRequests,
+            new NamedThreadFactory("wavefrontClientRequests").setDaemon(true)) : null;
+    compressionPool = builder.compressionThreads > 0 ?
+        new ForkJoinPool(builder.compressionThreads) : null;
+    SeriesKey.Validator seriesValidator = (name, source, tags) ->
+        metricToLineData(name, 0, null, source, tags, defaultSource);
+    deltaCounterAggregator = builder.aggregateDeltaCounters ?
+        new DeltaCounterAggregator(seriesValidator) : null;
+    gaugeCoalescer = builder.gaugeCoalescing != null ?
+        new GaugeCoalescer(builder.gaugeCoalescing, seriesValidator) : null;
 
     String processId = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
     sdkMetricsRegistry = new WavefrontSdkMetricsRegistry.Builder(this).
@@ -494,6 +853,15 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     double sdkVersion = getSemVerGauge("wavefront-sdk-java");
     sdkMetricsRegistry.newGauge("version", () -> sdkVersion);
 
+    Transport transport = (builder.transport != null ? builder.transport :
+        new HttpURLConnectionTransport()).withMetrics(sdkMetricsRegistry);
+    metricsReportingService = new ReportingService(builder.metricsUri, tokenService,
+        builder.reportingServiceLogSuppressTimeSeconds, transport, builder.compressionLevel,
+        sdkMetricsRegistry);
+    tracesReportingService = new ReportingService(builder.tracesUri, tokenService,
+        builder.reportingServiceLogSuppressTimeSeconds, transport, builder.compressionLevel,
+        sdkMetricsRegistry);
+
     sdkMetricsRegistry.newGauge("points.queue.size", metricsBuffer::size);
     sdkMetricsRegistry.newGauge("points.queue.remaining_capacity",
         metricsBuffer::remainingCapacity);
@@ -501,6 +869,15 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     pointsInvalid = sdkMetricsRegistry.newDeltaCounter("points.invalid");
     pointsDropped = sdkMetricsRegistry.newDeltaCounter("points.dropped");
     pointReportErrors = sdkMetricsRegistry.newDeltaCounter("points.report.errors");
+    deltaCountersAggregated =
+        sdkMetricsRegistry.newDeltaCounter("points.delta_counters.aggregated");
+    if (deltaCounterAggregator != null) {
+      sdkMetricsRegistry.newGauge("points.delta_counters.series", deltaCounterAggregator::size);
+    }
+    pointsCoalesced = sdkMetricsRegistry.newDeltaCounter("points.coalesced");
+    if (gaugeCoalescer != null) {
+      sdkMetricsRegistry.newGauge("points.coalesced.series", gaugeCoalescer::size);
+    }
 
     sdkMetricsRegistry.newGauge("histograms.queue.size", histogramsBuffer::size);
     sdkMetricsRegistry.newGauge("histograms.queue.remaining_capacity",
@@ -539,6 +916,28 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     eventsDropped = sdkMetricsRegistry.newDeltaCounter("events.dropped");
     eventsReportErrors = sdkMetricsRegistry.newDeltaCounter("events.report.errors");
 
+    registerQueueBytesGauges("points", metricsBuffer);
+    registerQueueBytesGauges("histograms", histogramsBuffer);
+    registerQueueBytesGauges("spans", tracingSpansBuffer);
+    registerQueueBytesGauges("span_logs", spanLogsBuffer);
+    registerQueueBytesGauges("events", eventsBuffer);
+    registerQueueBytesGauges("logs", logsBuffer);
+    if (totalQueueBudget != null) {
+      sdkMetricsRegistry.newGauge("queue.total_bytes", totalQueueBudget::used);
+    }
+
+    if (builder.deferredSerialization) {
+      sdkMetricsRegistry.newGauge("points.deferred.size", deferredMetrics::size);
+      sdkMetricsRegistry.newGauge("histograms.deferred.size", deferredHistograms::size);
+      sdkMetricsRegistry.newGauge("spans.deferred.size", deferredSpans::size);
+      sdkMetricsRegistry.newGauge("logs.deferred.size", deferredLogs::size);
+    }
+
+    earlyFlushThreshold = builder.earlyFlushFraction > 0 ? Math.max(1, Math.min(
+        builder.batchSize, (int) Math.ceil(builder.earlyFlushFraction * builder.maxQueueSize))) :
+        0;
+    earlyFlushes = sdkMetricsRegistry.newDeltaCounter("flush.early");
+
     metricsDisabledStatusCode = new AtomicInteger();
     histogramsDisabledStatusCode = new AtomicInteger();
     spansDisabledStatusCode = new AtomicInteger();
@@ -546,7 +945,126 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     eventsDisabledStatusCode = new AtomicInteger();
     logsDisabledStatusCode = new AtomicInteger();
 
+    CircuitBreaker metricsCircuitBreaker = newCircuitBreaker(builder, "metrics_endpoint");
+    CircuitBreaker tracesCircuitBreaker = newCircuitBreaker(builder, "traces_endpoint");
+    metricsPipeline = new FlushPipeline(builder, metricsBuffer, deferredMetrics,
+        metricsReportingService, metricsCircuitBreaker,
+        Constants.WAVEFRONT_METRIC_FORMAT, "points", "points",
+        pointsDropped, pointReportErrors, metricsDisabledStatusCode,
+        LogMessageType.SEND_METRICS_ERROR, LogMessageType.SEND_METRICS_PERMISSIONS,
+        LogMessageType.METRICS_BUFFER_FULL);
+    histogramsPipeline = new FlushPipeline(builder, histogramsBuffer, deferredHistograms,
+        metricsReportingService, metricsCircuitBreaker,
+        Constants.WAVEFRONT_HISTOGRAM_FORMAT, "histograms",
+        "histograms", histogramsDropped, histogramReportErrors, histogramsDisabledStatusCode,
+        LogMessageType.SEND_HISTOGRAMS_ERROR, LogMessageType.SEND_HISTOGRAMS_PERMISSIONS,
+        LogMessageType.HISTOGRAMS_BUFFER_FULL);
+    tracingSpansPipeline = new FlushPipeline(builder, tracingSpansBuffer, deferredSpans,
+        tracesReportingService, tracesCircuitBreaker,
+        Constants.WAVEFRONT_TRACING_SPAN_FORMAT, "spans", "spans",
+        spansDropped, spanReportErrors, spansDisabledStatusCode,
+        LogMessageType.SEND_SPANS_ERROR, LogMessageType.SEND_SPANS_PERMISSIONS,
+        LogMessageType.SPANS_BUFFER_FULL);
+    spanLogsPipeline = new FlushPipeline(builder, spanLogsBuffer, null,
+        tracesReportingService, tracesCircuitBreaker,
+        Constants.WAVEFRONT_SPAN_LOG_FORMAT, "span_logs", "span logs",
+        spanLogsDropped, spanLogReportErrors, spanLogsDisabledStatusCode,
+        LogMessageType.SEND_SPANLOGS_ERROR, LogMessageType.SEND_SPANLOGS_PERMISSIONS,
+        LogMessageType.SPANLOGS_BUFFER_FULL);
+    eventsPipeline = new FlushPipeline(builder, eventsBuffer, null,
+        metricsReportingService, metricsCircuitBreaker,
+        Constants.WAVEFRONT_EVENT_FORMAT, "events", "events",
+        eventsDropped, eventsReportErrors, eventsDisabledStatusCode,
+        LogMessageType.SEND_EVENTS_ERROR, LogMessageType.SEND_EVENTS_PERMISSIONS,
+        LogMessageType.EVENTS_BUFFER_FULL);
+    logsPipeline = new FlushPipeline(builder, logsBuffer, deferredLogs,
+        metricsReportingService, metricsCircuitBreaker,
+        Constants.WAVEFRONT_LOG_FORMAT, "logs", "logs",
+        logsDropped, logsReportErrors, logsDisabledStatusCode,
+        LogMessageType.SEND_LOGS_ERROR, LogMessageType.SEND_LOGS_PERMISSIONS,
+        LogMessageType.LOGS_BUFFER_FULL);
+    pipelines = Arrays.asList(metricsPipeline, histogramsPipeline, tracingSpansPipeline,
+        spanLogsPipeline, eventsPipeline, logsPipeline);
+
     this.clientId = builder.server;
+    scheduler.scheduleAtFixedRate(this, 1, builder.flushInterval, builder.flushIntervalTimeUnit);
+  }
+
+  private static <T> BlockingQueue<T> newBuffer(Builder builder) {
+    if (builder.lockFreeBuffers) {
+      return new MpscRingBuffer<>(builder.maxQueueSize);
+    }
+    return new LinkedBlockingQueue<>(builder.maxQueueSize);
+  }
+
+  private static BlockingQueue<String> newLineBuffer(Builder builder,
+                                                    @Nullable ByteBudget totalQueueBudget) {
+    BlockingQueue<String> buffer = newBuffer(builder);
+    if (builder.maxQueueBytes <= 0 && totalQueueBudget == null) {
+      return buffer;
+    }
+    long maxQueueBytes = builder.maxQueueBytes > 0 ? builder.maxQueueBytes : Long.MAX_VALUE;
+    return new ByteBoundedQueue(buffer, new ByteBudget(maxQueueBytes), totalQueueBudget);
+  }
+
+  private void registerQueueBytesGauges(String entityPrefix, BlockingQueue<String> buffer) {
+    if (buffer instanceof ByteBoundedQueue) {
+      ByteBoundedQueue byteBoundedQueue = (ByteBoundedQueue) buffer;
+      sdkMetricsRegistry.newGauge(entityPrefix + ".queue.bytes", byteBoundedQueue::bytes);
+      sdkMetricsRegistry.newGauge(entityPrefix + ".queue.remaining_bytes",
+          byteBoundedQueue::remainingBytes);
+    }
+  }
+
+  @Nullable
+  private DiskOverflowLog newOverflowLog(Builder builder, String entityPrefix) {
+    if (builder.overflowDirectory == null || builder.maxOverflowBytes <= 0) {
+      return null;
+    }
+    try {
+      return new DiskOverflowLog(Paths.get(builder.overflowDirectory),
+          "wavefront-" + instanceId + "-" + entityPrefix, builder.maxOverflowBytes,
+          sdkMetricsRegistry, entityPrefix);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to create overflow directory " +
+          builder.overflowDirectory + ", " + entityPrefix + " will not be spilled to disk: " +
+          Throwables.getRootCause(e));
+      return null;
+    }
+  }
+
+  /**
+   * Schedules a flush ahead of the next periodic one if the queue is full or reached the early
+   * flush threshold. Requests are coalesced until the early flush starts, so that a burst of data
+   * causes a single extra flush, and early flushes are at least
+   * {@link #MIN_EARLY_FLUSH_INTERVAL_NANOS} apart. No early flush is scheduled while the pipeline
+   * is being flushed or its endpoint is backed off from, since it could not empty the queue.
+   */
+  private void checkEarlyFlush(FlushPipeline pipeline, BlockingQueue<?> queue, boolean added) {
+    if (earlyFlushThreshold <= 0 || (added && queue.size() < earlyFlushThreshold)) {
+      return;
+    }
+    if (pipeline.lock.isLocked() || pipeline.circuitBreaker.isBackingOff()) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (now - lastEarlyFlushNanos < MIN_EARLY_FLUSH_INTERVAL_NANOS) {
+      return;
+    }
+    if (!earlyFlushPending.compareAndSet(false, true)) {
+      return;
+    }
+    lastEarlyFlushNanos = now;
+    try {
+      scheduler.execute(() -> {
+        earlyFlushPending.set(false);
+        earlyFlushes.inc();
+        run();
+      });
+    } catch (RejectedExecutionException e) {
+      // the client is closing and flushes a final time anyway
+      earlyFlushPending.set(false);
+    }
   }
 
   /**
@@ -571,6 +1089,44 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
+    boolean deltaCounter = name.startsWith(DELTA_PREFIX) || name.startsWith(DELTA_PREFIX_2);
+    if (deltaCounterAggregator != null && timestamp == null && deltaCounter) {
+      sendDeltaCounter(name, value, source, tags);
+      return;
+    }
+    // points with their own timestamp are not coalesced, which would lose all but one of them
+    if (gaugeCoalescer != null && timestamp == null && !deltaCounter) {
+      try {
+        gaugeCoalescer.add(name, value, timestamp, source, tags);
+      } catch (IllegalArgumentException e) {
+        pointsInvalid.inc();
+        throw e;
+      }
+      pointsCoalesced.inc();
+      return;
+    }
+    if (deferredMetrics != null) {
+      if (!metricsPipeline.offerDeferred(() -> enqueueMetric(name, value, timestamp, source,
+          tags, true))) {
+        pointsDropped.inc();
+        logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
+            "Buffer full, dropping metric point: " + name + ". Consider increasing the batch " +
+                "size of your sender to increase throughput.");
+      }
+      return;
+    }
+    enqueueMetric(name, value, timestamp, source, tags, false);
+  }
+
+  /**
+   * Encodes a point and adds it to the buffer.
+   *
+   * @param flushThread whether the point is enqueued by the flush thread, which must not block
+   *                    on a full buffer.
+   */
+  private void enqueueMetric(String name, double value, @Nullable Long timestamp,
+                             @Nullable String source, @Nullable Map<String, String> tags,
+                             boolean flushThread) {
     String point;
     try {
       point = metricToLineData(name, value, timestamp, source, tags, defaultSource);
@@ -580,8 +1136,11 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       pointsInvalid.inc();
       throw e;
     }
+    offerPoint(point, flushThread);
+  }
 
-    if (!metricsBuffer.offer(point)) {
+  private void offerPoint(String point, boolean flushThread) {
+    if (!metricsPipeline.offer(point, flushThread)) {
       pointsDropped.inc();
       logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
           "Buffer full, dropping metric point: " + point + ". Consider increasing the batch " +
@@ -589,6 +1148,116 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The name, source and tags of the series are validated, sanitized and encoded once, which is
+   * all the handle saves: since buffers hold points as strings, sending a value still builds a
+   * new string from the encoded series, the value and the timestamp.
+   */
+  @Override
+  public MetricSeries series(String name, @Nullable String source,
+                             @Nullable Map<String, String> tags) {
+    boolean deltaCounter = name.startsWith(DELTA_PREFIX) || name.startsWith(DELTA_PREFIX_2);
+    if (deltaCounter ? deltaCounterAggregator != null : gaugeCoalescer != null) {
+      // values are aggregated or coalesced by series rather than encoded
+      return WavefrontSender.super.series(name, source, tags);
+    }
+    String sourceAndTags;
+    try {
+      sourceAndTags = Utils.metricSourceAndTags(name, source, tags, defaultSource);
+    } catch (IllegalArgumentException e) {
+      pointsInvalid.inc();
+      throw e;
+    }
+    return new EncodedMetricSeries(Utils.sanitize(name), sourceAndTags);
+  }
+
+  /**
+   * A series whose name, source and tags are validated, sanitized and encoded once. Each value
+   * sent still allocates the string of its point.
+   */
+  private final class EncodedMetricSeries implements MetricSeries {
+    private final String name;
+    private final String sourceAndTags;
+
+    private EncodedMetricSeries(String name, String sourceAndTags) {
+      this.name = name;
+      this.sourceAndTags = sourceAndTags;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void send(double value) throws IOException {
+      send(value, false, 0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void send(double value, long timestamp) throws IOException {
+      send(value, true, timestamp);
+    }
+
+    private void send(double value, boolean timestamped, long timestamp) throws IOException {
+      if (closed.get()) {
+        throw new IOException("attempt to send using closed sender");
+      }
+      // the value, the timestamp and their separators fit in 48 characters
+      StringBuilder sb = new StringBuilder(name.length() + sourceAndTags.length() + 48);
+      appendDouble(sb.append(name).append(' '), value);
+      if (timestamped) {
+        sb.append(' ').append(timestamp);
+      }
+      String point = sb.append(sourceAndTags).toString();
+      pointsValid.inc();
+      offerPoint(point, false);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * When delta counters are aggregated, the value is added to the sum of the series, which is
+   * sent on the next flush.
+   */
+  @Override
+  public void sendDeltaCounter(String name, double value, @Nullable String source,
+                               @Nullable Map<String, String> tags) throws IOException {
+    if (deltaCounterAggregator == null) {
+      WavefrontSender.super.sendDeltaCounter(name, value, source, tags);
+      return;
+    }
+    if (closed.get()) {
+      throw new IOException("attempt to send using closed sender");
+    }
+    if (!name.startsWith(DELTA_PREFIX) && !name.startsWith(DELTA_PREFIX_2)) {
+      name = DELTA_PREFIX + name;
+    }
+    if (value > 0) {
+      try {
+        deltaCounterAggregator.add(name, value, source, tags);
+      } catch (IllegalArgumentException e) {
+        pointsInvalid.inc();
+        throw e;
+      }
+      deltaCountersAggregated.inc();
+    }
+  }
+
+  /**
+   * Enqueues the sums of the aggregated delta counters and the values of the coalesced gauges.
+   */
+  private void drainAggregatedMetrics() {
+    if (deltaCounterAggregator != null) {
+      deltaCounterAggregator.drain((name, value, source, tags) ->
+          enqueueMetric(name, value, null, source, tags, true));
+    }
+    if (gaugeCoalescer != null) {
+      gaugeCoalescer.drain((name, value, timestamp, source, tags) ->
+          enqueueMetric(name, value, timestamp, source, tags, true));
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -605,7 +1274,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     logger.fine("sendFormattedMetric: " + point);
     String finalPoint = point.endsWith("\n") ? point : point + "\n";
 
-    if (!metricsBuffer.offer(finalPoint)) {
+    if (!metricsPipeline.offer(finalPoint, false)) {
       pointsDropped.inc();
       logger.log(LogMessageType.METRICS_BUFFER_FULL.toString(), Level.WARNING,
           "Buffer full, dropping metric point: " + finalPoint + ". Consider increasing the batch " +
@@ -625,6 +1294,23 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
+    if (deferredHistograms != null) {
+      if (!histogramsPipeline.offerDeferred(() -> enqueueDistribution(name, centroids,
+          histogramGranularities, timestamp, source, tags, true))) {
+        histogramsDropped.inc();
+        logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING,
+            "Buffer full, dropping histograms: " + name + ". Consider increasing the batch " +
+                "size of your sender to increase throughput.");
+      }
+      return;
+    }
+    enqueueDistribution(name, centroids, histogramGranularities, timestamp, source, tags, false);
+  }
+
+  private void enqueueDistribution(String name, List<Pair<Double, Integer>> centroids,
+                                   Set<HistogramGranularity> histogramGranularities,
+                                   @Nullable Long timestamp, @Nullable String source,
+                                   @Nullable Map<String, String> tags, boolean flushThread) {
     String histograms;
     try {
       histograms = histogramToLineData(name, centroids, histogramGranularities, timestamp,
@@ -636,7 +1322,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       throw e;
     }
 
-    if (!histogramsBuffer.offer(histograms)) {
+    if (!histogramsPipeline.offer(histograms, flushThread)) {
       histogramsDropped.inc();
       logger.log(LogMessageType.HISTOGRAMS_BUFFER_FULL.toString(), Level.WARNING,
           "Buffer full, dropping histograms: " + histograms + ". Consider increasing the batch " +
@@ -654,6 +1340,21 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
+    if (deferredLogs != null) {
+      if (!logsPipeline.offerDeferred(() -> enqueueLog(name, value, timestamp, source, tags,
+          true))) {
+        logsDropped.inc();
+        logger.log(LogMessageType.LOGS_BUFFER_FULL.toString(), Level.WARNING,
+            "Buffer full, dropping log point: " + name + ". Consider increasing the batch " +
+                "size of your sender to increase throughput.");
+      }
+      return;
+    }
+    enqueueLog(name, value, timestamp, source, tags, false);
+  }
+
+  private void enqueueLog(String name, double value, Long timestamp, String source,
+                          Map<String, String> tags, boolean flushThread) {
     String point;
     try {
       point = logToLineData(name, value, timestamp, source, tags, defaultSource);
@@ -664,7 +1365,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       throw e;
     }
 
-    if (!logsBuffer.offer(point)) {
+    if (!logsPipeline.offer(point, flushThread)) {
       logsDropped.inc();
       logger.log(LogMessageType.LOGS_BUFFER_FULL.toString(), Level.WARNING,
           "Buffer full, dropping log point: " + point + ". Consider increasing the batch " +
@@ -702,7 +1403,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       eventsInvalid.inc();
       throw e;
     }
-    if (!eventsBuffer.offer(event)) {
+    if (!eventsPipeline.offer(event, false)) {
       eventsDropped.inc();
       logger.log(LogMessageType.EVENTS_BUFFER_FULL.toString(), Level.WARNING,
           "Buffer full, dropping events: " + event + ".");
@@ -721,6 +1422,28 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     if (closed.get()) {
       throw new IOException("attempt to send using closed sender");
     }
+    if (deferredSpans != null) {
+      if (!tracingSpansPipeline.offerDeferred(() -> enqueueSpan(name, startMillis, durationMillis,
+          source, traceId, spanId, parents, followsFrom, tags, spanLogs, true))) {
+        spansDropped.inc();
+        if (spanLogs != null && !spanLogs.isEmpty()) {
+          spanLogsDropped.inc();
+        }
+        logger.log(LogMessageType.SPANS_BUFFER_FULL.toString(), Level.WARNING,
+            "Buffer full, dropping span: " + name + ". Consider increasing the batch size of " +
+                "your sender to increase throughput.");
+      }
+      return;
+    }
+    enqueueSpan(name, startMillis, durationMillis, source, traceId, spanId, parents,
+        followsFrom, tags, spanLogs, false);
+  }
+
+  private void enqueueSpan(String name, long startMillis, long durationMillis,
+                           @Nullable String source, UUID traceId, UUID spanId,
+                           @Nullable List<UUID> parents, @Nullable List<UUID> followsFrom,
+                           @Nullable List<Pair<String, String>> tags,
+                           @Nullable List<SpanLog> spanLogs, boolean flushThread) {
     String span;
     try {
       span = tracingSpanToLineData(name, startMillis, durationMillis, source, traceId,
@@ -732,7 +1455,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       throw e;
     }
 
-    if (tracingSpansBuffer.offer(span)) {
+    if (tracingSpansPipeline.offer(span, flushThread)) {
       // attempt span logs after span is sent.
       if (spanLogs != null && !spanLogs.isEmpty()) {
         String spanSecondaryId = null;
@@ -740,7 +1463,7 @@ public class WavefrontClient implements WavefrontSender, Runnable {
           spanSecondaryId = tags.stream().filter(pair -> pair._1.equals(SPAN_SECONDARY_ID_KEY))
               .map(pair -> pair._2).findFirst().orElse(null);
         }
-        sendSpanLogs(traceId, spanId, spanLogs, span, spanSecondaryId);
+        sendSpanLogs(traceId, spanId, spanLogs, span, spanSecondaryId, flushThread);
       }
     } else {
       spansDropped.inc();
@@ -755,12 +1478,12 @@ public class WavefrontClient implements WavefrontSender, Runnable {
 
   private void sendSpanLogs(
           UUID traceId, UUID spanId, List<SpanLog> spanLogs, String span,
-          @Nullable String spanSecondaryId) {
+          @Nullable String spanSecondaryId, boolean flushThread) {
     try {
       String spanLogsJson = spanLogsToLineData(traceId, spanId, spanLogs, span, spanSecondaryId);
       spanLogsValid.inc();
       logger.fine("sendSpanLogs: " + spanLogsJson);
-      if (!spanLogsBuffer.offer(spanLogsJson)) {
+      if (!spanLogsPipeline.offer(spanLogsJson, flushThread)) {
         spanLogsDropped.inc();
         logger.log(LogMessageType.SPANLOGS_BUFFER_FULL.toString(), Level.WARNING,
             "Buffer full, dropping spanLogs: " + spanLogsJson + ". Consider increasing the batch " +
@@ -779,11 +1502,35 @@ public class WavefrontClient implements WavefrontSender, Runnable {
    */
   @Override
   public void run() {
+    if (closed.get()) {
+      return;
+    }
     try {
-      this.flush();
+      drainAggregatedMetrics();
     } catch (Throwable ex) {
+      // an exception escaping this task would cancel the following flushes
       logger.log(LogMessageType.FLUSH_ERROR.toString(), Level.WARNING,
-          "Unable to report to Wavefront cluster", Throwables.getRootCause(ex));
+          "Unable to enqueue aggregated metrics", Throwables.getRootCause(ex));
+    }
+    if (flushExecutor == null) {
+      try {
+        flushPipelines(false);
+      } catch (Throwable ex) {
+        logger.log(LogMessageType.FLUSH_ERROR.toString(), Level.WARNING,
+            "Unable to report to Wavefront cluster", Throwables.getRootCause(ex));
+      }
+      return;
+    }
+    // pipelines still busy with the previous flush are skipped rather than queued up
+    for (FlushPipeline pipeline : pipelines) {
+      flushExecutor.execute(() -> {
+        try {
+          pipeline.flush(false);
+        } catch (Throwable ex) {
+          logger.log(LogMessageType.FLUSH_ERROR.toString(), Level.WARNING,
+              "Unable to report to Wavefront cluster", Throwables.getRootCause(ex));
+        }
+      });
     }
   }
 
@@ -799,163 +1546,150 @@ public class WavefrontClient implements WavefrontSender, Runnable {
   }
 
   private void flushNoCheck() throws IOException {
-    internalFlush(metricsBuffer, Constants.WAVEFRONT_METRIC_FORMAT, "points", "points",
-        pointsDropped, pointReportErrors, metricsDisabledStatusCode,
-        LogMessageType.SEND_METRICS_ERROR, LogMessageType.SEND_METRICS_PERMISSIONS,
-        LogMessageType.METRICS_BUFFER_FULL);
-    internalFlush(histogramsBuffer, Constants.WAVEFRONT_HISTOGRAM_FORMAT, "histograms",
-        "histograms", histogramsDropped, histogramReportErrors, histogramsDisabledStatusCode,
-        LogMessageType.SEND_HISTOGRAMS_ERROR, LogMessageType.SEND_HISTOGRAMS_PERMISSIONS,
-        LogMessageType.HISTOGRAMS_BUFFER_FULL);
-    internalFlush(tracingSpansBuffer, Constants.WAVEFRONT_TRACING_SPAN_FORMAT, "spans", "spans",
-        spansDropped, spanReportErrors, spansDisabledStatusCode, LogMessageType.SEND_SPANS_ERROR,
-        LogMessageType.SEND_SPANS_PERMISSIONS, LogMessageType.SPANS_BUFFER_FULL);
-    internalFlush(spanLogsBuffer, Constants.WAVEFRONT_SPAN_LOG_FORMAT, "span_logs", "span logs",
-        spanLogsDropped, spanLogReportErrors, spanLogsDisabledStatusCode,
-        LogMessageType.SEND_SPANLOGS_ERROR, LogMessageType.SEND_SPANLOGS_PERMISSIONS,
-        LogMessageType.SPANLOGS_BUFFER_FULL);
-    internalFlush(eventsBuffer, Constants.WAVEFRONT_EVENT_FORMAT, "events", "events",
-        eventsDropped, eventsReportErrors, eventsDisabledStatusCode,
-        LogMessageType.SEND_EVENTS_ERROR, LogMessageType.SEND_EVENTS_PERMISSIONS,
-        LogMessageType.EVENTS_BUFFER_FULL);
-    internalFlush(logsBuffer, Constants.WAVEFRONT_LOG_FORMAT, "logs", "logs",
-        logsDropped, logsReportErrors, logsDisabledStatusCode,
-        LogMessageType.SEND_LOGS_ERROR, LogMessageType.SEND_LOGS_PERMISSIONS,
-        LogMessageType.LOGS_BUFFER_FULL);
+    drainAggregatedMetrics();
+    if (flushExecutor == null) {
+      flushPipelines(true);
+      return;
+    }
+    List<Future<?>> futures = new ArrayList<>(pipelines.size());
+    for (FlushPipeline pipeline : pipelines) {
+      futures.add(flushExecutor.submit(() -> {
+        pipeline.flush(true);
+        return null;
+      }));
+    }
+    IOException error = null;
+    for (Future<?> future : futures) {
+      try {
+        getResult(future);
+      } catch (IOException e) {
+        error = addError(error, e);
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
   }
 
-  private void internalFlush(LinkedBlockingQueue<String> buffer, String format,
-                             String entityPrefix, String entityType,
-                             WavefrontSdkDeltaCounter dropped,
-                             WavefrontSdkDeltaCounter reportErrors,
-                             AtomicInteger featureDisabledStatusCode,
-                             LogMessageType errorMessageType,
-                             LogMessageType permissionsMessageType,
-                             LogMessageType bufferFullMessageType)
-      throws IOException {
+  /**
+   * Waits for the result of a task, rethrowing the IOException it failed with.
+   */
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while flushing");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
 
-    ReportingService entityReportingService;
-    switch (format) {
-      case Constants.WAVEFRONT_SPAN_LOG_FORMAT:
-      case Constants.WAVEFRONT_TRACING_SPAN_FORMAT:
-        entityReportingService = this.tracesReportingService;
-        break;
-      default:
-        entityReportingService = this.metricsReportingService;
-        break;
+  /**
+   * Flushes every pipeline on the calling thread. A failing pipeline does not prevent the others
+   * from being flushed, the first error is rethrown once they all were.
+   *
+   * @param wait whether to wait for a pipeline being flushed by another thread, or to skip it.
+   */
+  private void flushPipelines(boolean wait) throws IOException {
+    IOException error = null;
+    for (FlushPipeline pipeline : pipelines) {
+      try {
+        pipeline.flush(wait);
+      } catch (IOException e) {
+        error = addError(error, e);
+      }
+    }
+    if (error != null) {
+      throw error;
     }
+  }
 
-    List<List<String>> batch = null;
-    if (format.equals(Constants.WAVEFRONT_EVENT_FORMAT)) {
-      // Event direct ingestion now does not support batching
-      batch = getBatch(buffer, 1, messageSizeBytes, dropped);
-    } else {
-      batch = getBatch(buffer, batchSize, messageSizeBytes, dropped);
-    }
-    for (int i = 0; i < batch.size(); i++) {
-      List<String> items = batch.get(i);
-      int featureDisabledReason = featureDisabledStatusCode.get();
-      if (featureDisabledReason != 0) {
-        switch (featureDisabledReason) {
-          case 401:
-            logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                "Please verify that your credentials are correct! All " + entityType + " will be " +
-                    "discarded until the service is restarted.");
-            break;
-          case 403:
-            if (format.equals(Constants.WAVEFRONT_METRIC_FORMAT)) {
-              logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                  "Please verify that Direct Data Ingestion is enabled for your account! All "
-                      + entityType + " will be discarded until the service is restarted.");
-            } else {
-              logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                  "Please verify that Direct Data Ingestion and " + entityType + " are " +
-                      "enabled for your account! All " + entityType + " will be discarded " +
-                      "until the service is restarted.");
-            }
-        }
-        continue;
+  private static IOException addError(@Nullable IOException error, IOException e) {
+    if (error == null) {
+      return e;
+    }
+    error.addSuppressed(e);
+    return error;
+  }
+
+  /**
+   * Encodes the entities whose serialization was deferred and moves them to their buffers. Only
+   * the entities present when the call starts are processed, so that a steady stream of new
+   * entities cannot keep the flush thread here.
+   */
+  private void encodeDeferred(@Nullable BlockingQueue<DeferredEntity> deferred) {
+    if (deferred == null) {
+      return;
+    }
+    for (int remaining = deferred.size(); remaining > 0; remaining--) {
+      DeferredEntity entity = deferred.poll();
+      if (entity == null) {
+        break;
       }
-      try (InputStream is = itemsToStream(items)) {
-        int statusCode;
-        if (format.equals(Constants.WAVEFRONT_EVENT_FORMAT)) {
-          statusCode = entityReportingService.sendEvent(is);
-        } else {
-          statusCode = entityReportingService.send(format, is);
-        }
-        sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report." + statusCode).inc();
-        if ((400 <= statusCode && statusCode <= 599) || statusCode == -1) {
-          switch (statusCode) {
-            case 401:
-              logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                  "Error sending " + entityType + " to Wavefront (HTTP 401 Unauthorized). " +
-                      "Please verify that your credentials are correct! All " + entityType + " will " +
-                      "be discarded until the service is restarted.");
-              featureDisabledStatusCode.set(statusCode);
-              dropped.inc(items.size());
-              break;
-            case 403:
-              if (format.equals(Constants.WAVEFRONT_METRIC_FORMAT)) {
-                logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                    "Error sending " + entityType + " to Wavefront (HTTP 403 Forbidden). " +
-                        "Please verify that Direct Data Ingestion is enabled for your account! " +
-                        "All " + entityType + " will be discarded until the service is restarted.");
-              } else {
-                logger.log(permissionsMessageType.toString(), Level.SEVERE,
-                    "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
-                        "Please verify that Direct Data Ingestion and " + entityType + " are " +
-                        "enabled for your account! All " + entityType + " will be discarded until" +
-                        " the service is restarted.");
-              }
-              featureDisabledStatusCode.set(statusCode);
-              dropped.inc(items.size());
-              break;
-            default:
-              logger.log(errorMessageType.toString(), Level.WARNING,
-                  "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). Data " +
-                      "will be requeued and resent.");
-              requeue(buffer, items, dropped, entityType, bufferFullMessageType);
-          }
-        }
-      } catch (IOException ex) {
-        dropped.inc(items.size());
-        reportErrors.inc();
-        for (int j = i + 1; j < batch.size(); j++) {
-          dropped.inc(batch.get(j).size());
-        }
-        throw ex;
+      try {
+        entity.encode();
+      } catch (IllegalArgumentException e) {
+        // already counted as invalid, there is no caller to report this to
+        logger.log(Level.FINE, "Discarding invalid data: " + e.getMessage());
       }
     }
   }
 
-  private void requeue(LinkedBlockingQueue<String> buffer, List<String> items,
-                       WavefrontSdkDeltaCounter dropped, String entityType,
-                       LogMessageType bufferFullMessageType) {
-    int numAddedBackToBuffer = 0;
-    for (String item : items) {
-      if (buffer.offer(item)) {
-        numAddedBackToBuffer++;
-      } else {
-        int numDropped = items.size() - numAddedBackToBuffer;
-        dropped.inc(numDropped);
-        logger.log(bufferFullMessageType.toString(), Level.WARNING,
-            "Buffer full, dropping " + numDropped + " " + entityType + ". Consider increasing " +
-                "the batch size of your sender to increase throughput.");
-        break;
+  private int send(ReportingService entityReportingService, String format, String entityPrefix,
+                   List<String> items,
+                   @Nullable Future<ReportingService.Compressed> compressed) throws IOException {
+    ReportingService.Compressed body = compressed == null ? null : getResult(compressed);
+    int statusCode;
+    long start = System.nanoTime();
+    if (body != null) {
+      statusCode = entityReportingService.sendCompressed(format, body);
+    } else if (format.equals(Constants.WAVEFRONT_EVENT_FORMAT)) {
+      try (InputStream is = itemsToStream(items)) {
+        statusCode = entityReportingService.sendEvent(is);
       }
+    } else {
+      statusCode = entityReportingService.send(format, items);
     }
+    // the total time spent in requests, to be divided by their number for the mean latency
+    sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report.duration_millis").
+        inc(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".report." + statusCode).inc();
+    return statusCode;
   }
 
+  private static boolean isError(int statusCode) {
+    return (400 <= statusCode && statusCode <= 599) || statusCode == -1;
+  }
 
-  private InputStream itemsToStream(List<String> items) {
-    int capacityNeeded = items.stream().mapToInt(String::length).sum();
-    StringBuilder sb = new StringBuilder(capacityNeeded);
+  /**
+   * Returns whether the status code means that the endpoint is unavailable or overloaded, as
+   * opposed to rejecting the data itself.
+   */
+  private static boolean isRetryableError(int statusCode) {
+    return statusCode >= 500 || statusCode == 429 || statusCode == -1;
+  }
 
-    for (String item : items) {
-      // every line item ends with \n
-      sb.append(item);
-    }
-    return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+  private CircuitBreaker newCircuitBreaker(Builder builder, String endpoint) {
+    CircuitBreaker circuitBreaker = new CircuitBreaker(builder.initialRetryBackoffMillis,
+        builder.maxRetryBackoffMillis, TimeUnit.MILLISECONDS, builder.circuitBreakerThreshold);
+    sdkMetricsRegistry.newGauge(endpoint + ".circuit_breaker.state",
+        () -> circuitBreaker.getState().ordinal());
+    sdkMetricsRegistry.newGauge(endpoint + ".circuit_breaker.consecutive_failures",
+        circuitBreaker::getConsecutiveFailures);
+    return circuitBreaker;
+  }
+
+
+  private InputStream itemsToStream(List<String> items) {
+    // every line item ends with \n
+    return new ByteArrayInputStream(Utils.encodeUtf8(items));
   }
 
   /**
@@ -983,17 +1717,40 @@ public class WavefrontClient implements WavefrontSender, Runnable {
       logger.log(LogMessageType.FLUSH_ERROR.toString(), Level.WARNING,
           "error flushing buffer: " + Throwables.getRootCause(e));
     }
+    for (FlushPipeline pipeline : pipelines) {
+      if (pipeline.overflow != null) {
+        pipeline.overflow.close();
+      }
+    }
 
     sdkMetricsRegistry.close();
 
     try {
       Utils.shutdownExecutorAndWait(scheduler);
+      if (flushExecutor != null) {
+        Utils.shutdownExecutorAndWait(flushExecutor);
+      }
+      if (requestExecutor != null) {
+        Utils.shutdownExecutorAndWait(requestExecutor);
+      }
+      if (compressionPool != null) {
+        Utils.shutdownExecutorAndWait(compressionPool);
+      }
     } catch (SecurityException ex) {
       logger.log(LogMessageType.SHUTDOWN_ERROR.toString(), Level.WARNING,
           "shutdown error: " + Throwables.getRootCause(ex));
     }
   }
 
+  /**
+   * Returns the number of flushes triggered ahead of the periodic ones.
+   * <p>
+   * Visible for testing.
+   */
+  long getEarlyFlushCount() {
+    return earlyFlushes.count();
+  }
+
   /**
    * Dequeue and return a batch of at most N items from buffer (where N = batchSize), broken into
    * chunks where each chunk has at most M bytes of data (where M = messageSizeBytes).
@@ -1006,37 +1763,41 @@ public class WavefrontClient implements WavefrontSender, Runnable {
    * @param dropped          A counter counting the number of items that are dropped.
    * @return A batch of items retrieved from buffer.
    */
-  static List<List<String>> getBatch(LinkedBlockingQueue<String> buffer, int batchSize,
+  static List<List<String>> getBatch(BlockingQueue<String> buffer, int batchSize,
                                      int messageSizeBytes, WavefrontSdkDeltaCounter dropped) {
     batchSize = Math.min(buffer.size(), batchSize);
     List<List<String>> batch = new ArrayList<>();
     List<String> chunk = new ArrayList<>();
+    List<String> drained = new ArrayList<>(batchSize);
     int numBytesInChunk = 0;
     int count = 0;
 
     while (count < batchSize) {
-      String item = buffer.poll();
-      if (item == null) {
+      // drain in bulk, items dropped for their size do not count towards the batch size
+      drained.clear();
+      if (buffer.drainTo(drained, batchSize - count) == 0) {
         break;
       }
-      int numBytes = item.getBytes(StandardCharsets.UTF_8).length;
-      if (numBytes > messageSizeBytes) {
-        logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING,
-            "Dropping data larger than " + messageSizeBytes + " bytes: " + item + ". Consider " +
-                "increasing the message size limit of your sender.");
-        dropped.inc();
-        continue;
-      }
-      if (numBytesInChunk + numBytes > messageSizeBytes) {
-        if (!chunk.isEmpty()) {
-          batch.add(chunk);
+      for (String item : drained) {
+        int numBytes = Utils.utf8Length(item);
+        if (numBytes > messageSizeBytes) {
+          logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING,
+              "Dropping data larger than " + messageSizeBytes + " bytes: " + item + ". Consider " +
+                  "increasing the message size limit of your sender.");
+          dropped.inc();
+          continue;
+        }
+        if (numBytesInChunk + numBytes > messageSizeBytes) {
+          if (!chunk.isEmpty()) {
+            batch.add(chunk);
+          }
+          chunk = new ArrayList<>();
+          numBytesInChunk = 0;
         }
-        chunk = new ArrayList<>();
-        numBytesInChunk = 0;
+        chunk.add(item);
+        numBytesInChunk += numBytes;
+        count++;
       }
-      chunk.add(item);
-      numBytesInChunk += numBytes;
-      count++;
     }
     if (!chunk.isEmpty()) {
       batch.add(chunk);
@@ -1045,6 +1806,386 @@ public class WavefrontClient implements WavefrontSender, Runnable {
     return batch;
   }
 
+  /**
+   * The buffer of an entity type along with everything needed to flush it. Pipelines are flushed
+   * independently of each other, so that a slow endpoint only holds back its own entity types,
+   * and each pipeline is flushed by a single thread at a time.
+   */
+  private final class FlushPipeline {
+    // number of items sent to probe an endpoint while its circuit breaker is open
+    private static final int PROBE_BATCH_SIZE = 100;
+
+    private final BlockingQueue<String> buffer;
+    @Nullable
+    private final BlockingQueue<DeferredEntity> deferred;
+    @Nullable
+    private final DiskOverflowLog overflow;
+    private final ReportingService entityReportingService;
+    private final CircuitBreaker circuitBreaker;
+    private final String format;
+    private final String entityPrefix;
+    private final String entityType;
+    private final WavefrontSdkDeltaCounter dropped;
+    private final WavefrontSdkDeltaCounter reportErrors;
+    private final AtomicInteger featureDisabledStatusCode;
+    private final LogMessageType errorMessageType;
+    private final LogMessageType permissionsMessageType;
+    private final LogMessageType bufferFullMessageType;
+
+    // applied to the queue data is sent to, the deferred queue if serialization is deferred
+    private final OverflowPolicy.Handler overflowHandler;
+    private final boolean deferredSerialization;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final WavefrontSdkDeltaCounter flushesSkipped;
+    private volatile long lastFlushDurationMillis = 0;
+
+    private FlushPipeline(Builder builder, BlockingQueue<String> buffer,
+                          @Nullable BlockingQueue<DeferredEntity> deferred,
+                          ReportingService entityReportingService,
+                          CircuitBreaker circuitBreaker, String format,
+                          String entityPrefix, String entityType,
+                          WavefrontSdkDeltaCounter dropped,
+                          WavefrontSdkDeltaCounter reportErrors,
+                          AtomicInteger featureDisabledStatusCode,
+                          LogMessageType errorMessageType,
+                          LogMessageType permissionsMessageType,
+                          LogMessageType bufferFullMessageType) {
+      this.buffer = buffer;
+      this.deferred = deferred;
+      this.overflow = newOverflowLog(builder, entityPrefix);
+      this.entityReportingService = entityReportingService;
+      this.circuitBreaker = circuitBreaker;
+      this.format = format;
+      this.entityPrefix = entityPrefix;
+      this.entityType = entityType;
+      this.dropped = dropped;
+      this.reportErrors = reportErrors;
+      this.featureDisabledStatusCode = featureDisabledStatusCode;
+      this.errorMessageType = errorMessageType;
+      this.permissionsMessageType = permissionsMessageType;
+      this.bufferFullMessageType = bufferFullMessageType;
+
+      sdkMetricsRegistry.newGauge(entityPrefix + ".flush.duration_millis",
+          () -> lastFlushDurationMillis);
+      flushesSkipped = sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".flush.skipped");
+      overflowHandler = builder.overflowPolicies.getOrDefault(entityPrefix,
+          builder.overflowPolicy).newHandler(sdkMetricsRegistry, entityPrefix);
+      deferredSerialization = builder.deferredSerialization;
+    }
+
+    /**
+     * Adds an item to the buffer, or to the overflow log when the buffer is full.
+     *
+     * @param flushThread whether the item is added by the flush thread, which must not block so
+     *                    the overflow policy is not applied.
+     */
+    private boolean offer(String item, boolean flushThread) {
+      boolean added = flushThread ? buffer.offer(item) :
+          overflowHandler.offer(buffer, item, this::spill);
+      checkEarlyFlush(this, buffer, added);
+      return added || (overflow != null && overflow.append(item));
+    }
+
+    private boolean offerDeferred(DeferredEntity entity) {
+      // evicted entities are not serialized yet, and cannot be spilled to the overflow log
+      boolean added = overflowHandler.offer(deferred, entity, evicted -> dropped.inc());
+      checkEarlyFlush(this, deferred, added);
+      return added;
+    }
+
+    /**
+     * Spills an item evicted from the buffer to the overflow log, or counts it as dropped.
+     */
+    private void spill(String evicted) {
+      if (overflow == null || !overflow.append(evicted)) {
+        dropped.inc();
+      }
+    }
+
+    /**
+     * Flushes this pipeline.
+     *
+     * @param wait whether to wait for a flush in progress on another thread to complete, or to
+     *             skip this flush.
+     */
+    private void flush(boolean wait) throws IOException {
+      if (wait) {
+        lock.lock();
+      } else if (!lock.tryLock()) {
+        flushesSkipped.inc();
+        return;
+      }
+      long start = System.nanoTime();
+      try {
+        encodeDeferred(deferred);
+        flushBuffer();
+      } finally {
+        lastFlushDurationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lock.unlock();
+      }
+    }
+
+    private void flushBuffer() throws IOException {
+      CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+      if (permit == CircuitBreaker.Permit.DENIED) {
+        // backing off from the endpoint, the data stays buffered in the meantime
+        return;
+      }
+      // Event direct ingestion now does not support batching
+      int maxItems = format.equals(Constants.WAVEFRONT_EVENT_FORMAT) ? 1 : batchSize;
+      if (permit == CircuitBreaker.Permit.PROBE) {
+        maxItems = Math.min(maxItems, PROBE_BATCH_SIZE);
+      }
+      List<List<String>> batch = getBatch(buffer, maxItems, messageSizeBytes, dropped);
+
+      // with concurrent requests, every chunk is submitted up front and the results are
+      // reconciled in order below
+      List<Future<Integer>> inFlight = null;
+      if (requestExecutor != null && batch.size() > 1 && featureDisabledStatusCode.get() == 0 &&
+          permit == CircuitBreaker.Permit.REQUEST) {
+        inFlight = new ArrayList<>(batch.size());
+        for (List<String> items : batch) {
+          inFlight.add(requestExecutor.submit(() -> sendChunk(items, null)));
+        }
+      }
+      // otherwise the chunks following the first one can be compressed while it is being sent
+      List<Future<ReportingService.Compressed>> compressed = null;
+      if (inFlight == null && compressionPool != null && batch.size() > 1 &&
+          featureDisabledStatusCode.get() == 0) {
+        compressed = new ArrayList<>(batch.size());
+        for (List<String> items : batch) {
+          compressed.add(compressionPool.submit(
+              () -> entityReportingService.compress(format, items)));
+        }
+      }
+
+      boolean delivered = true;
+      boolean sent = false;
+      IOException error = null;
+      for (int i = 0; i < batch.size(); i++) {
+        List<String> items = batch.get(i);
+        if (inFlight == null) {
+          if (error != null) {
+            // the remaining chunks are not sent once a request failed
+            dropped.inc(items.size());
+            continue;
+          }
+          if (sent && circuitBreaker.tryAcquire() == CircuitBreaker.Permit.DENIED) {
+            // a previous chunk failed, resend the remaining ones after backing off
+            delivered = false;
+            requeue(items);
+            continue;
+          }
+          int featureDisabledReason = featureDisabledStatusCode.get();
+          if (featureDisabledReason != 0) {
+            switch (featureDisabledReason) {
+              case 401:
+                logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                    "Please verify that your credentials are correct! All " + entityType +
+                        " will be discarded until the service is restarted.");
+                break;
+              case 403:
+                if (format.equals(Constants.WAVEFRONT_METRIC_FORMAT)) {
+                  logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                      "Please verify that Direct Data Ingestion is enabled for your account! " +
+                          "All " + entityType + " will be discarded until the service is " +
+                          "restarted.");
+                } else {
+                  logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                      "Please verify that Direct Data Ingestion and " + entityType + " are " +
+                          "enabled for your account! All " + entityType + " will be discarded " +
+                          "until the service is restarted.");
+                }
+            }
+            continue;
+          }
+        }
+        int statusCode;
+        try {
+          sent = true;
+          statusCode = inFlight == null ?
+              sendChunk(items, compressed == null ? null : compressed.get(i)) :
+              getResult(inFlight.get(i));
+        } catch (IOException ex) {
+          dropped.inc(items.size());
+          reportErrors.inc();
+          delivered = false;
+          error = addError(error, ex);
+          continue;
+        }
+        if (isError(statusCode)) {
+          delivered = false;
+          if (disableOnError(statusCode)) {
+            dropped.inc(items.size());
+          } else {
+            logger.log(errorMessageType.toString(), Level.WARNING,
+                "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                    "Data will be requeued and resent.");
+            requeue(items);
+          }
+        }
+      }
+      if (permit == CircuitBreaker.Permit.PROBE && !sent) {
+        circuitBreaker.release();
+      }
+      if (error != null) {
+        throw error;
+      }
+
+      if (overflow != null && delivered) {
+        replayOverflow(overflow, maxItems);
+      }
+    }
+
+    /**
+     * Sends a chunk of data, recording the outcome in the circuit breaker of the endpoint.
+     *
+     * @param compressed the chunk compressed ahead of time, or null to compress it while sending.
+     */
+    private int sendChunk(List<String> items,
+                          @Nullable Future<ReportingService.Compressed> compressed)
+        throws IOException {
+      int statusCode;
+      try {
+        statusCode = send(entityReportingService, format, entityPrefix, items, compressed);
+      } catch (IOException ex) {
+        circuitBreaker.onFailure();
+        throw ex;
+      }
+      if (isRetryableError(statusCode)) {
+        circuitBreaker.onFailure();
+      } else {
+        circuitBreaker.onSuccess();
+      }
+      return statusCode;
+    }
+
+    /**
+     * Sends up to {@code maxItems} items spilled to disk, oldest first. Items are consumed from
+     * the overflow log only once they were accepted, so the replay stops at the first failure and
+     * resumes from the same place on a later flush.
+     */
+    private void replayOverflow(DiskOverflowLog overflow, int maxItems) throws IOException {
+      int replayed = 0;
+      while (replayed < maxItems && featureDisabledStatusCode.get() == 0) {
+        CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+        if (permit == CircuitBreaker.Permit.DENIED) {
+          return;
+        }
+        int limit = maxItems - replayed;
+        if (permit == CircuitBreaker.Permit.PROBE) {
+          limit = Math.min(limit, PROBE_BATCH_SIZE);
+        }
+        List<String> items = overflow.peek(limit, messageSizeBytes);
+        if (items.isEmpty() || (items.size() == 1 &&
+            Utils.utf8Length(items.get(0)) > messageSizeBytes)) {
+          if (permit == CircuitBreaker.Permit.PROBE) {
+            circuitBreaker.release();
+          }
+          if (items.isEmpty()) {
+            return;
+          }
+          logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING,
+              "Dropping data larger than " + messageSizeBytes + " bytes: " + items.get(0) +
+                  ". Consider increasing the message size limit of your sender.");
+          dropped.inc();
+          overflow.commit();
+          replayed++;
+          continue;
+        }
+        replayed += items.size();
+        int statusCode;
+        try {
+          statusCode = sendChunk(items, null);
+        } catch (IOException ex) {
+          reportErrors.inc();
+          throw ex;
+        }
+        if (isError(statusCode)) {
+          if (disableOnError(statusCode)) {
+            dropped.inc(items.size());
+            overflow.commit();
+          } else {
+            logger.log(errorMessageType.toString(), Level.WARNING,
+                "Error replaying " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                    "Data will be resent.");
+          }
+          return;
+        }
+        overflow.commit();
+      }
+    }
+
+    /**
+     * Disables sending this entity type if the error status code means that it will never
+     * succeed.
+     *
+     * @return true if the entity type was disabled, false if the data should be resent.
+     */
+    private boolean disableOnError(int statusCode) {
+      switch (statusCode) {
+        case 401:
+          logger.log(permissionsMessageType.toString(), Level.SEVERE,
+              "Error sending " + entityType + " to Wavefront (HTTP 401 Unauthorized). " +
+                  "Please verify that your credentials are correct! All " + entityType + " " +
+                  "will be discarded until the service is restarted.");
+          featureDisabledStatusCode.set(statusCode);
+          return true;
+        case 403:
+          if (format.equals(Constants.WAVEFRONT_METRIC_FORMAT)) {
+            logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                "Error sending " + entityType + " to Wavefront (HTTP 403 Forbidden). " +
+                    "Please verify that Direct Data Ingestion is enabled for your account! " +
+                    "All " + entityType + " will be discarded until the service is restarted.");
+          } else {
+            logger.log(permissionsMessageType.toString(), Level.SEVERE,
+                "Error sending " + entityType + " to Wavefront (HTTP " + statusCode + "). " +
+                    "Please verify that Direct Data Ingestion and " + entityType + " are " +
+                    "enabled for your account! All " + entityType + " will be discarded " +
+                    "until the service is restarted.");
+          }
+          featureDisabledStatusCode.set(statusCode);
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    private void requeue(List<String> items) {
+      int numAddedBackToBuffer = 0;
+      if (buffer instanceof MpscRingBuffer) {
+        numAddedBackToBuffer = ((MpscRingBuffer<String>) buffer).offerAll(items);
+      } else {
+        for (String item : items) {
+          if (!buffer.offer(item)) {
+            break;
+          }
+          numAddedBackToBuffer++;
+        }
+      }
+      while (overflow != null && numAddedBackToBuffer < items.size() &&
+          overflow.append(items.get(numAddedBackToBuffer))) {
+        numAddedBackToBuffer++;
+      }
+      if (numAddedBackToBuffer < items.size()) {
+        int numDropped = items.size() - numAddedBackToBuffer;
+        dropped.inc(numDropped);
+        logger.log(bufferFullMessageType.toString(), Level.WARNING,
+            "Buffer full, dropping " + numDropped + " " + entityType + ". Consider increasing " +
+                "the batch size of your sender to increase throughput.");
+      }
+    }
+  }
+
+  /**
+   * The captured arguments of a send call whose encoding has been deferred to the flush thread.
+   */
+  @FunctionalInterface
+  private interface DeferredEntity {
+    void encode();
+  }
+
   private enum LogMessageType {
     UNKNOWN_HOST,
     METRICS_BUFFER_FULL,
@@ -0,0 +1,211 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import com.wavefront.sdk.common.Utils;
+import com.wavefront.sdk.common.annotation.NonNull;
+import com.wavefront.sdk.common.annotation.Nullable;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A queue of line data bounded by the UTF-8 encoded size of its items in addition to the item
+ * count bound of the queue it wraps. Every item reserves its size from the queue's own
+ * {@link ByteBudget} and, optionally, from a budget shared with other queues, and releases it
+ * when it is dequeued. An item that does not fit in either budget is rejected like an item
+ * offered to a full queue.
+ *
+ * @version $Id: $Id
+ */
+public class ByteBoundedQueue extends AbstractQueue<String> implements BlockingQueue<String> {
+
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final BlockingQueue<String> delegate;
+  private final ByteBudget budget;
+  @Nullable
+  private final ByteBudget sharedBudget;
+
+  /**
+   * Creates a byte bounded view of the given queue.
+   *
+   * @param delegate     the queue holding the items.
+   * @param budget       the budget of this queue.
+   * @param sharedBudget a budget shared with other queues, or null.
+   */
+  public ByteBoundedQueue(BlockingQueue<String> delegate, ByteBudget budget,
+                          @Nullable ByteBudget sharedBudget) {
+    this.delegate = delegate;
+    this.budget = budget;
+    this.sharedBudget = sharedBudget;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean offer(@NonNull String item) {
+    int bytes = Utils.utf8Length(item);
+    if (!budget.tryAcquire(bytes)) {
+      return false;
+    }
+    if (sharedBudget != null && !sharedBudget.tryAcquire(bytes)) {
+      budget.release(bytes);
+      return false;
+    }
+    if (!delegate.offer(item)) {
+      release(bytes);
+      return false;
+    }
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean offer(@NonNull String item, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(item)) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(PARK_NANOS);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(@NonNull String item) throws InterruptedException {
+    offer(item, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String poll() {
+    return released(delegate.poll());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return released(delegate.poll(timeout, unit));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String take() throws InterruptedException {
+    return released(delegate.take());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String peek() {
+    return delegate.peek();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int drainTo(Collection<? super String> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int drainTo(Collection<? super String> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    List<String> drained = new ArrayList<>(Math.min(maxElements, delegate.size()));
+    int count = delegate.drainTo(drained, maxElements);
+    long bytes = 0;
+    for (String item : drained) {
+      bytes += Utils.utf8Length(item);
+    }
+    release(bytes);
+    c.addAll(drained);
+    return count;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int remainingCapacity() {
+    return delegate.remainingCapacity();
+  }
+
+  /**
+   * Returns the UTF-8 encoded size of the items in this queue.
+   *
+   * @return the number of bytes held by this queue.
+   */
+  public long bytes() {
+    return budget.used();
+  }
+
+  /**
+   * Returns the number of bytes that can still be added to this queue, not taking the shared
+   * budget into account.
+   *
+   * @return the remaining byte capacity of this queue.
+   */
+  public long remainingBytes() {
+    return budget.remaining();
+  }
+
+  /**
+   * Returns an iterator over the items of this queue. The iterator does not support removal.
+   *
+   * @return an iterator over the items of this queue.
+   */
+  @Override
+  public Iterator<String> iterator() {
+    List<String> snapshot = new ArrayList<>(delegate);
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+
+  /**
+   * Returns whether an item rejected by the given buffer could be added once items are evicted
+   * from it, that is unless the item exceeds the byte budget of the buffer on its own, or the
+   * shared budget is used up by other buffers. Buffers not bounded by size always qualify.
+   */
+  static boolean fitsAfterEviction(BlockingQueue<?> buffer, Object item) {
+    if (!(buffer instanceof ByteBoundedQueue)) {
+      return true;
+    }
+    ByteBoundedQueue queue = (ByteBoundedQueue) buffer;
+    long bytes = Utils.utf8Length((String) item);
+    if (bytes > queue.budget.limit()) {
+      return false;
+    }
+    // evicting every item of this buffer releases at most the bytes it holds
+    return queue.sharedBudget == null ||
+        bytes <= queue.sharedBudget.remaining() + queue.budget.used();
+  }
+
+  private String released(@Nullable String item) {
+    if (item != null) {
+      release(Utils.utf8Length(item));
+    }
+    return item;
+  }
+
+  private void release(long bytes) {
+    budget.release(bytes);
+    if (sharedBudget != null) {
+      sharedBudget.release(bytes);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A number of bytes that can be reserved and released concurrently, used to bound the memory
+ * held by one or more buffers.
+ *
+ * @version $Id: $Id
+ */
+public class ByteBudget {
+  private final long limit;
+  private final AtomicLong used = new AtomicLong();
+
+  /**
+   * Creates a budget of {@code limit} bytes.
+   *
+   * @param limit the number of bytes that can be reserved at any given time.
+   */
+  public ByteBudget(long limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive: " + limit);
+    }
+    this.limit = limit;
+  }
+
+  /**
+   * Reserves {@code bytes} bytes if that does not exceed the limit.
+   *
+   * @param bytes the number of bytes to reserve.
+   * @return true if the bytes were reserved, false if the budget is exhausted.
+   */
+  public boolean tryAcquire(long bytes) {
+    for (;;) {
+      long current = used.get();
+      long next = current + bytes;
+      if (next > limit) {
+        return false;
+      }
+      if (used.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases {@code bytes} previously reserved bytes.
+   *
+   * @param bytes the number of bytes to release.
+   */
+  public void release(long bytes) {
+    used.addAndGet(-bytes);
+  }
+
+  /**
+   * Returns the number of bytes currently reserved.
+   *
+   * @return the number of bytes currently reserved.
+   */
+  public long used() {
+    return used.get();
+  }
+
+  /**
+   * Returns the number of bytes that can still be reserved.
+   *
+   * @return the number of bytes that can still be reserved.
+   */
+  public long remaining() {
+    return Math.max(0, limit - used.get());
+  }
+
+  /**
+   * Returns the maximum number of bytes that can be reserved.
+   *
+   * @return the limit of this budget.
+   */
+  public long limit() {
+    return limit;
+  }
+}
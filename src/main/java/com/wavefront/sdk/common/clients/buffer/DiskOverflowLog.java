@@ -0,0 +1,301 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only log of line data kept in memory-mapped segment files, used to hold data that
+ * does not fit in an in-memory buffer while the Wavefront service is unavailable. Items are
+ * read back in the order they were appended: {@link #peek(int, long)} returns the oldest items
+ * without consuming them, and {@link #commit()} consumes them once they were delivered.
+ * <p>
+ * Each record is the length of the UTF-8 encoded item followed by its bytes. Fully consumed
+ * segments are deleted. The log is bounded by the total size of its segment files, and is not
+ * recovered when the process restarts: its segments are deleted on {@link #close()}.
+ * <p>
+ * The mapping of a segment is released explicitly when it is deleted on Java 9 or later, so that
+ * its disk space and address space are freed right away, and so that the file can be deleted on
+ * Windows. On Java 8 the mapping is only released once the segment is garbage collected.
+ *
+ * @version $Id: $Id
+ */
+public class DiskOverflowLog implements Closeable {
+  private static final Logger logger = Logger.getLogger(DiskOverflowLog.class.getCanonicalName());
+
+  private static final int MAX_SEGMENT_BYTES = 16 * 1024 * 1024;
+  private static final int RECORD_HEADER_BYTES = Integer.BYTES;
+
+  // sun.misc.Unsafe#invokeCleaner(ByteBuffer) and the Unsafe instance, on Java 9 or later
+  @Nullable
+  private static final Method INVOKE_CLEANER;
+  @Nullable
+  private static final Object UNSAFE;
+
+  static {
+    Method invokeCleaner = null;
+    Object unsafe = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Java 8, or the method is not accessible: mappings are released by the garbage collector
+      invokeCleaner = null;
+      unsafe = null;
+    }
+    INVOKE_CLEANER = invokeCleaner;
+    UNSAFE = unsafe;
+  }
+
+  private final Path directory;
+  private final String name;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private long nextSegmentId = 0;
+
+  // read cursor in the oldest segment, and where the last peek stopped
+  private int readPosition = 0;
+  private Segment peekSegment;
+  private int peekPosition = -1;
+  private int peekCount = 0;
+  private long peekBytes = 0;
+  private long backlogBytes = 0;
+  private boolean closed = false;
+
+  private final WavefrontSdkDeltaCounter spilled;
+  private final WavefrontSdkDeltaCounter replayed;
+  private final WavefrontSdkDeltaCounter rejected;
+
+  /**
+   * Creates an empty log in the given directory.
+   *
+   * @param directory          the directory holding the segment files; created if missing.
+   * @param name               a name unique among the logs sharing the directory.
+   * @param maxBytes           the maximum total size of the segment files.
+   * @param sdkMetricsRegistry the registry for internal metrics.
+   * @param entityPrefix       a prefix for internal metrics pertaining to this instance.
+   * @throws IOException if the directory cannot be created.
+   */
+  public DiskOverflowLog(Path directory, String name, long maxBytes,
+                         WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix)
+      throws IOException {
+    this(directory, name, maxBytes, MAX_SEGMENT_BYTES, sdkMetricsRegistry, entityPrefix);
+  }
+
+  /**
+   * Visible for testing.
+   */
+  DiskOverflowLog(Path directory, String name, long maxBytes, int maxSegmentBytes,
+                  WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix)
+      throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.name = name;
+    this.segmentBytes = (int) Math.max(RECORD_HEADER_BYTES + 1,
+        Math.min(maxSegmentBytes, maxBytes));
+    this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+
+    entityPrefix = entityPrefix == null || entityPrefix.isEmpty() ? "" : entityPrefix + ".";
+    sdkMetricsRegistry.newGauge(entityPrefix + "overflow.bytes", this::bytes);
+    spilled = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "overflow.spilled");
+    replayed = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "overflow.replayed");
+    rejected = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "overflow.rejected");
+  }
+
+  /**
+   * Appends an item to the log.
+   *
+   * @param item the item to append.
+   * @return true if the item was appended, false if the log is full, closed or unwritable.
+   */
+  public synchronized boolean append(String item) {
+    if (closed) {
+      rejected.inc();
+      return false;
+    }
+    byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+    int recordBytes = RECORD_HEADER_BYTES + bytes.length;
+    if (recordBytes > segmentBytes) {
+      rejected.inc();
+      return false;
+    }
+    Segment segment = segments.peekLast();
+    if (segment == null || segment.buffer.capacity() - segment.writePosition < recordBytes) {
+      if (segments.size() >= maxSegments) {
+        rejected.inc();
+        return false;
+      }
+      try {
+        segment = newSegment();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to create overflow segment in " + directory, e);
+        rejected.inc();
+        return false;
+      }
+    }
+    ByteBuffer record = segment.buffer.duplicate();
+    record.position(segment.writePosition);
+    record.putInt(bytes.length).put(bytes);
+    segment.writePosition += recordBytes;
+    backlogBytes += bytes.length;
+    spilled.inc();
+    return true;
+  }
+
+  /**
+   * Returns the oldest items of the log without consuming them. At least one item is returned if
+   * the log is not empty, even if it is larger than {@code maxBytes}.
+   *
+   * @param maxItems the maximum number of items to return.
+   * @param maxBytes the maximum total size of the returned items in bytes.
+   * @return the oldest items of the log, in order.
+   */
+  public synchronized List<String> peek(int maxItems, long maxBytes) {
+    peekCount = 0;
+    peekBytes = 0;
+    peekSegment = segments.peekFirst();
+    peekPosition = readPosition;
+    if (peekSegment == null || maxItems <= 0) {
+      return Collections.emptyList();
+    }
+    List<String> items = new ArrayList<>();
+    while (items.size() < maxItems && peekPosition < peekSegment.writePosition) {
+      int length = peekSegment.buffer.getInt(peekPosition);
+      if (!items.isEmpty() && peekBytes + length > maxBytes) {
+        break;
+      }
+      byte[] bytes = new byte[length];
+      ByteBuffer record = peekSegment.buffer.duplicate();
+      record.position(peekPosition + RECORD_HEADER_BYTES);
+      record.get(bytes);
+      items.add(new String(bytes, StandardCharsets.UTF_8));
+      peekPosition += RECORD_HEADER_BYTES + length;
+      peekBytes += length;
+      peekCount++;
+    }
+    return items;
+  }
+
+  /**
+   * Consumes the items returned by the last call to {@link #peek(int, long)}, deleting the
+   * oldest segment once it is fully consumed.
+   */
+  public synchronized void commit() {
+    if (peekSegment == null || peekSegment != segments.peekFirst() || peekCount == 0) {
+      return;
+    }
+    readPosition = peekPosition;
+    backlogBytes -= peekBytes;
+    replayed.inc(peekCount);
+    peekCount = 0;
+    peekBytes = 0;
+    Segment head = segments.peekFirst();
+    if (readPosition >= head.writePosition) {
+      if (segments.size() > 1) {
+        segments.pollFirst();
+        head.delete();
+      } else {
+        // the only segment is fully consumed, start writing it over
+        head.writePosition = 0;
+      }
+      readPosition = 0;
+    }
+  }
+
+  /**
+   * Returns whether the log holds no unconsumed items.
+   *
+   * @return true if the log is empty.
+   */
+  public synchronized boolean isEmpty() {
+    Segment head = segments.peekFirst();
+    return head == null || (segments.size() == 1 && readPosition >= head.writePosition);
+  }
+
+  /**
+   * Returns the UTF-8 encoded size of the unconsumed items.
+   *
+   * @return the number of bytes waiting to be replayed.
+   */
+  public synchronized long bytes() {
+    return backlogBytes;
+  }
+
+  /**
+   * Deletes all segment files. Unconsumed items are lost, and items appended later are rejected.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    for (Segment segment : segments) {
+      segment.delete();
+    }
+    segments.clear();
+    readPosition = 0;
+    backlogBytes = 0;
+    peekSegment = null;
+  }
+
+  private Segment newSegment() throws IOException {
+    Path path = directory.resolve(name + "-" + (nextSegmentId++) + ".seg");
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping remains valid after the channel is closed
+      Segment segment = new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          segmentBytes));
+      segments.addLast(segment);
+      return segment;
+    }
+  }
+
+  private static class Segment {
+    private final Path path;
+    // null once the segment is deleted
+    private MappedByteBuffer buffer;
+    private int writePosition = 0;
+
+    private Segment(Path path, MappedByteBuffer buffer) {
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    private void delete() {
+      MappedByteBuffer mapping = buffer;
+      buffer = null;
+      if (mapping != null && INVOKE_CLEANER != null) {
+        try {
+          INVOKE_CLEANER.invoke(UNSAFE, mapping);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+          logger.log(Level.FINE, "Unable to unmap overflow segment " + path, e);
+        }
+      }
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to delete overflow segment " + path, e);
+      }
+    }
+  }
+}
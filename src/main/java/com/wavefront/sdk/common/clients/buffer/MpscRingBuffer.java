@@ -0,0 +1,326 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import com.wavefront.sdk.common.annotation.NonNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, array-backed, lock-free queue intended for many producers and a single consumer.
+ * Producers claim slots with a CAS on a padded tail sequence and publish them through a per-slot
+ * sequence number, so an enqueue never takes a lock nor allocates a node.
+ * <p>
+ * The consumer side claims slots with a CAS as well, which keeps the queue safe when an explicit
+ * flush races the scheduled one. {@link #drainTo(Collection, int)} and {@link #offerAll(List)}
+ * claim whole ranges of slots with a single CAS.
+ * <p>
+ * The blocking operations of {@link BlockingQueue} are implemented by parking the calling thread
+ * for short intervals and are not meant for the hot path.
+ *
+ * @version $Id: $Id
+ */
+public class MpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<E> slots;
+  private final AtomicLongArray sequences;
+  private final PaddedAtomicLong head = new PaddedAtomicLong();
+  private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+  /**
+   * Creates a ring buffer holding at most {@code capacity} elements.
+   *
+   * @param capacity the maximum number of elements in the buffer.
+   */
+  public MpscRingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    if (capacity > (1 << 30)) {
+      throw new IllegalArgumentException("capacity too large: " + capacity);
+    }
+    this.capacity = capacity;
+    int arraySize = 1;
+    while (arraySize < capacity) {
+      arraySize <<= 1;
+    }
+    this.mask = arraySize - 1;
+    this.slots = new AtomicReferenceArray<>(arraySize);
+    this.sequences = new AtomicLongArray(arraySize);
+    for (int i = 0; i < arraySize; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean offer(@NonNull E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    long pos;
+    int index;
+    for (;;) {
+      pos = tail.get();
+      if (pos - head.get() >= capacity) {
+        return false;
+      }
+      index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+      } else if (diff < 0) {
+        // the consumer has claimed but not yet released this slot
+        return false;
+      }
+    }
+    slots.lazySet(index, e);
+    sequences.lazySet(index, pos + 1);
+    return true;
+  }
+
+  /**
+   * Enqueues as many of the given elements as fit, in order, claiming all their slots with one
+   * CAS where possible.
+   *
+   * @param items the elements to enqueue.
+   * @return the number of leading elements of {@code items} that were enqueued.
+   */
+  public int offerAll(List<? extends E> items) {
+    for (E e : items) {
+      if (e == null) {
+        throw new NullPointerException();
+      }
+    }
+    int offered = 0;
+    while (offered < items.size()) {
+      int remaining = items.size() - offered;
+      long pos = tail.get();
+      long free = capacity - (pos - head.get());
+      int toClaim = (int) Math.min(remaining, free);
+      if (toClaim <= 0) {
+        break;
+      }
+      int claimable = 0;
+      while (claimable < toClaim && sequences.get((int) ((pos + claimable) & mask)) == pos + claimable) {
+        claimable++;
+      }
+      if (claimable == 0) {
+        if (sequences.get((int) (pos & mask)) < pos) {
+          break;
+        }
+        continue;
+      }
+      if (!tail.compareAndSet(pos, pos + claimable)) {
+        continue;
+      }
+      for (int i = 0; i < claimable; i++) {
+        int index = (int) ((pos + i) & mask);
+        slots.lazySet(index, items.get(offered + i));
+        sequences.lazySet(index, pos + i + 1);
+      }
+      offered += claimable;
+    }
+    return offered;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public E poll() {
+    for (;;) {
+      long pos = head.get();
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E e = slots.get(index);
+          slots.lazySet(index, null);
+          sequences.lazySet(index, pos + mask + 1);
+          return e;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public E peek() {
+    for (;;) {
+      long pos = head.get();
+      int index = (int) (pos & mask);
+      if (sequences.get(index) != pos + 1) {
+        return null;
+      }
+      E e = slots.get(index);
+      if (e != null && head.get() == pos) {
+        return e;
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int drained = 0;
+    while (drained < maxElements) {
+      long pos = head.get();
+      int available = 0;
+      while (drained + available < maxElements &&
+          sequences.get((int) ((pos + available) & mask)) == pos + available + 1) {
+        available++;
+      }
+      if (available == 0) {
+        break;
+      }
+      if (!head.compareAndSet(pos, pos + available)) {
+        continue;
+      }
+      for (int i = 0; i < available; i++) {
+        int index = (int) ((pos + i) & mask);
+        E e = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, pos + i + mask + 1);
+        c.add(e);
+      }
+      drained += available;
+    }
+    return drained;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(@NonNull E e) throws InterruptedException {
+    while (!offer(e)) {
+      parkOrThrow();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean offer(@NonNull E e, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(e)) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      parkOrThrow();
+    }
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public E take() throws InterruptedException {
+    E e;
+    while ((e = poll()) == null) {
+      parkOrThrow();
+    }
+    return e;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    while ((e = poll()) == null) {
+      if (System.nanoTime() - deadline >= 0) {
+        return null;
+      }
+      parkOrThrow();
+    }
+    return e;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int size() {
+    // read head first so that the difference is never negative
+    long currentHead = head.get();
+    long size = tail.get() - currentHead;
+    return (int) Math.max(0, Math.min(capacity, size));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  /**
+   * Returns the maximum number of elements this buffer can hold.
+   *
+   * @return the capacity of this buffer.
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns a weakly consistent snapshot of the published elements. The iterator does not
+   * support removal.
+   *
+   * @return an iterator over a snapshot of this buffer.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = new ArrayList<>();
+    long pos = head.get();
+    long end = tail.get();
+    for (; pos < end; pos++) {
+      int index = (int) (pos & mask);
+      if (sequences.get(index) != pos + 1) {
+        break;
+      }
+      E e = slots.get(index);
+      if (e != null) {
+        snapshot.add(e);
+      }
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+
+  private static void parkOrThrow() throws InterruptedException {
+    LockSupport.parkNanos(PARK_NANOS);
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  /**
+   * An {@link AtomicLong} padded to a cache line so that the producer and consumer cursors do
+   * not share one.
+   */
+  @SuppressWarnings("unused")
+  private static final class PaddedAtomicLong extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+  }
+}
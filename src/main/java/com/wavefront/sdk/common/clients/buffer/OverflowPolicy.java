@@ -0,0 +1,206 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * What to do with data sent while its buffer is full. A policy creates a {@link Handler} for
+ * every buffer it applies to, which reports what the policy does through internal metrics
+ * prefixed by the entity type of the buffer.
+ *
+ * @version $Id: $Id
+ */
+public interface OverflowPolicy {
+
+  /**
+   * Creates the handler applying this policy to one buffer.
+   *
+   * @param sdkMetricsRegistry the registry for internal metrics.
+   * @param entityPrefix       a prefix for internal metrics pertaining to the buffer.
+   * @return a new handler.
+   */
+  Handler newHandler(WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix);
+
+  /**
+   * Adds items to a single buffer according to a policy.
+   */
+  interface Handler {
+    /**
+     * Adds an item to the buffer.
+     *
+     * @param buffer the buffer.
+     * @param item   the item to add.
+     * @param <E>    the type of the items.
+     * @return true if the item was added, false if it was dropped.
+     */
+    <E> boolean offer(BlockingQueue<E> buffer, E item);
+
+    /**
+     * Adds an item to the buffer, handing the items evicted to make room for it to
+     * {@code evicted}, so that they can be spilled elsewhere or counted as dropped.
+     *
+     * @param buffer  the buffer.
+     * @param item    the item to add.
+     * @param evicted receives the items evicted from the buffer.
+     * @param <E>     the type of the items.
+     * @return true if the item was added, false if it was dropped.
+     */
+    default <E> boolean offer(BlockingQueue<E> buffer, E item, Consumer<? super E> evicted) {
+      return offer(buffer, item);
+    }
+  }
+
+  /**
+   * Drops the data being sent. This is the default policy.
+   *
+   * @return the drop newest policy.
+   */
+  static OverflowPolicy dropNewest() {
+    return (sdkMetricsRegistry, entityPrefix) -> new Handler() {
+      @Override
+      public <E> boolean offer(BlockingQueue<E> buffer, E item) {
+        return buffer.offer(item);
+      }
+    };
+  }
+
+  /**
+   * Blocks the thread sending data until the buffer has room for it, or until the timeout
+   * elapses and the data is dropped. Reports {@code <entity>.backpressure.blocked} and
+   * {@code <entity>.backpressure.timed_out}.
+   *
+   * @param timeout how long to wait for room in the buffer.
+   * @param unit    the unit of {@code timeout}.
+   * @return the block with timeout policy.
+   */
+  static OverflowPolicy blockWithTimeout(long timeout, TimeUnit unit) {
+    long timeoutNanos = unit.toNanos(timeout);
+    return (sdkMetricsRegistry, entityPrefix) -> {
+      WavefrontSdkDeltaCounter blocked =
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".backpressure.blocked");
+      WavefrontSdkDeltaCounter timedOut =
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".backpressure.timed_out");
+      return new Handler() {
+        @Override
+        public <E> boolean offer(BlockingQueue<E> buffer, E item) {
+          if (buffer.offer(item)) {
+            return true;
+          }
+          blocked.inc();
+          try {
+            if (buffer.offer(item, timeoutNanos, TimeUnit.NANOSECONDS)) {
+              return true;
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          timedOut.inc();
+          return false;
+        }
+      };
+    };
+  }
+
+  /**
+   * Evicts the oldest data of the buffer to make room for the data being sent. Reports
+   * {@code <entity>.backpressure.evicted}. Evicted data is also counted in
+   * {@code <entity>.dropped}, unless it is spilled to the overflow directory.
+   *
+   * @return the drop oldest policy.
+   */
+  static OverflowPolicy dropOldest() {
+    return (sdkMetricsRegistry, entityPrefix) -> {
+      WavefrontSdkDeltaCounter evicted =
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".backpressure.evicted");
+      return new Handler() {
+        @Override
+        public <E> boolean offer(BlockingQueue<E> buffer, E item) {
+          return offer(buffer, item, oldest -> {});
+        }
+
+        @Override
+        public <E> boolean offer(BlockingQueue<E> buffer, E item, Consumer<? super E> onEvicted) {
+          while (!buffer.offer(item)) {
+            if (!ByteBoundedQueue.fitsAfterEviction(buffer, item)) {
+              // evicting data would not make room for the item
+              return false;
+            }
+            E oldest = buffer.poll();
+            if (oldest == null) {
+              // the item does not fit in an empty buffer
+              return false;
+            }
+            evicted.inc();
+            onEvicted.accept(oldest);
+          }
+          return true;
+        }
+      };
+    };
+  }
+
+  /**
+   * Keeps an approximately uniform sample of the data sent while the buffer is full: once the
+   * buffer is full, the n-th item sent is kept with a probability of {@code capacity / n}, in
+   * which case it evicts the oldest item of the buffer. Reports
+   * {@code <entity>.backpressure.evicted} and {@code <entity>.backpressure.sampled_out}. Evicted
+   * data is also counted in {@code <entity>.dropped}, unless it is spilled to the overflow
+   * directory.
+   *
+   * @return the sample policy.
+   */
+  static OverflowPolicy sample() {
+    return (sdkMetricsRegistry, entityPrefix) -> {
+      WavefrontSdkDeltaCounter evicted =
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".backpressure.evicted");
+      WavefrontSdkDeltaCounter sampledOut =
+          sdkMetricsRegistry.newDeltaCounter(entityPrefix + ".backpressure.sampled_out");
+      // number of items sent since the buffer last had room
+      AtomicLong offeredWhileFull = new AtomicLong();
+      return new Handler() {
+        @Override
+        public <E> boolean offer(BlockingQueue<E> buffer, E item) {
+          return offer(buffer, item, oldest -> {});
+        }
+
+        @Override
+        public <E> boolean offer(BlockingQueue<E> buffer, E item, Consumer<? super E> onEvicted) {
+          if (buffer.offer(item)) {
+            if (offeredWhileFull.get() != 0) {
+              offeredWhileFull.set(0);
+            }
+            return true;
+          }
+          if (!ByteBoundedQueue.fitsAfterEviction(buffer, item)) {
+            sampledOut.inc();
+            return false;
+          }
+          // the buffer is full, so the number of items it holds is its capacity, whether it is
+          // bounded by item count or by encoded size
+          long capacity = Math.max(1, buffer.size());
+          long offered = offeredWhileFull.incrementAndGet() + capacity;
+          if (ThreadLocalRandom.current().nextLong(offered) >= capacity) {
+            sampledOut.inc();
+            return false;
+          }
+          do {
+            E oldest = buffer.poll();
+            if (oldest == null) {
+              sampledOut.inc();
+              return false;
+            }
+            evicted.inc();
+            onEvicted.accept(oldest);
+          } while (!buffer.offer(item));
+          return true;
+        }
+      };
+    };
+  }
+}
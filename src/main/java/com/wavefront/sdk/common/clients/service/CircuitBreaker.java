@@ -0,0 +1,163 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the failures of requests to an endpoint, to back off from it while it is unhealthy.
+ * <p>
+ * After every failure, requests are held back for an exponentially growing delay with jitter.
+ * After {@code failureThreshold} consecutive failures the breaker opens: once the delay elapses a
+ * single probe request is let through, and other requests are only allowed again when the probe
+ * succeeds. A threshold of 0 or less disables opening the breaker, leaving only the backoff.
+ *
+ * @version $Id: $Id
+ */
+public class CircuitBreaker {
+
+  /**
+   * The states of a circuit breaker.
+   */
+  public enum State {
+    /** Requests are allowed, subject to backoff after a failure. */
+    CLOSED,
+    /** A single probe request is allowed once the backoff delay elapsed. */
+    OPEN,
+    /** A probe request is in flight. */
+    HALF_OPEN
+  }
+
+  /**
+   * What a caller of {@link #tryAcquire()} may send.
+   */
+  public enum Permit {
+    /** Nothing may be sent yet. */
+    DENIED,
+    /** A request may be sent. */
+    REQUEST,
+    /** A single small request may be sent to probe the endpoint. */
+    PROBE
+  }
+
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final int failureThreshold;
+  private final LongSupplier nanoTime;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long retryAtNanos;
+
+  /**
+   * Creates a closed circuit breaker.
+   *
+   * @param initialBackoff   the delay after the first failure.
+   * @param maxBackoff       the maximum delay between failures.
+   * @param unit             the unit of {@code initialBackoff} and {@code maxBackoff}.
+   * @param failureThreshold the number of consecutive failures opening the breaker, or 0 to never
+   *                         open it.
+   */
+  public CircuitBreaker(long initialBackoff, long maxBackoff, TimeUnit unit,
+                        int failureThreshold) {
+    this(initialBackoff, maxBackoff, unit, failureThreshold, System::nanoTime);
+  }
+
+  /**
+   * Visible for testing.
+   */
+  CircuitBreaker(long initialBackoff, long maxBackoff, TimeUnit unit, int failureThreshold,
+                 LongSupplier nanoTime) {
+    this.initialBackoffNanos = unit.toNanos(initialBackoff);
+    this.maxBackoffNanos = Math.max(initialBackoffNanos, unit.toNanos(maxBackoff));
+    this.failureThreshold = failureThreshold;
+    this.nanoTime = nanoTime;
+    this.retryAtNanos = nanoTime.getAsLong();
+  }
+
+  /**
+   * Returns whether a request may be sent now. When this returns {@link Permit#PROBE}, the caller
+   * must report the outcome of the probe with {@link #onSuccess()} or {@link #onFailure()}, or
+   * call {@link #release()} if it ends up not sending anything.
+   *
+   * @return what may be sent.
+   */
+  public synchronized Permit tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return nanoTime.getAsLong() - retryAtNanos >= 0 ? Permit.REQUEST : Permit.DENIED;
+      case OPEN:
+        if (nanoTime.getAsLong() - retryAtNanos >= 0) {
+          state = State.HALF_OPEN;
+          return Permit.PROBE;
+        }
+        return Permit.DENIED;
+      default:
+        return Permit.DENIED;
+    }
+  }
+
+  /**
+   * Returns whether requests are held back, that is whether {@link #tryAcquire()} would deny
+   * them, without acquiring a probe.
+   *
+   * @return true if nothing may be sent now.
+   */
+  public synchronized boolean isBackingOff() {
+    return state == State.HALF_OPEN || nanoTime.getAsLong() - retryAtNanos < 0;
+  }
+
+  /**
+   * Gives back a probe that was not sent, letting the next caller probe instead.
+   */
+  public synchronized void release() {
+    if (state == State.HALF_OPEN) {
+      state = State.OPEN;
+    }
+  }
+
+  /**
+   * Records a successful request, closing the breaker.
+   */
+  public synchronized void onSuccess() {
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  /**
+   * Records a failed request, delaying the next one.
+   */
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN ||
+        (failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+      state = State.OPEN;
+    }
+    // equal jitter: half of the delay is fixed, the other half random
+    int shift = Math.min(consecutiveFailures - 1, 62);
+    long backoff = initialBackoffNanos << shift;
+    if (backoff >>> shift != initialBackoffNanos || backoff > maxBackoffNanos) {
+      backoff = maxBackoffNanos;
+    }
+    long jitter = backoff / 2 > 0 ? ThreadLocalRandom.current().nextLong(backoff / 2 + 1) : 0;
+    retryAtNanos = nanoTime.getAsLong() + backoff - backoff / 2 + jitter;
+  }
+
+  /**
+   * Returns the state of the breaker.
+   *
+   * @return the state of the breaker.
+   */
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Returns the number of failures since the last successful request.
+   *
+   * @return the number of consecutive failures.
+   */
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+}
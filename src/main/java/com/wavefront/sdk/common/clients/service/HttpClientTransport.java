@@ -0,0 +1,30 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Creates the transport based on the {@code java.net.http.HttpClient} of Java 11, see
+ * {@link Transport#httpClient(Duration, Duration)}.
+ * <p>
+ * The transport is implemented in the multi-release part of the jar, which replaces this class
+ * on Java 11 or later. On older versions, no such transport is available.
+ *
+ * @version $Id: $Id
+ */
+final class HttpClientTransport {
+
+  private HttpClientTransport() {
+  }
+
+  /**
+   * Creates a transport with the given timeouts.
+   *
+   * @param connectTimeout the connect timeout.
+   * @param requestTimeout the time to wait for the response of a request.
+   * @return an empty optional, since the transport requires Java 11 or later.
+   */
+  static Optional<Transport> create(Duration connectTimeout, Duration requestTimeout) {
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,87 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Transport opening a {@link HttpURLConnection} per request, relying on the keep-alive cache of
+ * the JDK to reuse connections. This is the default transport.
+ *
+ * @version $Id: $Id
+ */
+public class HttpURLConnectionTransport implements Transport {
+  private static final Logger logger =
+      Logger.getLogger(HttpURLConnectionTransport.class.getCanonicalName());
+
+  private static final int BUFFER_SIZE = 4096;
+
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+
+  /**
+   * Creates a transport with a connect timeout of 30 seconds and a read timeout of 10 seconds.
+   */
+  public HttpURLConnectionTransport() {
+    this(30000, 10000);
+  }
+
+  /**
+   * Creates a transport with the given timeouts.
+   *
+   * @param connectTimeoutMillis the connect timeout in milliseconds.
+   * @param readTimeoutMillis    the read timeout in milliseconds.
+   */
+  public HttpURLConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int post(URL url, Map<String, String> headers, boolean chunked, Body body)
+      throws IOException {
+    HttpURLConnection urlConn = (HttpURLConnection) url.openConnection();
+    try {
+      urlConn.setDoOutput(true);
+      urlConn.setRequestMethod("POST");
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        urlConn.addRequestProperty(header.getKey(), header.getValue());
+      }
+      if (chunked) {
+        urlConn.setChunkedStreamingMode(0);
+      }
+      urlConn.setConnectTimeout(connectTimeoutMillis);
+      urlConn.setReadTimeout(readTimeoutMillis);
+
+      body.writeTo(urlConn.getOutputStream());
+      int statusCode = urlConn.getResponseCode();
+      readAndClose(urlConn.getInputStream());
+      return statusCode;
+    } catch (IOException ex) {
+      // error responses throw when reading the input stream, but still have a status code
+      int statusCode = urlConn.getResponseCode();
+      try {
+        readAndClose(urlConn.getErrorStream());
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Unable to read and close error stream from " + url, e);
+      }
+      return statusCode;
+    }
+  }
+
+  private static void readAndClose(InputStream stream) throws IOException {
+    if (stream != null) {
+      try (InputStream is = stream) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // read entire stream before closing, so that the connection can be reused
+        while (is.read(buffer) > 0) {
+        }
+      }
+    }
+  }
+}
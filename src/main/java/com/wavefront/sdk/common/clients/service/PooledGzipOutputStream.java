@@ -0,0 +1,155 @@
+package com.wavefront.sdk.common.clients.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A gzip output stream that borrows its {@link Deflater} from a pool instead of allocating a new
+ * one, along with its native memory, for every request. The deflater is returned to the pool of
+ * its compression level when the stream is closed.
+ *
+ * @version $Id: $Id
+ */
+final class PooledGzipOutputStream extends DeflaterOutputStream {
+  private static final int MAX_POOLED_DEFLATERS = 16;
+  // one pool per compression level, from DEFAULT_COMPRESSION (-1) to BEST_COMPRESSION (9)
+  private static final Pool[] POOLS = new Pool[Deflater.BEST_COMPRESSION + 2];
+
+  static {
+    for (int i = 0; i < POOLS.length; i++) {
+      POOLS[i] = new Pool(i - 1);
+    }
+  }
+
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+  private static final int TRAILER_LENGTH = 8;
+
+  private final CRC32 crc = new CRC32();
+  private final Pool pool;
+  private boolean released = false;
+  private long uncompressedBytes = 0;
+  private long compressedBytes = 0;
+
+  PooledGzipOutputStream(OutputStream out, int bufferSize) throws IOException {
+    this(out, bufferSize, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  PooledGzipOutputStream(OutputStream out, int bufferSize, int level) throws IOException {
+    this(out, bufferSize, pool(level));
+  }
+
+  private PooledGzipOutputStream(OutputStream out, int bufferSize, Pool pool) throws IOException {
+    super(out, pool.acquire(), bufferSize);
+    this.pool = pool;
+    out.write(HEADER);
+  }
+
+  /**
+   * Returns the number of bytes written to this stream, once it is closed.
+   *
+   * @return the number of uncompressed bytes.
+   */
+  long getUncompressedBytes() {
+    return uncompressedBytes;
+  }
+
+  /**
+   * Returns the number of bytes written to the underlying stream, once this stream is closed.
+   *
+   * @return the number of compressed bytes, including the gzip header and trailer.
+   */
+  long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  /**
+   * Validates a compression level.
+   *
+   * @param level the compression level.
+   * @return the level.
+   * @throws IllegalArgumentException if the level is not supported by {@link Deflater}.
+   */
+  static int checkLevel(int level) {
+    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+    return level;
+  }
+
+  private static Pool pool(int level) {
+    return POOLS[checkLevel(level) + 1];
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+    crc.update(b, off, len);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (!def.finished()) {
+      super.finish();
+      writeInt((int) crc.getValue());
+      writeInt((int) def.getBytesRead());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (released) {
+      return;
+    }
+    try {
+      super.close();
+    } finally {
+      released = true;
+      uncompressedBytes = def.getBytesRead();
+      compressedBytes = def.getBytesWritten() + HEADER.length + TRAILER_LENGTH;
+      pool.release(def);
+    }
+  }
+
+  private void writeInt(int i) throws IOException {
+    // gzip integers are little endian
+    out.write(i & 0xff);
+    out.write((i >> 8) & 0xff);
+    out.write((i >> 16) & 0xff);
+    out.write((i >> 24) & 0xff);
+  }
+
+  private static final class Pool {
+    private final int level;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private Pool(int level) {
+      this.level = level;
+    }
+
+    private Deflater acquire() {
+      Deflater deflater = deflaters.poll();
+      if (deflater == null) {
+        return new Deflater(level, true);
+      }
+      size.decrementAndGet();
+      return deflater;
+    }
+
+    private void release(Deflater deflater) {
+      deflater.reset();
+      if (size.incrementAndGet() <= MAX_POOLED_DEFLATERS) {
+        deflaters.offer(deflater);
+      } else {
+        size.decrementAndGet();
+        deflater.end();
+      }
+    }
+  }
+}
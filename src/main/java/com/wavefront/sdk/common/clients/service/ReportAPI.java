@@ -1,7 +1,10 @@
 package com.wavefront.sdk.common.clients.service;
 
-import java.io.IOException;
+import com.wavefront.sdk.common.Utils;
+
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * The API for reporting points to Proxy or Direct Data Ingestion
@@ -19,6 +22,17 @@ public interface ReportAPI {
    */
   int send(String format, InputStream stream);
 
+  /**
+   * Sends line data items, each of which ends with a new line.
+   *
+   * @param format the format of the items
+   * @param items  the items to send
+   * @return the HTTP status code of the response, or -1 if there was no response
+   */
+  default int send(String format, List<String> items) {
+    return send(format, new ByteArrayInputStream(Utils.encodeUtf8(items)));
+  }
+
   /**
    * <p>sendEvent.</p>
    *
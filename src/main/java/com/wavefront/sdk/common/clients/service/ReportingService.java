@@ -4,20 +4,26 @@ import com.google.common.annotations.VisibleForTesting;
 
 import com.wavefront.sdk.common.Constants;
 import com.wavefront.sdk.common.Utils;
+import com.wavefront.sdk.common.annotation.Nullable;
 import com.wavefront.sdk.common.clients.service.token.TokenService;
 import com.wavefront.sdk.common.logging.MessageSuppressingLogger;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * ReportingService that reports entities to Proxy or Wavefront services.
@@ -33,9 +39,11 @@ public class ReportingService implements ReportAPI {
 
   private final TokenService tokenService;
   private final URI uri;
+  private final Transport transport;
+  private final int compressionLevel;
+  @Nullable
+  private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
 
-  private static final int CONNECT_TIMEOUT_MILLIS = 30000;
-  private static final int READ_TIMEOUT_MILLIS = 10000;
   private static final int BUFFER_SIZE = 4096;
   private static final int NO_HTTP_RESPONSE = -1;
 
@@ -47,8 +55,44 @@ public class ReportingService implements ReportAPI {
    * @param reportingServiceLogSuppressTimeSeconds a long
    */
   public ReportingService(URI uri, TokenService tokenService, long reportingServiceLogSuppressTimeSeconds) {
+    this(uri, tokenService, reportingServiceLogSuppressTimeSeconds, new HttpURLConnectionTransport());
+  }
+
+  /**
+   * <p>Constructor for ReportingService.</p>
+   *
+   * @param uri                                    a {@link java.net.URI} object
+   * @param tokenService                           a {@link TokenService} object
+   * @param reportingServiceLogSuppressTimeSeconds a long
+   * @param transport                              the {@link Transport} sending the requests
+   */
+  public ReportingService(URI uri, TokenService tokenService, long reportingServiceLogSuppressTimeSeconds,
+                          Transport transport) {
+    this(uri, tokenService, reportingServiceLogSuppressTimeSeconds, transport, Deflater.DEFAULT_COMPRESSION,
+        null);
+  }
+
+  /**
+   * <p>Constructor for ReportingService.</p>
+   *
+   * @param uri                                    a {@link java.net.URI} object
+   * @param tokenService                           a {@link TokenService} object
+   * @param reportingServiceLogSuppressTimeSeconds a long
+   * @param transport                              the {@link Transport} sending the requests
+   * @param compressionLevel                       the gzip compression level, from
+   *                                               {@link Deflater#DEFAULT_COMPRESSION} to
+   *                                               {@link Deflater#BEST_COMPRESSION}
+   * @param sdkMetricsRegistry                     the registry counting the bytes compressed for
+   *                                               each format, or null
+   */
+  public ReportingService(URI uri, TokenService tokenService, long reportingServiceLogSuppressTimeSeconds,
+                          Transport transport, int compressionLevel,
+                          @Nullable WavefrontSdkMetricsRegistry sdkMetricsRegistry) {
     this.uri = uri;
     this.tokenService = tokenService;
+    this.transport = transport;
+    this.compressionLevel = PooledGzipOutputStream.checkLevel(compressionLevel);
+    this.sdkMetricsRegistry = sdkMetricsRegistry;
 
     // Setting suppress time to 0 invalidates the cache used by the message suppressing logger and doesn't log anything.
     // So defaulting to the minimum of 1 second.
@@ -62,129 +106,180 @@ public class ReportingService implements ReportAPI {
    */
   @Override
   public int send(String format, InputStream stream) {
-    HttpURLConnection urlConn = null;
-    int statusCode = 400;
+    URL url;
     try {
-      URL url = getReportingUrl(uri, format);
-      urlConn = (HttpURLConnection) url.openConnection();
-      urlConn.setDoOutput(true);
-      urlConn.setRequestMethod("POST");
-      urlConn.addRequestProperty("Content-Type", "application/octet-stream");
-      urlConn.addRequestProperty("Content-Encoding", "gzip");
-
-      String token = tokenService.getToken();
-
-      if (!Utils.isNullOrEmpty(token)) {
-        urlConn.addRequestProperty("Authorization", "Bearer " + token);
-      }
-
-      urlConn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
-      urlConn.setReadTimeout(READ_TIMEOUT_MILLIS);
-
-      try (GZIPOutputStream gzipOS = new GZIPOutputStream(urlConn.getOutputStream())) {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        while (stream.available() > 0) {
-          gzipOS.write(buffer, 0, stream.read(buffer));
-        }
-        gzipOS.flush();
-      }
-      statusCode = urlConn.getResponseCode();
-      readAndClose(urlConn.getInputStream());
-      messageSuppressingLogger.reset(urlConn.getURL().toString());
-    } catch (IOException ex) {
-      if (urlConn != null) {
-        return safeGetResponseCodeAndClose(urlConn);
-      }
+      url = getReportingUrl(uri, format);
+    } catch (MalformedURLException e) {
+      return 400;
     }
-    return statusCode;
+    return postGzip(url, format, false, os -> copy(stream, os));
   }
 
   /**
    * {@inheritDoc}
+   * <p>
+   * The items are encoded and compressed straight into the request body, which is sent with
+   * chunked transfer encoding.
    */
   @Override
-  public int sendEvent(InputStream stream) {
-    HttpURLConnection urlConn = null;
-    int statusCode = 400;
+  public int send(String format, List<String> items) {
+    URL url;
     try {
-      URL url = getEventReportingUrl(uri);
-      urlConn = (HttpURLConnection) url.openConnection();
-      urlConn.setDoOutput(true);
-      urlConn.setRequestMethod("POST");
+      url = getReportingUrl(uri, format);
+    } catch (MalformedURLException e) {
+      return 400;
+    }
+    return postGzip(url, format, true, os -> Utils.writeUtf8(items, os, BUFFER_SIZE));
+  }
 
-      String token = tokenService.getToken();
+  /**
+   * Compresses items into a request body for {@link #sendCompressed(String, Compressed)}, so
+   * that the chunks of a batch can be compressed in parallel ahead of being sent.
+   *
+   * @param format the format of the items.
+   * @param items  the items, each terminated by a newline.
+   * @return the gzip compressed items.
+   * @throws IOException if the items could not be compressed.
+   */
+  public Compressed compress(String format, List<String> items) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+    PooledGzipOutputStream gzipOS = newGzipOutputStream(bytes);
+    try (OutputStream closing = gzipOS) {
+      Utils.writeUtf8(items, closing, BUFFER_SIZE);
+    }
+    return new Compressed(bytes.toByteArray(), gzipOS.getUncompressedBytes());
+  }
 
-      if (!Utils.isNullOrEmpty(token)) {
-        urlConn.addRequestProperty("Authorization", "Bearer " + token);
-      }
-      urlConn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
-      urlConn.setReadTimeout(READ_TIMEOUT_MILLIS);
-
-      if (uri.getScheme().equals(Constants.HTTP_PROXY_SCHEME)) {
-        // Event is in compressed line format for proxy.
-        urlConn.addRequestProperty("Content-Type", "application/octet-stream");
-        urlConn.addRequestProperty("Content-Encoding", "gzip");
-        try (GZIPOutputStream gzipOS = new GZIPOutputStream(urlConn.getOutputStream())) {
-          byte[] buffer = new byte[BUFFER_SIZE];
-          while (stream.available() > 0) {
-            gzipOS.write(buffer, 0, stream.read(buffer));
-          }
-          gzipOS.flush();
-        }
-      } else {
-        // Event is in uncompressed JSON format for direct ingestion.
-        urlConn.addRequestProperty("Content-Type", "application/json");
-        try (OutputStream urlOS = urlConn.getOutputStream()) {
-          byte[] buffer = new byte[BUFFER_SIZE];
-          while (stream.available() > 0) {
-            urlOS.write(buffer, 0, stream.read(buffer));
-          }
-          urlOS.flush();
-        }
+  /**
+   * Sends items compressed by {@link #compress(String, List)}.
+   *
+   * @param format     the format of the items.
+   * @param compressed the gzip compressed items.
+   * @return the status code of the response, or -1 if there was none.
+   */
+  public int sendCompressed(String format, Compressed compressed) {
+    URL url;
+    try {
+      url = getReportingUrl(uri, format);
+    } catch (MalformedURLException e) {
+      return 400;
+    }
+    int statusCode = post(url, "application/octet-stream", true, false, os -> {
+      try (OutputStream urlOS = os) {
+        urlOS.write(compressed.bytes);
       }
+    });
+    recordCompression(format, statusCode, compressed.uncompressedBytes, compressed.bytes.length);
+    return statusCode;
+  }
 
-      statusCode = urlConn.getResponseCode();
-      readAndClose(urlConn.getInputStream());
-      messageSuppressingLogger.reset(urlConn.getURL().toString());
-    } catch (IOException ex) {
-      if (urlConn != null) {
-        return safeGetResponseCodeAndClose(urlConn);
+  /**
+   * Posts a gzip compressed body.
+   *
+   * @param body writes the uncompressed body to the gzip stream, which is closed afterwards.
+   */
+  private int postGzip(URL url, String format, boolean chunked, Transport.Body body) {
+    AtomicReference<PooledGzipOutputStream> gzip = new AtomicReference<>();
+    int statusCode = post(url, "application/octet-stream", true, chunked, os -> {
+      PooledGzipOutputStream gzipOS = newGzipOutputStream(os);
+      gzip.set(gzipOS);
+      try (OutputStream closing = gzipOS) {
+        body.writeTo(closing);
       }
+    });
+    PooledGzipOutputStream gzipOS = gzip.get();
+    if (gzipOS != null) {
+      recordCompression(format, statusCode, gzipOS.getUncompressedBytes(),
+          gzipOS.getCompressedBytes());
     }
     return statusCode;
   }
 
-  private int safeGetResponseCodeAndClose(HttpURLConnection urlConn) {
-    int statusCode;
+  private PooledGzipOutputStream newGzipOutputStream(OutputStream os) throws IOException {
+    return new PooledGzipOutputStream(os, BUFFER_SIZE, compressionLevel);
+  }
+
+  /**
+   * Records the compression of a request once it was accepted, so that the data of a request
+   * which is retried is only counted once.
+   */
+  private void recordCompression(String format, int statusCode, long uncompressedBytes,
+                                 long compressedBytes) {
+    if (sdkMetricsRegistry != null && statusCode >= 0 && statusCode < 400) {
+      sdkMetricsRegistry.newDeltaCounter("compression." + format + ".uncompressed_bytes").
+          inc(uncompressedBytes);
+      sdkMetricsRegistry.newDeltaCounter("compression." + format + ".compressed_bytes").
+          inc(compressedBytes);
+    }
+  }
+
+  /**
+   * Items compressed ahead of being sent, by {@link #compress(String, List)}.
+   */
+  public static final class Compressed {
+    private final byte[] bytes;
+    private final long uncompressedBytes;
+
+    private Compressed(byte[] bytes, long uncompressedBytes) {
+      this.bytes = bytes;
+      this.uncompressedBytes = uncompressedBytes;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int sendEvent(InputStream stream) {
+    URL url;
     try {
-      statusCode = urlConn.getResponseCode();
-    } catch (IOException ex) {
-      messageSuppressingLogger.log(urlConn.getURL().toString(), Level.SEVERE,
-          "Unable to obtain status code from the Wavefront service at "
-              + urlConn.getURL().toString() + " due to: " + ex);
-      statusCode = NO_HTTP_RESPONSE;
+      url = getEventReportingUrl(uri);
+    } catch (MalformedURLException e) {
+      return 400;
     }
+    if (uri.getScheme().equals(Constants.HTTP_PROXY_SCHEME)) {
+      // Event is in compressed line format for proxy.
+      return postGzip(url, Constants.WAVEFRONT_EVENT_FORMAT, false, os -> copy(stream, os));
+    } else {
+      // Event is in uncompressed JSON format for direct ingestion.
+      return post(url, "application/json", false, false, os -> {
+        try (OutputStream urlOS = os) {
+          copy(stream, urlOS);
+        }
+      });
+    }
+  }
 
+  private int post(URL url, String contentType, boolean gzip, boolean chunked,
+                   Transport.Body body) {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", contentType);
+    if (gzip) {
+      headers.put("Content-Encoding", "gzip");
+    }
+    String token = tokenService.getToken();
+    if (!Utils.isNullOrEmpty(token)) {
+      headers.put("Authorization", "Bearer " + token);
+    }
     try {
-      readAndClose(urlConn.getErrorStream());
+      int statusCode = transport.post(url, headers, chunked, body);
+      if (statusCode < 400) {
+        messageSuppressingLogger.reset(url.toString());
+      }
+      return statusCode;
     } catch (IOException ex) {
-      messageSuppressingLogger.log(urlConn.getURL().toString(), Level.SEVERE,
-          "Unable to read and close error stream from the Wavefront service at "
-              + urlConn.getURL().toString() + " due to: " + ex);
+      messageSuppressingLogger.log(url.toString(), Level.SEVERE,
+          "Unable to obtain status code from the Wavefront service at " + url + " due to: " + ex);
+      return NO_HTTP_RESPONSE;
     }
-
-    return statusCode;
   }
 
-  private void readAndClose(InputStream stream) throws IOException {
-    if (stream != null) {
-      try (InputStream is = stream) {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        // read entire stream before closing
-        while (is.read(buffer) > 0) {
-        }
-      }
+  private static void copy(InputStream stream, OutputStream os) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    while (stream.available() > 0) {
+      os.write(buffer, 0, stream.read(buffer));
     }
+    os.flush();
   }
 
   /**
@@ -0,0 +1,81 @@
+package com.wavefront.sdk.common.clients.service;
+
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Sends the HTTP requests of a {@link ReportingService}. A single transport can be shared by
+ * several reporting services, so that they can reuse the same connections.
+ *
+ * @version $Id: $Id
+ */
+public interface Transport {
+
+  /**
+   * Writes the body of a request.
+   */
+  @FunctionalInterface
+  interface Body {
+    /**
+     * Writes the body to the given stream, which is closed by this method.
+     *
+     * @param os the stream of the request body.
+     * @throws IOException if the body could not be written.
+     */
+    void writeTo(OutputStream os) throws IOException;
+  }
+
+  /**
+   * POSTs a request and waits for its response.
+   *
+   * @param url     the URL to post to.
+   * @param headers the request headers.
+   * @param chunked whether the body is large enough to be streamed rather than buffered.
+   * @param body    writes the request body.
+   * @return the status code of the response, including error status codes.
+   * @throws IOException if no response was received.
+   */
+  int post(URL url, Map<String, String> headers, boolean chunked, Body body) throws IOException;
+
+  /**
+   * Returns the transport a client uses to send its requests, reporting the metrics of this
+   * transport, if any, to the registry of that client. The returned transport shares the
+   * connections of this one. Called once by each client using this transport.
+   *
+   * @param registry the registry of the client.
+   * @return the transport to use.
+   */
+  default Transport withMetrics(WavefrontSdkMetricsRegistry registry) {
+    return this;
+  }
+
+  /**
+   * Returns a transport based on the {@code java.net.http.HttpClient} of Java 11, multiplexing
+   * the requests of every reporting service sharing it over HTTP/2 connections, and falling back
+   * to a pool of HTTP/1.1 keep-alive connections when the endpoint does not support HTTP/2.
+   * Connects within 30 seconds and waits 10 seconds for responses.
+   *
+   * @return the transport, or an empty optional before Java 11.
+   */
+  static Optional<Transport> httpClient() {
+    return httpClient(Duration.ofSeconds(30), Duration.ofSeconds(10));
+  }
+
+  /**
+   * Returns a transport based on the {@code java.net.http.HttpClient} of Java 11 with the given
+   * timeouts, see {@link #httpClient()}.
+   *
+   * @param connectTimeout the connect timeout.
+   * @param requestTimeout the time to wait for the response of a request.
+   * @return the transport, or an empty optional before Java 11.
+   */
+  static Optional<Transport> httpClient(Duration connectTimeout, Duration requestTimeout) {
+    return HttpClientTransport.create(connectTimeout, requestTimeout);
+  }
+}
@@ -22,7 +22,6 @@ import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -539,12 +538,8 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
   }
 
   private InputStream itemsToStream(List<String> items) {
-    StringBuilder sb = new StringBuilder();
-    for (String item : items) {
-      // every line item ends with \n
-      sb.append(item);
-    }
-    return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    // every line item ends with \n
+    return new ByteArrayInputStream(Utils.encodeUtf8(items));
   }
 
   /** {@inheritDoc} */
@@ -604,7 +599,7 @@ public class WavefrontDirectIngestionClient implements WavefrontSender, Runnable
       if (item == null) {
         break;
       }
-      int numBytes = item.getBytes(StandardCharsets.UTF_8).length;
+      int numBytes = Utils.utf8Length(item);
       if (numBytes > messageSizeBytes) {
         logger.log(LogMessageType.MESSAGE_SIZE_LIMIT_EXCEEDED.toString(), Level.WARNING,
             "Dropping data larger than " + messageSizeBytes + " bytes: " + item + ". Consider " +
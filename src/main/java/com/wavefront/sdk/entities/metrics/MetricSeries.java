@@ -0,0 +1,30 @@
+package com.wavefront.sdk.entities.metrics;
+
+import java.io.IOException;
+
+/**
+ * A metric series, identified by its name, source and tags, to which values are sent.
+ * Handles are immutable and can be shared by threads. Obtain one from
+ * {@link WavefrontMetricSender#series(String, String, java.util.Map)}.
+ *
+ * @version $Id: $Id
+ */
+public interface MetricSeries {
+
+  /**
+   * Sends a value of this series, timestamped when it is received by Wavefront.
+   *
+   * @param value The value to be sent.
+   * @throws IOException if there was an error sending the value.
+   */
+  void send(double value) throws IOException;
+
+  /**
+   * Sends a value of this series.
+   *
+   * @param value     The value to be sent.
+   * @param timestamp The timestamp in milliseconds since the epoch.
+   * @throws IOException if there was an error sending the value.
+   */
+  void send(double value, long timestamp) throws IOException;
+}
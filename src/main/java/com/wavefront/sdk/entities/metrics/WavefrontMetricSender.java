@@ -3,6 +3,8 @@ package com.wavefront.sdk.entities.metrics;
 import com.wavefront.sdk.common.annotation.Nullable;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import static com.wavefront.sdk.common.Constants.DELTA_PREFIX;
@@ -41,6 +43,35 @@ public interface WavefrontMetricSender {
    */
   void sendFormattedMetric(String point) throws IOException;
 
+  /**
+   * Returns a handle on the given series, to send its values without repeating its name, source
+   * and tags. Senders may validate and encode the series once, when the handle is created.
+   *
+   * @param name   The name of the metric. Spaces are replaced with '-' (dashes) and quotes will
+   *               be automatically escaped.
+   * @param source The source (or host) that's sending the metric. If null then assigned by
+   *               Wavefront.
+   * @param tags   The tags associated with this metric.
+   * @return a handle on the series.
+   * @throws IllegalArgumentException if the series is invalid.
+   */
+  default MetricSeries series(String name, @Nullable String source,
+                              @Nullable Map<String, String> tags) {
+    Map<String, String> seriesTags = tags == null ? null :
+        Collections.unmodifiableMap(new HashMap<>(tags));
+    return new MetricSeries() {
+      @Override
+      public void send(double value) throws IOException {
+        sendMetric(name, value, null, source, seriesTags);
+      }
+
+      @Override
+      public void send(double value, long timestamp) throws IOException {
+        sendMetric(name, value, timestamp, source, seriesTags);
+      }
+    };
+  }
+
   /**
    * Sends the given delta counter to Wavefront. Use this method so that the timestamp for the delta counter
    * is assigned when the delta counter hits Wavefront server.
@@ -2,6 +2,7 @@ package com.wavefront.sdk.proxy;
 
 import com.wavefront.sdk.common.BufferFlusher;
 import com.wavefront.sdk.common.ReconnectingSocket;
+import com.wavefront.sdk.common.annotation.Nullable;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 
@@ -12,6 +13,10 @@ import java.net.InetSocketAddress;
 
 /**
  * Connection Handler class for sending data to a Wavefront proxy listening on a given port.
+ * The handler can keep a pool of connections to the port, so that threads sending data do not
+ * all contend for a single one. Data is sent on the connection picked by a hash, such as that of
+ * its series, so that the data with the same hash is received in order, unless that connection
+ * is being reset: the next connected one in the pool is used instead.
  *
  * @author Clement Pang (clement@wavefront.com).
  * @author Vikram Raman (vikram@wavefront.com).
@@ -20,9 +25,21 @@ import java.net.InetSocketAddress;
 @Deprecated
 public class ProxyConnectionHandler implements BufferFlusher, Closeable {
 
+  @Nullable
   private final InetSocketAddress address;
+  @Nullable
   private final SocketFactory socketFactory;
-  private volatile ReconnectingSocket reconnectingSocket;
+  // when set, the proxy is connected to through this Unix domain socket instead of TCP
+  @Nullable
+  private final String unixSocketPath;
+  private final int connections;
+  private volatile ReconnectingSocket[] reconnectingSockets;
+  // when set, data is queued and written by the writer thread instead of the reconnecting socket
+  @Nullable
+  private final ProxyWriter.Connection asyncConnection;
+  // counts the lines queued for the writer that could not be written, unless given another one
+  @Nullable
+  private final WavefrontSdkDeltaCounter dropped;
 
   private final WavefrontSdkMetricsRegistry sdkMetricsRegistry;
   private String entityPrefix;
@@ -31,31 +48,96 @@ public class ProxyConnectionHandler implements BufferFlusher, Closeable {
 
   ProxyConnectionHandler(InetSocketAddress address, SocketFactory socketFactory,
                          WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix) {
+    this(address, socketFactory, sdkMetricsRegistry, entityPrefix, 1, null, 0, null);
+  }
+
+  /**
+   * Creates a handler which queues data to be written by {@code writer} when it is not null.
+   *
+   * @param connections The number of connections to the port, when data is written from the
+   *                    calling threads.
+   * @param writer      The writer of the data, or null to write it from the calling thread.
+   * @param queueSize   The maximum number of lines queued for the writer.
+   * @param dropped     Counts the lines queued for the writer that could not be written.
+   */
+  ProxyConnectionHandler(InetSocketAddress address, SocketFactory socketFactory,
+                         WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix,
+                         int connections, @Nullable ProxyWriter writer, int queueSize,
+                         @Nullable WavefrontSdkDeltaCounter dropped) {
+    this(address, socketFactory, null, sdkMetricsRegistry, entityPrefix, connections, writer,
+        queueSize, dropped);
+  }
+
+  /**
+   * Creates a handler which sends data to the proxy through a Unix domain socket, which
+   * requires Java 16 or later.
+   *
+   * @param unixSocketPath The path of the Unix domain socket of the proxy.
+   * @param connections    The number of connections to the socket.
+   */
+  ProxyConnectionHandler(String unixSocketPath, WavefrontSdkMetricsRegistry sdkMetricsRegistry,
+                         String entityPrefix, int connections) {
+    this(null, null, unixSocketPath, sdkMetricsRegistry, entityPrefix, connections, null, 0,
+        null);
+  }
+
+  private ProxyConnectionHandler(@Nullable InetSocketAddress address,
+                                 @Nullable SocketFactory socketFactory,
+                                 @Nullable String unixSocketPath,
+                                 WavefrontSdkMetricsRegistry sdkMetricsRegistry,
+                                 String entityPrefix, int connections,
+                                 @Nullable ProxyWriter writer, int queueSize,
+                                 @Nullable WavefrontSdkDeltaCounter dropped) {
     this.address = address;
     this.socketFactory = socketFactory;
-    this.reconnectingSocket = null;
+    this.unixSocketPath = unixSocketPath;
+    this.connections = connections;
+    this.reconnectingSockets = null;
 
     this.sdkMetricsRegistry = sdkMetricsRegistry;
     this.entityPrefix = entityPrefix == null || entityPrefix.isEmpty() ? "" : entityPrefix + ".";
     errors = this.sdkMetricsRegistry.newDeltaCounter(this.entityPrefix + "errors");
     connectErrors = this.sdkMetricsRegistry.newDeltaCounter(this.entityPrefix + "connect.errors");
+    asyncConnection = writer == null ? null : writer.newConnection(address, queueSize,
+        sdkMetricsRegistry, this.entityPrefix + "socket", errors);
+    this.dropped = dropped;
   }
 
   synchronized void connect() throws IllegalStateException, IOException {
-    if (reconnectingSocket != null) {
+    if (reconnectingSockets != null) {
       throw new IllegalStateException("Already connected");
     }
+    ReconnectingSocket[] sockets = new ReconnectingSocket[connections];
     try {
-      reconnectingSocket = new ReconnectingSocket(address, socketFactory, sdkMetricsRegistry,
-          entityPrefix + "socket");
+      for (int i = 0; i < connections; i++) {
+        // the metrics of a single connection keep their names
+        String socketPrefix = connections == 1 ? "socket" : "socket." + i;
+        if (unixSocketPath != null) {
+          sockets[i] = new ReconnectingSocket(unixSocketPath, sdkMetricsRegistry,
+              entityPrefix + socketPrefix);
+        } else {
+          sockets[i] = new ReconnectingSocket(address, socketFactory, sdkMetricsRegistry,
+              entityPrefix + socketPrefix);
+        }
+      }
     } catch (Exception e) {
       connectErrors.inc();
+      for (ReconnectingSocket socket : sockets) {
+        if (socket != null) {
+          try {
+            socket.close();
+          } catch (IOException ce) {
+            e.addSuppressed(ce);
+          }
+        }
+      }
       throw new IOException(e);
     }
+    reconnectingSockets = sockets;
   }
 
   boolean isConnected() {
-    return reconnectingSocket != null;
+    return reconnectingSockets != null;
   }
 
   /** {@inheritDoc} */
@@ -71,8 +153,11 @@ public class ProxyConnectionHandler implements BufferFlusher, Closeable {
   /** {@inheritDoc} */
   @Override
   public void flush() throws IOException {
-    if (isConnected()) {
-      reconnectingSocket.flush();
+    ReconnectingSocket[] sockets = reconnectingSockets;
+    if (sockets != null) {
+      for (ReconnectingSocket socket : sockets) {
+        socket.flush();
+      }
     }
   }
 
@@ -80,25 +165,103 @@ public class ProxyConnectionHandler implements BufferFlusher, Closeable {
   @Override
   public synchronized void close() throws IOException {
     if (isConnected()) {
-      reconnectingSocket.close();
-      reconnectingSocket = null;
+      IOException error = null;
+      for (ReconnectingSocket socket : reconnectingSockets) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          if (error == null) {
+            error = e;
+          } else {
+            error.addSuppressed(e);
+          }
+        }
+      }
+      reconnectingSockets = null;
+      if (error != null) {
+        throw error;
+      }
     }
   }
 
   /**
-   * Sends the given data to the WavefrontProxyClient proxy.
+   * Returns whether the data is sent on a connection picked by its hash, that is whether the
+   * handler writes to more than one connection itself. Otherwise, callers can pass any hash
+   * without computing it.
+   */
+  boolean needsHash() {
+    return asyncConnection == null && connections > 1;
+  }
+
+  /**
+   * Sends the given data to the WavefrontProxyClient proxy, on the connection picked by the
+   * calling thread.
    *
    * @param lineData line data in a WavefrontProxyClient supported format
    * @throws Exception If there was failure sending the data
    */
-  void sendData(String lineData) throws Exception {
-    if (!isConnected()) {
+  void sendData(CharSequence lineData) throws Exception {
+    sendData(lineData, Long.hashCode(Thread.currentThread().getId()));
+  }
+
+  /**
+   * Sends the given data to the WavefrontProxyClient proxy, on the connection picked by
+   * {@code hash}.
+   *
+   * @param lineData line data in a WavefrontProxyClient supported format
+   * @param hash     the hash of the data that has to be received in order, such as its series
+   * @throws Exception If there was failure sending the data
+   */
+  void sendData(CharSequence lineData, int hash) throws Exception {
+    sendData(lineData, hash, dropped);
+  }
+
+  /**
+   * Sends the given data to the WavefrontProxyClient proxy, on the connection picked by
+   * {@code hash}. In asynchronous mode, the data is copied to a String to be queued.
+   *
+   * @param lineData line data in a WavefrontProxyClient supported format
+   * @param hash     the hash of the data that has to be received in order, such as its series
+   * @param dropped  counts the data if it is queued but cannot be written, in asynchronous mode
+   * @throws Exception If there was failure sending the data
+   */
+  void sendData(CharSequence lineData, int hash, @Nullable WavefrontSdkDeltaCounter dropped)
+      throws Exception {
+    if (asyncConnection != null) {
+      if (!asyncConnection.offer(lineData.toString(), dropped)) {
+        throw new IOException("Unable to queue data for " + address.getHostName() + ":" +
+            address.getPort() + ", the queue is full");
+      }
+      return;
+    }
+    ReconnectingSocket[] sockets = reconnectingSockets;
+    if (sockets == null) {
       try {
         connect();
       } catch (IllegalStateException e) {
         // already connected.
       }
+      sockets = reconnectingSockets;
+    }
+    socketFor(sockets, hash).write(lineData);
+  }
+
+  /**
+   * Returns the connection of the pool picked by the hash, or the next one that is connected
+   * when it is being reset.
+   */
+  private static ReconnectingSocket socketFor(ReconnectingSocket[] sockets, int hash) {
+    if (sockets.length == 1) {
+      return sockets[0];
+    }
+    int index = Math.floorMod(hash ^ (hash >>> 16), sockets.length);
+    for (int i = 0; i < sockets.length; i++) {
+      ReconnectingSocket socket = sockets[(index + i) % sockets.length];
+      if (socket.isConnected()) {
+        return socket;
+      }
     }
-    reconnectingSocket.write(lineData);
+    // all the connections are being reset, the write fails right away
+    return sockets[index];
   }
 }
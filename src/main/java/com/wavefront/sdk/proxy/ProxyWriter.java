@@ -0,0 +1,476 @@
+package com.wavefront.sdk.proxy;
+
+import com.wavefront.sdk.common.NamedThreadFactory;
+import com.wavefront.sdk.common.Utils;
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.clients.buffer.MpscRingBuffer;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes line data to the ports of a Wavefront proxy from a single thread, so that sending data
+ * never blocks the threads producing it. Each port has a bounded lock-free queue of lines, which
+ * the writer thread encodes into pooled direct buffers and sends with gathering writes to a
+ * non-blocking socket channel. A port whose connection cannot take more data does not hold back
+ * the other ports.
+ * <p>
+ * Connections are made without blocking the writer thread, and a port is reconnected at most
+ * once a second. Lines that do not fit in the queue of their port are rejected. Lines taken from
+ * a queue that could not be written because the connection broke are counted as dropped, by the
+ * counter each line was queued with.
+ *
+ * @version $Id: $Id
+ */
+final class ProxyWriter implements Runnable {
+  private static final Logger logger = Logger.getLogger(ProxyWriter.class.getCanonicalName());
+
+  // a connection encodes lines into up to this many buffers before writing them at once
+  private static final int BUFFERS_PER_CONNECTION = 16;
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+  private static final long RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+  private final Selector selector;
+  private final Thread thread;
+  private final List<Connection> connections = new CopyOnWriteArrayList<>();
+  // read by the threads producing lines, to wake the writer thread only when it waits
+  private volatile boolean idle = false;
+  private volatile boolean closing = false;
+  private volatile long closeDeadlineNanos;
+  // the server never sends data, this only detects connections closed by the server
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+
+  ProxyWriter() throws IOException {
+    this.selector = Selector.open();
+    this.thread = new NamedThreadFactory("wavefrontProxyWriter").setDaemon(true).newThread(this);
+  }
+
+  /**
+   * Creates the connection to a port, which must be done before {@link #start()}.
+   *
+   * @param address            The address of the port.
+   * @param queueSize          The maximum number of lines waiting to be written to the port.
+   * @param sdkMetricsRegistry The registry for internal metrics.
+   * @param entityPrefix       A prefix for internal metrics pertaining to the connection.
+   * @param errors             Counts the failures of the connection.
+   * @return the connection.
+   */
+  Connection newConnection(InetSocketAddress address, int queueSize,
+                           WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix,
+                           WavefrontSdkDeltaCounter errors) {
+    Connection connection = new Connection(address, queueSize, sdkMetricsRegistry, entityPrefix,
+        errors);
+    connections.add(connection);
+    return connection;
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stops accepting lines and waits for the queued ones to be written, for at most the given
+   * time, before closing the connections.
+   *
+   * @param timeout The maximum time to wait for.
+   * @param unit    The unit of the timeout.
+   */
+  void close(long timeout, TimeUnit unit) {
+    closeDeadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    closing = true;
+    selector.wakeup();
+    try {
+      thread.join(unit.toMillis(timeout) + SELECT_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        boolean moreWork = false;
+        long now = System.nanoTime();
+        for (Connection connection : connections) {
+          moreWork |= connection.write(now);
+        }
+        if (closing && (isDrained() || now - closeDeadlineNanos >= 0)) {
+          break;
+        }
+        if (moreWork) {
+          selector.selectNow();
+        } else {
+          idle = true;
+          // lines queued before idle was set are seen here, later ones wake the selector up
+          if (hasWritableLines()) {
+            selector.selectNow();
+          } else {
+            selector.select(SELECT_TIMEOUT_MILLIS);
+          }
+          idle = false;
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isConnectable()) {
+            ((Connection) key.attachment()).finishConnect(System.nanoTime());
+          } else if (key.isValid() && key.isReadable()) {
+            ((Connection) key.attachment()).read();
+          }
+        }
+      }
+    } catch (Throwable t) {
+      logger.log(Level.SEVERE, "Proxy writer thread failed", t);
+    } finally {
+      for (Connection connection : connections) {
+        connection.dropAll();
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not close selector.", e);
+      }
+    }
+  }
+
+  private boolean isDrained() {
+    for (Connection connection : connections) {
+      if (connection.hasLines()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean hasWritableLines() {
+    for (Connection connection : connections) {
+      if (!connection.blocked && !connection.queue.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A queued line, and the counter of the lines of its kind that could not be written.
+   */
+  private static final class Line {
+    private final String data;
+    private final WavefrontSdkDeltaCounter dropped;
+
+    private Line(String data, WavefrontSdkDeltaCounter dropped) {
+      this.data = data;
+      this.dropped = dropped;
+    }
+  }
+
+  /**
+   * The connection to a port. Only {@link #offer} is called by other threads than the writer
+   * thread.
+   */
+  final class Connection {
+    private final InetSocketAddress address;
+    private final MpscRingBuffer<Line> queue;
+    private final WavefrontSdkDeltaCounter errors;
+    private final WavefrontSdkDeltaCounter writeSuccesses;
+    private final WavefrontSdkDeltaCounter writeErrors;
+    private final WavefrontSdkDeltaCounter resetSuccesses;
+    private final WavefrontSdkDeltaCounter resetErrors;
+
+    private final ByteBuffer[] pool = new ByteBuffer[BUFFERS_PER_CONNECTION];
+    // the buffers being written, pooled ones or larger ones for lines that do not fit in those
+    private final ByteBuffer[] slots = new ByteBuffer[BUFFERS_PER_CONNECTION];
+    private int usedSlots = 0;
+    private final List<Line> linesInSlots = new ArrayList<>();
+    // a line taken from the queue that did not fit in the buffers
+    @Nullable
+    private Line carry;
+
+    @Nullable
+    private SocketChannel channel;
+    @Nullable
+    private SelectionKey key;
+    // whether the channel is waiting for OP_CONNECT, until connectDeadlineNanos
+    private boolean connecting = false;
+    private long connectDeadlineNanos;
+    private boolean connectedOnce = false;
+    private long nextConnectNanos = System.nanoTime();
+    // whether the connection cannot take lines until the channel is writable or reconnected
+    private volatile boolean blocked = false;
+
+    private Connection(InetSocketAddress address, int queueSize,
+                       WavefrontSdkMetricsRegistry sdkMetricsRegistry, String entityPrefix,
+                       WavefrontSdkDeltaCounter errors) {
+      this.address = address;
+      this.queue = new MpscRingBuffer<>(queueSize);
+      this.errors = errors;
+      entityPrefix = entityPrefix == null || entityPrefix.isEmpty() ? "" : entityPrefix + ".";
+      writeSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.success");
+      writeErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "write.errors");
+      resetSuccesses = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.success");
+      resetErrors = sdkMetricsRegistry.newDeltaCounter(entityPrefix + "reset.errors");
+      sdkMetricsRegistry.newGauge(entityPrefix + "queue.size", queue::size);
+    }
+
+    /**
+     * Queues a line to be written.
+     *
+     * @param line    The line, ending with a newline.
+     * @param dropped Counts the line if it is taken from the queue but cannot be written.
+     * @return false if the queue is full or the writer is closed.
+     */
+    boolean offer(String line, WavefrontSdkDeltaCounter dropped) {
+      if (closing || !queue.offer(new Line(line, dropped))) {
+        return false;
+      }
+      if (idle && !blocked) {
+        selector.wakeup();
+      }
+      return true;
+    }
+
+    private boolean hasLines() {
+      return usedSlots > 0 || carry != null || !queue.isEmpty();
+    }
+
+    /**
+     * Writes the pending buffers, or fills them with queued lines and writes them.
+     *
+     * @return whether there are more lines to write right away.
+     */
+    private boolean write(long now) {
+      if (channel == null) {
+        if (!hasLines() || now - nextConnectNanos < 0 || !connect(now)) {
+          return false;
+        }
+      } else if (connecting) {
+        if (now - connectDeadlineNanos >= 0) {
+          connectFailed(new SocketTimeoutException("connect timed out"), now);
+        }
+        return false;
+      }
+      try {
+        if (usedSlots == 0 && !fill()) {
+          return false;
+        }
+        channel.write(slots, 0, usedSlots);
+        if (slots[usedSlots - 1].hasRemaining()) {
+          // the socket buffer is full, wait for the channel to be writable
+          blocked = true;
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return false;
+        }
+        writeSuccesses.inc(linesInSlots.size());
+        releaseSlots();
+        if (blocked) {
+          blocked = false;
+          key.interestOps(SelectionKey.OP_READ);
+        }
+        return carry != null || !queue.isEmpty();
+      } catch (IOException e) {
+        disconnect(e, now);
+        return false;
+      }
+    }
+
+    /**
+     * Encodes queued lines into the buffers.
+     *
+     * @return whether there is anything to write.
+     */
+    private boolean fill() {
+      ByteBuffer current = null;
+      while (true) {
+        Line line = carry != null ? carry : queue.poll();
+        if (line == null) {
+          break;
+        }
+        carry = null;
+        int length = Utils.utf8Length(line.data);
+        if (current == null || length > current.remaining()) {
+          if (usedSlots == slots.length) {
+            carry = line;
+            break;
+          }
+          if (length > BUFFER_SIZE) {
+            current = ByteBuffer.allocate(length);
+          } else {
+            if (pool[usedSlots] == null) {
+              pool[usedSlots] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+            current = pool[usedSlots];
+            current.clear();
+          }
+          slots[usedSlots++] = current;
+        }
+        Utils.encodeUtf8(line.data, current);
+        linesInSlots.add(line);
+      }
+      for (int i = 0; i < usedSlots; i++) {
+        slots[i].flip();
+      }
+      return usedSlots > 0;
+    }
+
+    private void releaseSlots() {
+      for (int i = 0; i < usedSlots; i++) {
+        slots[i] = null;
+      }
+      usedSlots = 0;
+      linesInSlots.clear();
+    }
+
+    /**
+     * Starts connecting the channel, which completes on OP_CONNECT unless it is immediate.
+     *
+     * @return whether the channel is connected already.
+     */
+    private boolean connect(long now) {
+      blocked = true;
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+        connecting = true;
+        connectDeadlineNanos = now + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+        if (channel.connect(address)) {
+          connected();
+          return true;
+        }
+        return false;
+      } catch (IOException e) {
+        connectFailed(e, now);
+        return false;
+      }
+    }
+
+    /**
+     * Completes a connection once the channel is connectable.
+     */
+    private void finishConnect(long now) {
+      try {
+        if (channel.finishConnect()) {
+          connected();
+        }
+      } catch (IOException e) {
+        connectFailed(e, now);
+      }
+    }
+
+    private void connected() {
+      connecting = false;
+      key.interestOps(SelectionKey.OP_READ);
+      blocked = false;
+      if (connectedOnce) {
+        resetSuccesses.inc();
+        logger.log(Level.INFO, String.format("Successfully reset connection to %s:%d",
+            address.getHostName(), address.getPort()));
+      }
+      connectedOnce = true;
+      if (idle) {
+        // lets the writer thread write the lines queued while connecting
+        selector.wakeup();
+      }
+    }
+
+    private void connectFailed(IOException e, long now) {
+      closeChannel();
+      resetErrors.inc();
+      errors.inc();
+      blocked = true;
+      nextConnectNanos = now + RECONNECT_DELAY_NANOS;
+      logger.warning("Unable to connect to " + address.getHostName() + ":" +
+          address.getPort() + " (" + e.getMessage() + ")");
+    }
+
+    private void read() {
+      try {
+        readBuffer.clear();
+        if (channel.read(readBuffer) == -1) {
+          disconnect(new EOFException("Remote server terminated."), System.nanoTime());
+        }
+      } catch (IOException e) {
+        disconnect(e, System.nanoTime());
+      }
+    }
+
+    /**
+     * Closes the channel after a failure. The lines in the buffers are dropped, as there is no
+     * telling which of them were received, and the queued ones are written once reconnected.
+     */
+    private void disconnect(IOException e, long now) {
+      String warningMsg = "Unable to write data to " + address.getHostName() + ":" +
+          address.getPort() + " (" + e.getMessage() + "), reconnecting ...";
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.WARNING, warningMsg, e);
+      } else {
+        logger.warning(warningMsg);
+      }
+      errors.inc();
+      writeErrors.inc(linesInSlots.size());
+      for (Line line : linesInSlots) {
+        line.dropped.inc();
+      }
+      releaseSlots();
+      closeChannel();
+      blocked = true;
+      // a proxy closing connections right away is not reconnected to in a busy loop
+      nextConnectNanos = now + RECONNECT_DELAY_NANOS;
+    }
+
+    /**
+     * Drops every line that was not written, once the writer is stopping.
+     */
+    private void dropAll() {
+      int lines = 0;
+      for (Line line : linesInSlots) {
+        line.dropped.inc();
+        lines++;
+      }
+      releaseSlots();
+      for (Line line = carry != null ? carry : queue.poll(); line != null; line = queue.poll()) {
+        line.dropped.inc();
+        lines++;
+      }
+      carry = null;
+      if (lines > 0) {
+        logger.warning("Dropping " + lines + " lines not written to " + address.getHostName() +
+            ":" + address.getPort() + " before closing");
+      }
+      closeChannel();
+    }
+
+    private void closeChannel() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          logger.log(Level.FINE, "Could not close channel.", e);
+        }
+        channel = null;
+        key = null;
+        connecting = false;
+      }
+    }
+  }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.wavefront.sdk.common.Constants;
 import com.wavefront.sdk.common.NamedThreadFactory;
 import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.ReconnectingSocket;
 import com.wavefront.sdk.common.Utils;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.annotation.Nullable;
@@ -14,12 +15,14 @@ import com.wavefront.sdk.entities.histograms.HistogramGranularity;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
@@ -51,6 +54,13 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
   private static final Logger logger = Logger.getLogger(
       WavefrontProxyClient.class.getCanonicalName());
 
+  // builders larger than this after encoding a line are not kept for the next ones
+  private static final int MAX_LINE_BUILDER_CAPACITY = 64 * 1024;
+  private static final ThreadLocal<StringBuilder> LINE_BUILDER =
+      ThreadLocal.withInitial(() -> new StringBuilder(256));
+  // how long closing waits for queued data to be written in asynchronous mode
+  private static final long ASYNC_CLOSE_TIMEOUT_SECONDS = 5;
+
   @Nullable
   private final ProxyConnectionHandler metricsProxyConnectionHandler;
 
@@ -60,6 +70,9 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
   @Nullable
   private final ProxyConnectionHandler tracingProxyConnectionHandler;
 
+  @Nullable
+  private final ProxyWriter proxyWriter;
+
   /**
    * Source to use if entity source is null
    */
@@ -104,8 +117,13 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     private Integer metricsPort;
     private Integer distributionPort;
     private Integer tracingPort;
+    private String metricsSocketPath;
+    private String distributionSocketPath;
+    private String tracingSocketPath;
     private SocketFactory socketFactory = SocketFactory.getDefault();
     private int flushIntervalSeconds = 5;
+    private int asyncQueueSize = 0;
+    private int connectionsPerPort = 1;
 
     /**
      * WavefrontProxyClient.Builder
@@ -149,6 +167,43 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Invoke this method to send metrics to a Wavefront proxy listening on a Unix domain socket,
+     * such as a proxy running next to the application, instead of a TCP port. Unix domain
+     * sockets require Java 16 or later.
+     *
+     * @param metricsSocketPath Path of the Unix domain socket of the proxy for metrics
+     * @return {@code this}
+     */
+    public Builder metricsSocketPath(String metricsSocketPath) {
+      this.metricsSocketPath = metricsSocketPath;
+      return this;
+    }
+
+    /**
+     * Invoke this method to send distributions to a Wavefront proxy listening on a Unix domain
+     * socket instead of a TCP port. Unix domain sockets require Java 16 or later.
+     *
+     * @param distributionSocketPath Path of the Unix domain socket of the proxy for distributions
+     * @return {@code this}
+     */
+    public Builder distributionSocketPath(String distributionSocketPath) {
+      this.distributionSocketPath = distributionSocketPath;
+      return this;
+    }
+
+    /**
+     * Invoke this method to send tracing spans to a Wavefront proxy listening on a Unix domain
+     * socket instead of a TCP port. Unix domain sockets require Java 16 or later.
+     *
+     * @param tracingSocketPath Path of the Unix domain socket of the proxy for tracing spans
+     * @return {@code this}
+     */
+    public Builder tracingSocketPath(String tracingSocketPath) {
+      this.tracingSocketPath = tracingSocketPath;
+      return this;
+    }
+
     /**
      * Set an explicit SocketFactory
      *
@@ -171,12 +226,73 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return this;
     }
 
+    /**
+     * Invoke this method to send data from a dedicated writer thread instead of the calling
+     * threads, so that a slow or unavailable proxy does not block them. Up to
+     * {@code asyncQueueSize} lines are queued per port; sending data to a port whose queue is
+     * full fails, and lines that cannot be written once queued are counted as dropped.
+     * Asynchronous mode uses plain TCP connections and cannot be combined with a custom
+     * {@link #socketFactory(SocketFactory)}.
+     *
+     * @param asyncQueueSize Maximum number of lines queued per port, or 0 to write data from
+     *                       the calling threads (the default)
+     * @return {@code this}
+     */
+    public Builder asyncQueueSize(int asyncQueueSize) {
+      this.asyncQueueSize = asyncQueueSize;
+      return this;
+    }
+
+    /**
+     * Set the number of connections opened to each port of the proxy, so that threads sending
+     * data concurrently do not all write to a single connection. The data of a series, or the
+     * spans of a trace, are sent on the same connection and received in order, except while that
+     * connection is being reset, when the next connection of the port is used instead.
+     * Connection pools cannot be combined with {@link #asyncQueueSize(int)}, which writes all
+     * the data from a single thread.
+     *
+     * @param connectionsPerPort Number of connections to each port, 1 by default
+     * @return {@code this}
+     */
+    public Builder connectionsPerPort(int connectionsPerPort) {
+      this.connectionsPerPort = connectionsPerPort;
+      return this;
+    }
+
     /**
      * Builds WavefrontProxyClient instance
      *
      * @return {@link WavefrontProxyClient}
      */
     public WavefrontProxyClient build() {
+      if (asyncQueueSize < 0) {
+        throw new IllegalArgumentException("asyncQueueSize cannot be negative");
+      }
+      if (asyncQueueSize > 0 && socketFactory != SocketFactory.getDefault()) {
+        throw new IllegalStateException("asyncQueueSize cannot be used with a custom " +
+            "socketFactory");
+      }
+      if (connectionsPerPort < 1) {
+        throw new IllegalArgumentException("connectionsPerPort must be at least 1");
+      }
+      if (connectionsPerPort > 1 && asyncQueueSize > 0) {
+        throw new IllegalStateException("connectionsPerPort cannot be used with asyncQueueSize");
+      }
+      if ((metricsPort != null && metricsSocketPath != null) ||
+          (distributionPort != null && distributionSocketPath != null) ||
+          (tracingPort != null && tracingSocketPath != null)) {
+        throw new IllegalStateException("a port and a socket path cannot both be set for the " +
+            "same data");
+      }
+      if (metricsSocketPath != null || distributionSocketPath != null ||
+          tracingSocketPath != null) {
+        if (asyncQueueSize > 0) {
+          throw new IllegalStateException("socket paths cannot be used with asyncQueueSize");
+        }
+        if (!ReconnectingSocket.supportsUnixDomainSockets()) {
+          throw new UnsupportedOperationException("socket paths require Java 16 or later");
+        }
+      }
       return new WavefrontProxyClient(this);
     }
   }
@@ -197,60 +313,88 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
         tag(Constants.PROCESS_TAG_KEY, processId).
         build();
 
+    pointsDiscarded = sdkMetricsRegistry.newDeltaCounter("points.discarded");
+    pointsValid = sdkMetricsRegistry.newDeltaCounter("points.valid");
+    pointsInvalid = sdkMetricsRegistry.newDeltaCounter("points.invalid");
+    pointsDropped = sdkMetricsRegistry.newDeltaCounter("points.dropped");
+
+    histogramsDiscarded = sdkMetricsRegistry.newDeltaCounter("histograms.discarded");
+    histogramsValid = sdkMetricsRegistry.newDeltaCounter("histograms.valid");
+    histogramsInvalid = sdkMetricsRegistry.newDeltaCounter("histograms.invalid");
+    histogramsDropped = sdkMetricsRegistry.newDeltaCounter("histograms.dropped");
+
+    spansDiscarded = sdkMetricsRegistry.newDeltaCounter("spans.discarded");
+    spansValid = sdkMetricsRegistry.newDeltaCounter("spans.valid");
+    spansInvalid = sdkMetricsRegistry.newDeltaCounter("spans.invalid");
+    spansDropped = sdkMetricsRegistry.newDeltaCounter("spans.dropped");
+
+    spanLogsDiscarded = sdkMetricsRegistry.newDeltaCounter("span_logs.discarded");
+    spanLogsValid = sdkMetricsRegistry.newDeltaCounter("span_logs.valid");
+    spanLogsInvalid = sdkMetricsRegistry.newDeltaCounter("span_logs.invalid");
+    spanLogsDropped = sdkMetricsRegistry.newDeltaCounter("span_logs.dropped");
+
+    if (builder.asyncQueueSize > 0) {
+      try {
+        proxyWriter = new ProxyWriter();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    } else {
+      proxyWriter = null;
+    }
+
     String uniqueId = builder.proxyHostName + ":";
-    if (builder.metricsPort == null) {
+    if (builder.metricsSocketPath != null) {
+      metricsProxyConnectionHandler = new ProxyConnectionHandler(builder.metricsSocketPath,
+          sdkMetricsRegistry, "metricHandler", builder.connectionsPerPort);
+      uniqueId += builder.metricsSocketPath + ":";
+    } else if (builder.metricsPort == null) {
       metricsProxyConnectionHandler = null;
     } else {
       metricsProxyConnectionHandler = new ProxyConnectionHandler(
           new InetSocketAddress(builder.proxyHostName, builder.metricsPort),
-          builder.socketFactory, sdkMetricsRegistry, "metricHandler");
+          builder.socketFactory, sdkMetricsRegistry, "metricHandler",
+          builder.connectionsPerPort, proxyWriter, builder.asyncQueueSize, pointsDropped);
       uniqueId += builder.metricsPort + ":";
     }
 
-    if (builder.distributionPort == null) {
+    if (builder.distributionSocketPath != null) {
+      histogramProxyConnectionHandler = new ProxyConnectionHandler(builder.distributionSocketPath,
+          sdkMetricsRegistry, "histogramHandler", builder.connectionsPerPort);
+      uniqueId += builder.distributionSocketPath + ":";
+    } else if (builder.distributionPort == null) {
       histogramProxyConnectionHandler = null;
     } else {
       histogramProxyConnectionHandler = new ProxyConnectionHandler(
           new InetSocketAddress(builder.proxyHostName, builder.distributionPort),
-          builder.socketFactory, sdkMetricsRegistry, "histogramHandler");
+          builder.socketFactory, sdkMetricsRegistry, "histogramHandler",
+          builder.connectionsPerPort, proxyWriter, builder.asyncQueueSize, histogramsDropped);
       uniqueId += builder.distributionPort + ":";
     }
 
-    if (builder.tracingPort == null) {
+    if (builder.tracingSocketPath != null) {
+      tracingProxyConnectionHandler = new ProxyConnectionHandler(builder.tracingSocketPath,
+          sdkMetricsRegistry, "tracingHandler", builder.connectionsPerPort);
+      uniqueId += builder.tracingSocketPath;
+    } else if (builder.tracingPort == null) {
       tracingProxyConnectionHandler = null;
     } else {
       tracingProxyConnectionHandler = new ProxyConnectionHandler(
           new InetSocketAddress(builder.proxyHostName, builder.tracingPort),
-          builder.socketFactory, sdkMetricsRegistry, "tracingHandler");
+          builder.socketFactory, sdkMetricsRegistry, "tracingHandler",
+          builder.connectionsPerPort, proxyWriter, builder.asyncQueueSize, spansDropped);
       uniqueId += builder.tracingPort;
     }
 
     this.clientId = uniqueId;
+    if (proxyWriter != null) {
+      proxyWriter.start();
+    }
 
     scheduler = Executors.newScheduledThreadPool(1,
         new NamedThreadFactory("wavefrontProxySender").setDaemon(true));
     // flush every 5 seconds
     scheduler.scheduleAtFixedRate(this, 1, builder.flushIntervalSeconds, TimeUnit.SECONDS);
-
-    pointsDiscarded = sdkMetricsRegistry.newDeltaCounter("points.discarded");
-    pointsValid = sdkMetricsRegistry.newDeltaCounter("points.valid");
-    pointsInvalid = sdkMetricsRegistry.newDeltaCounter("points.invalid");
-    pointsDropped = sdkMetricsRegistry.newDeltaCounter("points.dropped");
-
-    histogramsDiscarded = sdkMetricsRegistry.newDeltaCounter("histograms.discarded");
-    histogramsValid = sdkMetricsRegistry.newDeltaCounter("histograms.valid");
-    histogramsInvalid = sdkMetricsRegistry.newDeltaCounter("histograms.invalid");
-    histogramsDropped = sdkMetricsRegistry.newDeltaCounter("histograms.dropped");
-
-    spansDiscarded = sdkMetricsRegistry.newDeltaCounter("spans.discarded");
-    spansValid = sdkMetricsRegistry.newDeltaCounter("spans.valid");
-    spansInvalid = sdkMetricsRegistry.newDeltaCounter("spans.invalid");
-    spansDropped = sdkMetricsRegistry.newDeltaCounter("spans.dropped");
-
-    spanLogsDiscarded = sdkMetricsRegistry.newDeltaCounter("span_logs.discarded");
-    spanLogsValid = sdkMetricsRegistry.newDeltaCounter("span_logs.valid");
-    spanLogsInvalid = sdkMetricsRegistry.newDeltaCounter("span_logs.invalid");
-    spanLogsDropped = sdkMetricsRegistry.newDeltaCounter("span_logs.dropped");
   }
 
   /** {@inheritDoc} */
@@ -274,9 +418,9 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return;
     }
 
-    String lineData;
+    StringBuilder lineData = lineBuilder();
     try {
-      lineData = metricToLineData(name, value, timestamp, source, tags, defaultSource);
+      metricToLineData(lineData, name, value, timestamp, source, tags, defaultSource);
       pointsValid.inc();
     } catch (IllegalArgumentException e) {
       pointsInvalid.inc();
@@ -284,7 +428,8 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     try {
-      metricsProxyConnectionHandler.sendData(lineData);
+      metricsProxyConnectionHandler.sendData(lineData,
+          metricsProxyConnectionHandler.needsHash() ? seriesHash(name, source, tags) : 0);
     } catch (Exception e) {
       pointsDropped.inc();
       metricsProxyConnectionHandler.incrementFailureCount();
@@ -319,7 +464,8 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     String finalPoint = point.endsWith("\n") ? point : point + "\n";
 
     try {
-      metricsProxyConnectionHandler.sendData(finalPoint);
+      metricsProxyConnectionHandler.sendData(finalPoint,
+          metricsProxyConnectionHandler.needsHash() ? nameHash(finalPoint) : 0);
     } catch (Exception e) {
       pointsDropped.inc();
       metricsProxyConnectionHandler.incrementFailureCount();
@@ -344,9 +490,9 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return;
     }
 
-    String lineData;
+    StringBuilder lineData = lineBuilder();
     try {
-      lineData = histogramToLineData(name, centroids, histogramGranularities, timestamp,
+      histogramToLineData(lineData, name, centroids, histogramGranularities, timestamp,
           source, tags, defaultSource);
       histogramsValid.inc();
     } catch (IllegalArgumentException e) {
@@ -355,7 +501,8 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     try {
-      histogramProxyConnectionHandler.sendData(lineData);
+      histogramProxyConnectionHandler.sendData(lineData,
+          histogramProxyConnectionHandler.needsHash() ? seriesHash(name, source, tags) : 0);
     } catch (Exception e) {
       histogramsDropped.inc();
       histogramProxyConnectionHandler.incrementFailureCount();
@@ -383,9 +530,9 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       return;
     }
 
-    String lineData;
+    StringBuilder lineData = lineBuilder();
     try {
-      lineData = tracingSpanToLineData(name, startMillis, durationMillis, source, traceId,
+      tracingSpanToLineData(lineData, name, startMillis, durationMillis, source, traceId,
           spanId, parents, followsFrom, tags, spanLogs, defaultSource);
       spansValid.inc();
     } catch (IllegalArgumentException e) {
@@ -394,7 +541,7 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     try {
-      tracingProxyConnectionHandler.sendData(lineData);
+      tracingProxyConnectionHandler.sendData(lineData, traceId.hashCode());
     } catch (Exception e) {
       spansDropped.inc();
       if (spanLogs != null && !spanLogs.isEmpty()) {
@@ -405,15 +552,50 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
     }
 
     if (spanLogs != null && !spanLogs.isEmpty()) {
-      sendSpanLogsData(traceId, spanId, spanLogs, lineData);
+      sendSpanLogsData(traceId, spanId, spanLogs, lineData.toString());
+    }
+  }
+
+  /**
+   * Returns an empty builder reused by the calling thread to encode line data, which is written
+   * to the proxy without being copied to a String, unless it is queued in asynchronous mode.
+   */
+  private static StringBuilder lineBuilder() {
+    StringBuilder sb = LINE_BUILDER.get();
+    if (sb.capacity() > MAX_LINE_BUILDER_CAPACITY) {
+      sb = new StringBuilder(256);
+      LINE_BUILDER.set(sb);
+    }
+    sb.setLength(0);
+    return sb;
+  }
+
+  /**
+   * Returns the hash picking the connection of a series, so that its points are received in
+   * order.
+   */
+  private static int seriesHash(String name, @Nullable String source,
+                                @Nullable Map<String, String> tags) {
+    return (Objects.hashCode(name) * 31 + Objects.hashCode(source)) * 31 + Objects.hashCode(tags);
+  }
+
+  /**
+   * Returns the hash of the metric name at the start of a formatted point, so that the points of
+   * a series are received in order.
+   */
+  private static int nameHash(String point) {
+    int hash = 0;
+    for (int i = 0; i < point.length() && point.charAt(i) != ' '; i++) {
+      hash = hash * 31 + point.charAt(i);
     }
+    return hash;
   }
 
   private void sendSpanLogsData(UUID traceId, UUID spanId, List<SpanLog> spanLogs, String span) {
     try {
       String lineData = spanLogsToLineData(traceId, spanId, spanLogs, span);
       spanLogsValid.inc();
-      tracingProxyConnectionHandler.sendData(lineData);
+      tracingProxyConnectionHandler.sendData(lineData, traceId.hashCode(), spanLogsDropped);
     } catch (JsonProcessingException e) {
       spanLogsInvalid.inc();
       logger.log(Level.WARNING, "unable to serialize span logs to json: traceId:" + traceId +
@@ -507,6 +689,10 @@ public class WavefrontProxyClient implements WavefrontSender, Runnable {
       logger.log(Level.FINE, "shutdown error", ex);
     }
 
+    if (proxyWriter != null) {
+      proxyWriter.close(ASYNC_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
     if (metricsProxyConnectionHandler != null) {
       try {
         metricsProxyConnectionHandler.close();
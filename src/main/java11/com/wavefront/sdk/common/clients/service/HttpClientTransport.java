@@ -0,0 +1,259 @@
+package com.wavefront.sdk.common.clients.service;
+
+import com.wavefront.sdk.common.annotation.Nullable;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Transport based on the {@link HttpClient} of Java 11, multiplexing the requests of every
+ * reporting service sharing it over HTTP/2 connections, and falling back to a pool of HTTP/1.1
+ * keep-alive connections when the endpoint does not support HTTP/2. Created by
+ * {@link Transport#httpClient(Duration, Duration)}.
+ *
+ * @version $Id: $Id
+ */
+final class HttpClientTransport implements Transport {
+
+  // bound on the requests sent concurrently by all the clients sharing a transport
+  private static final int MAX_REQUESTS_IN_FLIGHT = 64;
+  private static final int PIPE_SIZE = 64 * 1024;
+  private static final int CHUNK_SIZE = 8 * 1024;
+  // number of connections remembered to tell whether a response reused one of them
+  private static final int MAX_TRACKED_CONNECTIONS = 256;
+
+  // HttpResponse.connectionLabel() of Java 25, or null on older versions
+  @Nullable
+  private static final Method CONNECTION_LABEL;
+
+  static {
+    Method connectionLabel = null;
+    try {
+      connectionLabel = HttpResponse.class.getMethod("connectionLabel");
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // connections cannot be told apart
+    }
+    CONNECTION_LABEL = connectionLabel;
+  }
+
+  private final HttpClient client;
+  private final Duration requestTimeout;
+  private final Semaphore inFlight;
+  // labels of the connections that carried a response, most recently used last
+  private final Set<Object> connections;
+
+  // the counters of the client using this transport, see withMetrics
+  @Nullable
+  private final WavefrontSdkDeltaCounter responses;
+  @Nullable
+  private final WavefrontSdkDeltaCounter reusedConnectionResponses;
+
+  private HttpClientTransport(HttpClient client, Duration requestTimeout, Semaphore inFlight,
+                              Set<Object> connections,
+                              @Nullable WavefrontSdkMetricsRegistry registry) {
+    this.client = client;
+    this.requestTimeout = requestTimeout;
+    this.inFlight = inFlight;
+    this.connections = connections;
+    if (registry == null) {
+      this.responses = null;
+      this.reusedConnectionResponses = null;
+    } else {
+      this.responses = registry.newDeltaCounter("transport.responses");
+      this.reusedConnectionResponses = CONNECTION_LABEL == null ? null :
+          registry.newDeltaCounter("transport.responses.reused_connection");
+    }
+  }
+
+  /**
+   * Creates a transport with the given timeouts.
+   *
+   * @param connectTimeout the connect timeout.
+   * @param requestTimeout the time to wait for the response of a request.
+   * @return the transport.
+   */
+  static Optional<Transport> create(Duration connectTimeout, Duration requestTimeout) {
+    HttpClient client = HttpClient.newBuilder().
+        version(HttpClient.Version.HTTP_2).
+        connectTimeout(connectTimeout).
+        build();
+    Set<Object> connections = Collections.newSetFromMap(Collections.synchronizedMap(
+        new LinkedHashMap<Object, Boolean>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+            return size() > MAX_TRACKED_CONNECTIONS;
+          }
+        }));
+    return Optional.of(new HttpClientTransport(client, requestTimeout,
+        new Semaphore(MAX_REQUESTS_IN_FLIGHT), connections, null));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Chunked bodies are streamed to the client while it sends the request, other bodies are
+   * written into memory first so that the request has a content length. At most 64 requests
+   * are in flight at any given time, the others wait for one of them to complete.
+   */
+  @Override
+  public int post(URL url, Map<String, String> headers, boolean chunked, Body body)
+      throws IOException {
+    HttpRequest.Builder request;
+    try {
+      request = HttpRequest.newBuilder(url.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+    request.timeout(requestTimeout);
+    headers.forEach(request::header);
+    PipedInputStream pipe = null;
+    Pipe pipeOut = null;
+    if (chunked) {
+      PipedInputStream is = new PipedInputStream(PIPE_SIZE);
+      request.POST(HttpRequest.BodyPublishers.ofInputStream(() -> is));
+      pipe = is;
+      pipeOut = new Pipe(is);
+      if (url.getProtocol().equals("http")) {
+        // servers may not upgrade a connection to cleartext HTTP/2 while a body is streamed
+        request.version(HttpClient.Version.HTTP_1_1);
+      }
+    } else {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      body.writeTo(bytes);
+      request.POST(HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray()));
+    }
+
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while posting to " + url);
+    }
+    CompletableFuture<HttpResponse<Void>> future;
+    try {
+      future = client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding());
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+    PipedInputStream finalPipe = pipe;
+    future.whenComplete((response, t) -> {
+      inFlight.release();
+      if (finalPipe != null) {
+        // unblocks the writer of a request that failed before its body was sent
+        closeQuietly(finalPipe);
+      }
+    });
+
+    if (pipe != null) {
+      try {
+        body.writeTo(new BufferedOutputStream(pipeOut, CHUNK_SIZE));
+      } catch (IOException e) {
+        if (e instanceof InterruptedIOException) {
+          Thread.currentThread().interrupt();
+        }
+        if (e instanceof InterruptedIOException || !future.isDone()) {
+          // fails the request rather than sending a truncated body
+          closeQuietly(pipe);
+          future.cancel(true);
+          throw e;
+        }
+        // the request completed before its body was sent, its outcome is reported below
+      }
+    }
+
+    HttpResponse<Void> response;
+    try {
+      response = future.get();
+    } catch (InterruptedException e) {
+      // the client cancels the request, on Java 16 and later
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while posting to " + url);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    if (responses != null) {
+      responses.inc();
+      if (reusedConnectionResponses != null && reusedConnection(response)) {
+        reusedConnectionResponses.inc();
+      }
+    }
+    return response.statusCode();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Counts the responses received by the client and, on Java 25 or later where responses
+   * identify their connection, those received over a connection that carried an earlier
+   * response of any client sharing this transport.
+   */
+  @Override
+  public Transport withMetrics(WavefrontSdkMetricsRegistry registry) {
+    return new HttpClientTransport(client, requestTimeout, inFlight, connections, registry);
+  }
+
+  private boolean reusedConnection(HttpResponse<?> response) {
+    Object label;
+    try {
+      label = ((Optional<?>) CONNECTION_LABEL.invoke(response)).orElse(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return false;
+    }
+    return label != null && !connections.add(label);
+  }
+
+  private static void closeQuietly(PipedInputStream pipe) {
+    try {
+      pipe.close();
+    } catch (IOException e) {
+      // not thrown by pipes
+    }
+  }
+
+  /**
+   * Wakes up the reader of the pipe as soon as data is written, instead of after the second it
+   * waits for when the pipe is empty.
+   */
+  private static final class Pipe extends PipedOutputStream {
+    Pipe(PipedInputStream sink) throws IOException {
+      super(sink);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      super.write(b, off, len);
+      flush();
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests for {@link ReconnectingSocket}
+ */
+public class ReconnectingSocketTest {
+
+  @Test
+  public void testReconnectsInTheBackground() throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    try (ServerSocket server = new ServerSocket(0)) {
+      ReconnectingSocket socket = new ReconnectingSocket(
+          new InetSocketAddress("localhost", server.getLocalPort()), SocketFactory.getDefault(),
+          registry, "socket");
+      try {
+        // the server drops the first connection
+        server.accept().close();
+
+        // the broken connection is detected by the writes, and reset on another thread
+        server.setSoTimeout(100);
+        Socket connection = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (connection == null) {
+          assertTrue(System.nanoTime() < deadline, "the connection was not reset");
+          try {
+            socket.write("line\n");
+            socket.flush();
+          } catch (Exception e) {
+            // writes fail right away while the connection is being reset
+          }
+          try {
+            connection = server.accept();
+          } catch (SocketTimeoutException e) {
+            // not reset yet
+          }
+        }
+
+        try (BufferedReader in = new BufferedReader(
+            new InputStreamReader(connection.getInputStream()))) {
+          connection.setSoTimeout(10_000);
+          while (true) {
+            assertTrue(System.nanoTime() < deadline, "the connection was not reset");
+            try {
+              socket.write("after reset\n");
+              break;
+            } catch (Exception e) {
+              Thread.sleep(10);
+            }
+          }
+          socket.flush();
+          String line;
+          do {
+            line = in.readLine();
+          } while ("line".equals(line));
+          assertEquals("after reset", line);
+        } finally {
+          connection.close();
+        }
+      } finally {
+        socket.close();
+      }
+    }
+  }
+
+  @Test
+  public void testWritesFailFastWhileDisconnected() throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    ReconnectingSocket socket;
+    try (ServerSocket server = new ServerSocket(0)) {
+      socket = new ReconnectingSocket(
+          new InetSocketAddress("localhost", server.getLocalPort()), SocketFactory.getDefault(),
+          registry, "socket");
+      server.accept().close();
+    }
+    try {
+      // nothing listens on the port anymore, the connection cannot be reset
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (true) {
+        try {
+          socket.write("line\n");
+          socket.flush();
+        } catch (Exception e) {
+          break;
+        }
+        if (System.nanoTime() > deadline) {
+          fail("the broken connection was not detected");
+        }
+        Thread.sleep(10);
+      }
+      for (int i = 0; i < 100; i++) {
+        long start = System.nanoTime();
+        assertThrows(Exception.class, () -> socket.write("line\n"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testStalledWritesFail() throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    try (ServerSocket server = new ServerSocket(0)) {
+      ReconnectingSocket socket = new ReconnectingSocket(
+          new InetSocketAddress("localhost", server.getLocalPort()), SocketFactory.getDefault(),
+          registry, "socket");
+      // the server never reads from the connection, so the socket buffers fill up
+      try (Socket connection = server.accept()) {
+        char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'a');
+        String line = new String(chars) + "\n";
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (true) {
+          assertTrue(System.nanoTime() < deadline, "the stalled write did not fail");
+          try {
+            socket.write(line);
+          } catch (SocketTimeoutException e) {
+            break;
+          }
+        }
+        // the connection is reset after the write failed
+        server.setSoTimeout(10_000);
+        server.accept().close();
+      } finally {
+        socket.close();
+      }
+    }
+  }
+
+  @Test
+  public void testTerminationIsNoticedWithoutWrites() throws Exception {
+    // the default factory makes sockets with a channel, which are watched by a selector
+    assertReconnectsAfterTermination(SocketFactory.getDefault(), 2);
+  }
+
+  @Test
+  public void testTerminationIsPolledForCustomFactories() throws Exception {
+    SocketFactory factory = new SocketFactory() {
+      @Override
+      public Socket createSocket() {
+        return new Socket();
+      }
+
+      @Override
+      public Socket createSocket(String host, int port) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Socket createSocket(InetAddress host, int port) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                 int localPort) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    assertReconnectsAfterTermination(factory, 10);
+  }
+
+  @Test
+  public void testUnixDomainSocket(@TempDir Path directory) throws Exception {
+    assumeTrue(ReconnectingSocket.supportsUnixDomainSockets());
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    String path = directory.resolve("proxy.sock").toString();
+    // ServerSocketChannel.open(StandardProtocolFamily.UNIX), which requires Java 16
+    try (ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class.
+        getMethod("open", ProtocolFamily.class).
+        invoke(null, StandardProtocolFamily.valueOf("UNIX"))) {
+      server.bind(UnixDomainSockets.address(path));
+      server.configureBlocking(false);
+      ReconnectingSocket socket = new ReconnectingSocket(path, registry, "socket");
+      try {
+        try (SocketChannel connection = accept(server);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(Channels.newInputStream(connection)))) {
+          socket.write("line\n");
+          socket.flush();
+          assertEquals("line", in.readLine());
+        }
+
+        // the connection closed by the server is reset
+        try (SocketChannel connection = accept(server);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(Channels.newInputStream(connection)))) {
+          long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+          while (true) {
+            try {
+              socket.write("after reset\n");
+              break;
+            } catch (Exception e) {
+              assertTrue(System.nanoTime() < deadline, "the connection was not reset");
+              Thread.sleep(10);
+            }
+          }
+          socket.flush();
+          assertEquals("after reset", in.readLine());
+        }
+      } finally {
+        socket.close();
+      }
+    }
+  }
+
+  private static SocketChannel accept(ServerSocketChannel server) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    SocketChannel connection;
+    while ((connection = server.accept()) == null) {
+      assertTrue(System.nanoTime() < deadline, "no connection was made");
+      Thread.sleep(10);
+    }
+    connection.configureBlocking(true);
+    return connection;
+  }
+
+  private static void assertReconnectsAfterTermination(SocketFactory factory, int timeoutSeconds)
+      throws Exception {
+    WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+    try (ServerSocket server = new ServerSocket(0)) {
+      ReconnectingSocket socket = new ReconnectingSocket(
+          new InetSocketAddress("localhost", server.getLocalPort()), factory, registry, "socket");
+      try {
+        server.accept().close();
+        server.setSoTimeout((int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        // the connection is reset as soon as the termination is noticed
+        try (Socket connection = server.accept();
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(connection.getInputStream()))) {
+          long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+          while (true) {
+            try {
+              socket.write("after reset\n");
+              break;
+            } catch (Exception e) {
+              assertTrue(System.nanoTime() < deadline, "the connection was not reset");
+              Thread.sleep(10);
+            }
+          }
+          socket.flush();
+          assertEquals("after reset", in.readLine());
+        }
+      } finally {
+        socket.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.wavefront.sdk.common;
+
+import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.wavefront.sdk.common.Utils.histogramToLineData;
+import static com.wavefront.sdk.common.Utils.logToLineData;
+import static com.wavefront.sdk.common.Utils.metricToLineData;
+import static com.wavefront.sdk.common.Utils.tracingSpanToLineData;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link TagSet}
+ */
+public class TagSetTest {
+
+  private static Map<String, String> tags() {
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("datacenter", "dc1");
+    tags.put(" key name~1", " val \"name\" 1 ");
+    return tags;
+  }
+
+  @Test
+  public void testEncodesLikeMaps() {
+    Map<String, String> tags = tags();
+    TagSet tagSet = TagSet.of(tags);
+    assertEquals(tags, tagSet);
+
+    assertEquals(metricToLineData("new-york.power.usage", 42422, 1493773500L, "localhost",
+        tags, "defaultSource"), metricToLineData("new-york.power.usage", 42422, 1493773500L,
+        "localhost", tagSet, "defaultSource"));
+    assertEquals(logToLineData("log", 1, 1493773500L, "localhost", tags, "defaultSource"),
+        logToLineData("log", 1, 1493773500L, "localhost", tagSet, "defaultSource"));
+    assertEquals(histogramToLineData("request.latency",
+            Collections.singletonList(Pair.of(30.0, 20)),
+            Collections.singleton(HistogramGranularity.MINUTE), 1493773500L, "localhost", tags,
+            "defaultSource"),
+        histogramToLineData("request.latency", Collections.singletonList(Pair.of(30.0, 20)),
+            Collections.singleton(HistogramGranularity.MINUTE), 1493773500L, "localhost", tagSet,
+            "defaultSource"));
+
+    UUID traceId = UUID.randomUUID();
+    UUID spanId = UUID.randomUUID();
+    List<Pair<String, String>> pairs = Arrays.asList(Pair.of("datacenter", "dc1"),
+        Pair.of(" key name~1", " val \"name\" 1 "));
+    assertEquals(tracingSpanToLineData("getAllUsers", 1493773500L, 343500L, "localhost",
+            traceId, spanId, null, null, pairs, null, "defaultSource"),
+        tracingSpanToLineData("getAllUsers", 1493773500L, 343500L, "localhost", traceId, spanId,
+            null, null, tagSet.asPairs(), null, "defaultSource"));
+    assertSame(tagSet, TagSet.of(tagSet.asPairs()));
+  }
+
+  @Test
+  public void testWith() {
+    TagSet base = TagSet.of(tags());
+    TagSet extended = base.with("datacenter", "dc2").with("env", "prod");
+
+    Map<String, String> expected = tags();
+    expected.put("datacenter", "dc2");
+    expected.put("env", "prod");
+    assertEquals(expected, extended);
+    assertEquals(metricToLineData("metric", 1, null, "localhost", expected, "defaultSource"),
+        metricToLineData("metric", 1, null, "localhost", extended, "defaultSource"));
+    // the original set is unchanged
+    assertEquals(tags(), base);
+    assertSame(base, base.with(Collections.emptyMap()));
+    assertSame(base, TagSet.of(base));
+  }
+
+  @Test
+  public void testRejectsBlankTags() {
+    assertThrows(IllegalArgumentException.class, () -> TagSet.of("", "value"));
+    assertThrows(IllegalArgumentException.class, () -> TagSet.of("key", null));
+    assertThrows(UnsupportedOperationException.class,
+        () -> TagSet.of("key", "value").put("other", "value"));
+  }
+}
@@ -5,18 +5,26 @@ import com.wavefront.sdk.entities.tracing.SpanLog;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import static com.wavefront.sdk.common.Utils.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -40,11 +48,19 @@ public class UtilsTest {
     assertEquals("\"Δcomponent.heartbeat\"", sanitize("Δcomponent.heartbeat"));
     assertEquals("\"∆component.heartbeat\"", sanitize("∆component.heartbeat"));
     assertEquals("\"/mnt/logs/auth.log\"", sanitize("/mnt/logs/auth.log", true));
+    assertEquals("\"∆~component.heartbeat\"", sanitize("∆~component.heartbeat"));
+    assertEquals("\"-component-heartbeat\"", sanitize("!component~heartbeat"));
+    assertEquals("\"component.h-artbeat\"", sanitize("component.h\u00e9artbeat"));
+    // cached results are the same as the first ones
+    assertEquals("\"hello-world\"", sanitize("hello world"));
+    assertEquals("\"hello\"", sanitize("hello"));
   }
 
   @Test
   public void testSanitizeWithoutQuotes() {
     assertEquals("hello-world", sanitizeWithoutQuotes("hello world"));
+    String legal = "hello.world";
+    assertSame(legal, sanitizeWithoutQuotes(legal));
   }
 
   @Test
@@ -55,6 +71,24 @@ public class UtilsTest {
     assertEquals("\"hello\\\"world\\\"\"", sanitizeValue("hello\"world\""));
     assertEquals("\"hello'world\"", sanitizeValue("hello'world"));
     assertEquals("\"hello\\nworld\"", sanitizeValue("hello\nworld"));
+    assertEquals("\"hello world\"", sanitizeValue(" hello world\t"));
+    assertEquals("\"\"", sanitizeValue(""));
+    assertEquals("\"hello\"", sanitizeValue("hello"));
+  }
+
+  @Test
+  public void testAppendDouble() {
+    assertEquals("42422", appendDouble(new StringBuilder(), 42422.0).toString());
+    assertEquals("-3", appendDouble(new StringBuilder(), -3.0).toString());
+    assertEquals("0", appendDouble(new StringBuilder(), -0.0).toString());
+    assertEquals("5.1", appendDouble(new StringBuilder(), 5.1).toString());
+    assertEquals("4.2422E-5", appendDouble(new StringBuilder(), 0.000042422).toString());
+    assertEquals("1.0E20", appendDouble(new StringBuilder(), 1e20).toString());
+    assertEquals("9007199254740991",
+        appendDouble(new StringBuilder(), 9007199254740991.0).toString());
+    assertEquals("NaN", appendDouble(new StringBuilder(), Double.NaN).toString());
+    assertEquals("-Infinity",
+        appendDouble(new StringBuilder(), Double.NEGATIVE_INFINITY).toString());
   }
 
   @Test
@@ -64,31 +98,31 @@ public class UtilsTest {
       put("logGroup", "group");
       put("tag_mirror", "mirror");
     }};
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 1493773500 source=\"localhost\" " +
+    assertEquals("\"/mnt/logs/auth.log\" 42422 1493773500 source=\"localhost\" " +
             "\"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, 1493773500L,
                     "localhost", tags, "defaultSource"));
     // source with colon
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 1493773500 source=\"localhost:8080\" " +
+    assertEquals("\"/mnt/logs/auth.log\" 42422 1493773500 source=\"localhost:8080\" " +
                     "\"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, 1493773500L,
             "localhost:8080", tags, "defaultSource"));
     // null timestamp
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 source=\"localhost\" " +
+    assertEquals("\"/mnt/logs/auth.log\" 42422 source=\"localhost\" " +
                     "\"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, null,
             "localhost", tags, "defaultSource"));
     // null tags and null timestamp
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 source=\"localhost\"\n",
+    assertEquals("\"/mnt/logs/auth.log\" 42422 source=\"localhost\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, null, "localhost", null,
                     "defaultSource"));
     // default source
-    assertEquals("\"/mnt/logs/auth.log\" 42422.0 source=\"defaultSource\"\n",
+    assertEquals("\"/mnt/logs/auth.log\" 42422 source=\"defaultSource\"\n",
             logToLineData("/mnt/logs/auth.log", 42422, null, null, null, "defaultSource"));
     // Add tag key with invalid char, val with empty space
     tags.put(" key name~1", " val name 1 ");
     // Invalid char in metrics
-    assertEquals("\"/mnt/logs/auth-log\" 42422.0 1493773500 source=\"local~host\" " +
+    assertEquals("\"/mnt/logs/auth-log\" 42422 1493773500 source=\"local~host\" " +
                     "\"-key-name-1\"=\"val name 1\" \"logGroup\"=\"group\" \"tag_cluster\"=\"cluster\" \"tag_mirror\"=\"mirror\"\n",
             logToLineData("/mnt/logs/auth:log", 42422, 1493773500L, "local~host", tags,
                     "defaultSource"));
@@ -165,37 +199,50 @@ public class UtilsTest {
     Map<String, String> tags = new HashMap<String, String>() {{
       put("datacenter", "dc1");
     }};
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"localhost\" " +
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"localhost\" " +
         "\"datacenter\"=\"dc1\"\n", metricToLineData("new-york.power.usage", 42422, 1493773500L,
         "localhost", tags, "defaultSource"));
     // source with colon
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"localhost:8080\" " +
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"localhost:8080\" " +
         "\"datacenter\"=\"dc1\"\n", metricToLineData("new-york.power.usage", 42422, 1493773500L,
         "localhost:8080", tags, "defaultSource"));
     // null timestamp
-    assertEquals("\"new-york.power.usage\" 42422.0 source=\"localhost\" " +
+    assertEquals("\"new-york.power.usage\" 42422 source=\"localhost\" " +
         "\"datacenter\"=\"dc1\"\n", metricToLineData("new-york.power.usage", 42422, null,
         "localhost", tags, "defaultSource"));
     // null tags
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"localhost\"\n",
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"localhost\"\n",
         metricToLineData("new-york.power.usage", 42422, 1493773500L,
             "localhost", null, "defaultSource"));
     // null tags and null timestamp
-    assertEquals("\"new-york.power.usage\" 42422.0 source=\"localhost\"\n",
+    assertEquals("\"new-york.power.usage\" 42422 source=\"localhost\"\n",
         metricToLineData("new-york.power.usage", 42422, null, "localhost", null,
             "defaultSource"));
     // default source
-    assertEquals("\"new-york.power.usage\" 42422.0 source=\"defaultSource\"\n",
+    assertEquals("\"new-york.power.usage\" 42422 source=\"defaultSource\"\n",
         metricToLineData("new-york.power.usage", 42422, null, null, null, "defaultSource"));
     // Add tag key with invalid char, val with empty space
     tags.put(" key name~1", " val name 1 ");
     // Invalid char in metrics
-    assertEquals("\"new-york.power.usage\" 42422.0 1493773500 source=\"local~host\" " +
+    assertEquals("\"new-york.power.usage\" 42422 1493773500 source=\"local~host\" " +
             "\"-key-name-1\"=\"val name 1\" " + "\"datacenter\"=\"dc1\"\n",
         metricToLineData("new~york.power.usage", 42422, 1493773500L, "local~host", tags,
             "defaultSource"));
   }
 
+  @Test
+  public void testMetricSourceAndTags() {
+    Map<String, String> tags = new HashMap<String, String>() {{
+      put("datacenter", "dc1");
+    }};
+    assertEquals(" source=\"local~host\" \"datacenter\"=\"dc1\"\n",
+        metricSourceAndTags("new-york.power.usage", "local~host", tags, "defaultSource"));
+    assertEquals(" source=\"defaultSource\"\n",
+        metricSourceAndTags("new-york.power.usage", null, null, "defaultSource"));
+    assertThrows(IllegalArgumentException.class,
+        () -> metricSourceAndTags("", "localhost", tags, "defaultSource"));
+  }
+
   @Test
   public void testInvalidMetricToLineDataThrows() {
     Map<String, String> tags = new HashMap<String, String>() {{
@@ -267,33 +314,33 @@ public class UtilsTest {
     }};
     Set<HistogramGranularity> minGranularity = new HashSet<>();
     minGranularity.add(HistogramGranularity.MINUTE);
-    assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+    assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
             new Pair<>(5.1, 10)), minGranularity,
             1493773500L, "appServer1", tags, "defaultSource"));
     // source with colon
-    assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1:5050\" " +
+    assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1:5050\" " +
             "\"region\"=\"us-west\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
             new Pair<>(5.1, 10)), minGranularity,
             1493773500L, "appServer1:5050", tags, "defaultSource"));
 
     // null timestamp
-    assertEquals("!M #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+    assertEquals("!M #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20), new Pair<>(5.1, 10)),
             minGranularity, null, "appServer1", tags, "defaultSource"));
 
     // null tags
-    assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
+    assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
         histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
             new Pair<>(5.1, 10)),
             minGranularity, 1493773500L, "appServer1", null, "defaultSource"));
 
     // empty centroids
     try {
-      assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
+      assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
           histogramToLineData("request.latency", new ArrayList<>(),
               minGranularity, 1493773500L, "appServer1", null, "defaultSource"));
       fail();
@@ -302,7 +349,7 @@ public class UtilsTest {
 
     // no histogram granularity specified
     try {
-      assertEquals("!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
+      assertEquals("!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\"\n",
           histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20),
               new Pair<>(5.1, 10)), new HashSet<>(),
               1493773500L, "appServer1", null, "defaultSource"));
@@ -324,11 +371,11 @@ public class UtilsTest {
       sb.append("\n");
     }
     // multiple granularities
-    assertEquals("!D 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+    assertEquals("!D 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n" +
-            "!H 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+            "!H 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n" +
-            "!M 1493773500 #20 30.0 #10 5.1 \"request.latency\" source=\"appServer1\" " +
+            "!M 1493773500 #20 30 #10 5.1 \"request.latency\" source=\"appServer1\" " +
             "\"region\"=\"us-west\"\n",
         sb.toString());
   }
@@ -860,4 +907,71 @@ public class UtilsTest {
     assertFalse(Utils.isNullOrEmpty("hello"));
   }
 
+  @Test
+  public void testUtf8Length() {
+    String[] inputs = {"", "hello", "Δcomponent.heartbeat", "∆~internal", "emoji \uD83D\uDE00",
+        "unpaired \uD83D surrogate", "\uDE00", "mixed ß € \uD834\uDD1E end"};
+    for (String input : inputs) {
+      assertEquals(input.getBytes(StandardCharsets.UTF_8).length, utf8Length(input), input);
+    }
+  }
+
+  @Test
+  public void testEncodeUtf8() {
+    String[] inputs = {"", "hello", "Δcomponent.heartbeat", "∆~internal", "emoji \uD83D\uDE00",
+        "unpaired \uD83D surrogate", "\uDE00", "mixed ß € \uD834\uDD1E end"};
+    for (String input : inputs) {
+      ByteBuffer buffer = encodeUtf8(input, ByteBuffer.allocate(utf8Length(input)));
+      assertFalse(buffer.hasRemaining(), input);
+      assertArrayEquals(input.getBytes(StandardCharsets.UTF_8), buffer.array(), input);
+    }
+    assertThrows(BufferOverflowException.class,
+        () -> encodeUtf8("\u20ac", ByteBuffer.allocate(2)));
+  }
+
+  @Test
+  public void testEncodeUtf8Items() throws IOException {
+    List<String> items = Arrays.asList("\"Δname\" 1 source=\"a\"\n", "",
+        "\"emoji \uD83D\uDE00\" 2 source=\"b\"\n", "\"€uro\" 3 source=\"c\"\n");
+    byte[] expected = String.join("", items).getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(expected, encodeUtf8(items));
+    // buffers smaller than, as large as, and larger than the items
+    for (int bufferSize : new int[] {8, 24, 1024}) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      writeUtf8(items, os, bufferSize);
+      assertArrayEquals(expected, os.toByteArray(), "buffer size " + bufferSize);
+    }
+  }
+
+  @Test
+  public void testLineDataToBuilder() {
+    StringBuilder sb = new StringBuilder("previous\n");
+    metricToLineData(sb, "new-york.power.usage", 42422, 1493773500L, "localhost", null,
+        "defaultSource");
+    histogramToLineData(sb, "request.latency", Arrays.asList(new Pair<>(30.0, 20)),
+        new HashSet<>(Arrays.asList(HistogramGranularity.MINUTE)), 1493773500L, "appServer1",
+        null, "defaultSource");
+    assertEquals("previous\n" +
+        metricToLineData("new-york.power.usage", 42422, 1493773500L, "localhost", null,
+            "defaultSource") +
+        histogramToLineData("request.latency", Arrays.asList(new Pair<>(30.0, 20)),
+            new HashSet<>(Arrays.asList(HistogramGranularity.MINUTE)), 1493773500L,
+            "appServer1", null, "defaultSource"), sb.toString());
+
+    // invalid data leaves the builder unchanged
+    String before = sb.toString();
+    Map<String, String> tags = new HashMap<>();
+    tags.put("env", "prod");
+    tags.put("region", "");
+    assertThrows(IllegalArgumentException.class, () -> logToLineData(sb, "log", 1, null,
+        "localhost", tags, "defaultSource"));
+    assertThrows(IllegalArgumentException.class, () -> histogramToLineData(sb, "histogram",
+        Arrays.asList(new Pair<>(30.0, 20)),
+        new HashSet<>(Arrays.asList(HistogramGranularity.MINUTE)), null, "localhost", tags,
+        "defaultSource"));
+    assertThrows(IllegalArgumentException.class, () -> metricToLineData(sb, "metric", 1, null,
+        "localhost", tags, "defaultSource"));
+    assertEquals(before, sb.toString());
+  }
+
 }
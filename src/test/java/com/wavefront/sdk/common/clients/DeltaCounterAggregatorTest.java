@@ -0,0 +1,121 @@
+package com.wavefront.sdk.common.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link DeltaCounterAggregator}
+ */
+public class DeltaCounterAggregatorTest {
+
+  private final Map<String, Double> emitted = new HashMap<>();
+
+  private int drain(DeltaCounterAggregator aggregator) {
+    emitted.clear();
+    return aggregator.drain((name, value, source, tags) ->
+        emitted.merge(name + "|" + source + "|" + tags, value, Double::sum));
+  }
+
+  @Test
+  public void testSumsPerSeries() {
+    DeltaCounterAggregator aggregator = new DeltaCounterAggregator((name, source, tags) -> {
+    });
+    Map<String, String> tags = new HashMap<>();
+    tags.put("env", "prod");
+    for (int i = 0; i < 100; i++) {
+      aggregator.add("requests", 1, "host1", tags);
+      aggregator.add("requests", 2, "host2", tags);
+      aggregator.add("requests", 0.5, "host1", null);
+    }
+    // the series keeps its own copy of the tags
+    tags.put("env", "dev");
+    aggregator.add("requests", 1, "host1", tags);
+
+    assertEquals(4, drain(aggregator));
+    assertEquals(100.0, emitted.get("requests|host1|{env=prod}"));
+    assertEquals(200.0, emitted.get("requests|host2|{env=prod}"));
+    assertEquals(50.0, emitted.get("requests|host1|null"));
+    assertEquals(1.0, emitted.get("requests|host1|{env=dev}"));
+
+    // sums are reset, and idle series removed
+    aggregator.add("requests", 3, "host2", new HashMap<>(tags));
+    assertEquals(1, drain(aggregator));
+    assertEquals(3.0, emitted.get("requests|host2|{env=dev}"));
+    assertEquals(1, aggregator.size());
+    assertEquals(0, drain(aggregator));
+    assertEquals(0, aggregator.size());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws InterruptedException {
+    DeltaCounterAggregator aggregator = new DeltaCounterAggregator((name, source, tags) -> {
+    });
+    int threads = 4;
+    int increments = 100_000;
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        for (int i = 0; i < increments; i++) {
+          aggregator.add("requests", 1, null, null);
+        }
+        done.countDown();
+      }).start();
+    }
+    double total = 0;
+    while (done.getCount() > 0) {
+      drain(aggregator);
+      total += emitted.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+    drain(aggregator);
+    total += emitted.values().stream().mapToDouble(Double::doubleValue).sum();
+    assertEquals(threads * increments, total);
+  }
+
+  @Test
+  public void testConcurrentIncrementsDuringDrains() throws InterruptedException {
+    DeltaCounterAggregator aggregator = new DeltaCounterAggregator((name, source, tags) -> {
+    });
+    int threads = 4;
+    int increments = 20_000;
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      String source = "host" + t % 2;
+      new Thread(() -> {
+        for (int i = 0; i < increments; i++) {
+          aggregator.add("requests", 1, source, null);
+          if (i % 100 == 0) {
+            // lets the series go idle, so that it is removed and added again
+            Thread.yield();
+          }
+        }
+        done.countDown();
+      }).start();
+    }
+    // drains continuously, racing with the increments and the removal of the series
+    double total = 0;
+    while (done.getCount() > 0) {
+      drain(aggregator);
+      total += emitted.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+    drain(aggregator);
+    total += emitted.values().stream().mapToDouble(Double::doubleValue).sum();
+    assertEquals(threads * increments, total);
+  }
+
+  @Test
+  public void testInvalidSeries() {
+    DeltaCounterAggregator aggregator = new DeltaCounterAggregator((name, source, tags) -> {
+      if (name.isEmpty()) {
+        throw new IllegalArgumentException("metrics name cannot be blank");
+      }
+    });
+    assertThrows(IllegalArgumentException.class, () -> aggregator.add("", 1, null, null));
+    assertEquals(0, aggregator.size());
+  }
+}
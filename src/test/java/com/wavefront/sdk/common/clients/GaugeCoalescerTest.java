@@ -0,0 +1,122 @@
+package com.wavefront.sdk.common.clients;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for {@link GaugeCoalescer}
+ */
+public class GaugeCoalescerTest {
+
+  private final Map<String, Double> values = new HashMap<>();
+  private final Map<String, Long> timestamps = new HashMap<>();
+
+  private int drain(GaugeCoalescer coalescer) {
+    values.clear();
+    timestamps.clear();
+    return coalescer.drain((name, value, timestamp, source, tags) -> {
+      values.put(name + "|" + source, value);
+      timestamps.put(name + "|" + source, timestamp);
+    });
+  }
+
+  private GaugeCoalescer coalesce(GaugeCoalescing mode) {
+    GaugeCoalescer coalescer = new GaugeCoalescer(mode, (name, source, tags) -> {
+    });
+    Map<String, String> tags = Collections.singletonMap("env", "prod");
+    for (int i = 1; i <= 10; i++) {
+      coalescer.add("queue.depth", i % 2 == 0 ? i : -i, 1000L + i, "host1", tags);
+    }
+    coalescer.add("queue.depth", 7, null, "host2", tags);
+    return coalescer;
+  }
+
+  @Test
+  public void testModes() {
+    assertEquals(2, drain(coalesce(GaugeCoalescing.LAST)));
+    assertEquals(10.0, values.get("queue.depth|host1"));
+    assertEquals(1010L, timestamps.get("queue.depth|host1"));
+    assertEquals(7.0, values.get("queue.depth|host2"));
+    assertNull(timestamps.get("queue.depth|host2"));
+
+    drain(coalesce(GaugeCoalescing.MIN));
+    assertEquals(-9.0, values.get("queue.depth|host1"));
+
+    drain(coalesce(GaugeCoalescing.MAX));
+    assertEquals(10.0, values.get("queue.depth|host1"));
+
+    drain(coalesce(GaugeCoalescing.AVG));
+    assertEquals(0.5, values.get("queue.depth|host1"));
+    assertEquals(7.0, values.get("queue.depth|host2"));
+
+    drain(coalesce(GaugeCoalescing.COUNT));
+    assertEquals(10.0, values.get("queue.depth|host1"));
+    assertEquals(1.0, values.get("queue.depth|host2"));
+  }
+
+  @Test
+  public void testResetsAndRemovesIdleSeries() {
+    GaugeCoalescer coalescer = coalesce(GaugeCoalescing.MAX);
+    assertEquals(2, drain(coalescer));
+    coalescer.add("queue.depth", -3, null, "host1", Collections.singletonMap("env", "prod"));
+    assertEquals(1, drain(coalescer));
+    assertEquals(-3.0, values.get("queue.depth|host1"));
+    assertEquals(0, drain(coalescer));
+    assertEquals(0, coalescer.size());
+  }
+
+  @Test
+  public void testConcurrentCount() throws InterruptedException {
+    GaugeCoalescer coalescer = new GaugeCoalescer(GaugeCoalescing.COUNT, (name, source, tags) -> {
+    });
+    int threads = 4;
+    int values = 100_000;
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        for (int i = 0; i < values; i++) {
+          coalescer.add("queue.depth", i, null, null, null);
+        }
+        done.countDown();
+      }).start();
+    }
+    double total = 0;
+    while (done.getCount() > 0) {
+      drain(coalescer);
+      total += this.values.values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+    drain(coalescer);
+    total += this.values.values().stream().mapToDouble(Double::doubleValue).sum();
+    assertEquals(threads * values, total);
+  }
+
+  @Test
+  public void testConcurrentAverage() throws InterruptedException {
+    GaugeCoalescer coalescer = new GaugeCoalescer(GaugeCoalescing.AVG, (name, source, tags) -> {
+    });
+    int threads = 4;
+    CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          coalescer.add("queue.depth", 5, null, null, null);
+        }
+        done.countDown();
+      }).start();
+    }
+    // the sum and the count of every average are taken together
+    while (done.getCount() > 0) {
+      drain(coalescer);
+      for (double average : values.values()) {
+        assertEquals(5.0, average);
+      }
+    }
+  }
+}
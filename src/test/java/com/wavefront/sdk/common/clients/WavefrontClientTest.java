@@ -3,28 +3,36 @@ package com.wavefront.sdk.common.clients;
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.wavefront.sdk.common.Pair;
+import com.wavefront.sdk.common.clients.buffer.OverflowPolicy;
 import com.wavefront.sdk.common.clients.service.token.CSPTokenService;
 import com.wavefront.sdk.common.clients.service.token.NoopProxyTokenService;
 import com.wavefront.sdk.common.clients.service.token.WavefrontTokenService;
 import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
 import com.wavefront.sdk.entities.histograms.HistogramGranularity;
+import com.wavefront.sdk.entities.metrics.MetricSeries;
 import com.wavefront.sdk.entities.tracing.SpanLog;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.NullAndEmptySource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import java.net.ServerSocket;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.anyUrl;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
 import static com.github.tomakehurst.wiremock.client.WireMock.matching;
@@ -46,6 +54,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for the {@link WavefrontClient} class
@@ -119,12 +128,326 @@ public class WavefrontClientTest {
         wfClient.flush();
       });
 
-      String expectedBody = "\"a-name\" 1.0 " + timestamp + " source=\"a-source\"\n";
+      String expectedBody = "\"a-name\" 1 " + timestamp + " source=\"a-source\"\n";
       mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
           .withRequestBody(matching(expectedBody))
           .withHeader("Content-Type", WireMock.equalTo("application/octet-stream")));
     }
 
+    @Test
+    void sendMetricWithDeferredSerialization() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .deferredSerialization(true)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        wfClient.sendMetric("a-name", 1.0, timestamp, "a-source", new HashMap<>());
+        // invalid points are discarded on the flush thread instead of throwing
+        wfClient.sendMetric("", 1.0, timestamp, "a-source", new HashMap<>());
+        wfClient.flush();
+      });
+
+      String expectedBody = "\"a-name\" 1 " + timestamp + " source=\"a-source\"\n";
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(matching(expectedBody)));
+    }
+
+    @Test
+    void sendEventWithDeferredSerialization() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .deferredSerialization(true)
+          .maxQueueSize(1)
+          .overflowPolicy(OverflowPolicy.dropOldest())
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        // events are added by the sending thread, so the overflow policy applies to them
+        wfClient.sendEvent("a-event", timestamp, timestamp + 1, "a-source", null, null);
+        wfClient.sendEvent("b-event", timestamp, timestamp + 1, "a-source", null, null);
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(anyUrl()).withRequestBody(containing("b-event")));
+      mockBackend.verify(0, postRequestedFor(anyUrl()).withRequestBody(containing("a-event")));
+      wfClient.close();
+    }
+
+    @Test
+    void sendMetricWithDiskOverflow(@TempDir Path overflowDirectory) {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .maxQueueSize(1)
+          .diskOverflow(overflowDirectory.toString(), 1024)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        wfClient.sendMetric("a-name", 1.0, timestamp, "a-source", new HashMap<>());
+        // spilled to disk since the buffer is full, and replayed after the buffer is sent
+        wfClient.sendMetric("b-name", 1.0, timestamp, "a-source", new HashMap<>());
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(matching("\"a-name\" 1 " + timestamp + " source=\"a-source\"\n")));
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(matching("\"b-name\" 1 " + timestamp + " source=\"a-source\"\n")));
+      wfClient.close();
+    }
+
+    @Test
+    void flushWithMultipleThreads() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .flushThreads(3)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+      UUID traceId = UUID.fromString("01010101-0101-0101-0101-010101010101");
+      UUID spanId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+      assertDoesNotThrow(() -> {
+        wfClient.sendMetric("a-name", 1.0, timestamp, "a-source", new HashMap<>());
+        wfClient.sendSpan("a-name", timestamp, 1138, "a-source", traceId, spanId,
+            null, null, null, null);
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(matching("\"a-name\" 1 " + timestamp + " source=\"a-source\"\n")));
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=trace")));
+      wfClient.close();
+    }
+
+    @Test
+    void sendChunksConcurrently() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .maxInFlightRequests(3)
+          // one point per chunk
+          .messageSizeBytes(50)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        for (int i = 0; i < 5; i++) {
+          wfClient.sendMetric("name-" + i, 1.0, timestamp, "a-source", new HashMap<>());
+        }
+        wfClient.flush();
+      });
+
+      mockBackend.verify(5, postRequestedFor(urlEqualTo("/report?f=wavefront")));
+      for (int i = 0; i < 5; i++) {
+        mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+            .withRequestBody(matching("\"name-" + i + "\" 1 .*\n")));
+      }
+      wfClient.close();
+    }
+
+    @Test
+    void aggregateDeltaCounters() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .aggregateDeltaCounters(true)
+          .includeSdkMetrics(false)
+          .build();
+
+      assertDoesNotThrow(() -> {
+        for (int i = 0; i < 1000; i++) {
+          wfClient.sendDeltaCounter("requests", 1, "a-source", new HashMap<>());
+        }
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(equalTo("\"\u2206requests\" 1000 source=\"a-source\"\n")));
+      wfClient.close();
+    }
+
+    @Test
+    void aggregateDeltaCounterSeries() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .aggregateDeltaCounters(true)
+          .includeSdkMetrics(false)
+          .build();
+      MetricSeries series = wfClient.series("\u2206requests", "a-source", null);
+
+      assertDoesNotThrow(() -> {
+        for (int i = 0; i < 1000; i++) {
+          series.send(1);
+        }
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(equalTo("\"\u2206requests\" 1000 source=\"a-source\"\n")));
+      wfClient.close();
+    }
+
+    @Test
+    void sendMetricSeries() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .includeSdkMetrics(false)
+          .build();
+      MetricSeries series = wfClient.series("queue depth", "a-source",
+          Collections.singletonMap("env", "prod"));
+
+      assertDoesNotThrow(() -> {
+        series.send(1.0);
+        series.send(2.0, 1234L);
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(equalTo(
+              "\"queue-depth\" 1 source=\"a-source\" \"env\"=\"prod\"\n" +
+              "\"queue-depth\" 2 1234 source=\"a-source\" \"env\"=\"prod\"\n")));
+      assertThrows(IllegalArgumentException.class, () -> wfClient.series("", null, null));
+      wfClient.close();
+    }
+
+    @Test
+    void coalesceGauges() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .coalesceGauges(GaugeCoalescing.MAX)
+          .includeSdkMetrics(false)
+          .build();
+
+      assertDoesNotThrow(() -> {
+        for (int i = 0; i < 1000; i++) {
+          wfClient.sendMetric("queue.depth", i % 100, null, "a-source", new HashMap<>());
+        }
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(equalTo("\"queue.depth\" 99 source=\"a-source\"\n")));
+      wfClient.close();
+    }
+
+    @Test
+    void doNotCoalesceTimestampedGauges() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .coalesceGauges(GaugeCoalescing.MAX)
+          .includeSdkMetrics(false)
+          .build();
+
+      assertDoesNotThrow(() -> {
+        wfClient.sendMetric("queue.depth", 1, 1000L, "a-source", new HashMap<>());
+        wfClient.sendMetric("queue.depth", 2, 2000L, "a-source", new HashMap<>());
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withRequestBody(equalTo("\"queue.depth\" 1 1000 source=\"a-source\"\n" +
+              "\"queue.depth\" 2 2000 source=\"a-source\"\n")));
+      wfClient.close();
+    }
+
+    @Test
+    void compressChunksInParallel() {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .compressionThreads(2)
+          .compressionLevel(Deflater.BEST_SPEED)
+          // one point per chunk
+          .messageSizeBytes(50)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        for (int i = 0; i < 5; i++) {
+          wfClient.sendMetric("name-" + i, 1.0, timestamp, "a-source", new HashMap<>());
+        }
+        wfClient.flush();
+      });
+
+      mockBackend.verify(5, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+          .withHeader("Content-Encoding", equalTo("gzip")));
+      for (int i = 0; i < 5; i++) {
+        mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront"))
+            .withRequestBody(matching("\"name-" + i + "\" 1 .*\n")));
+      }
+      wfClient.close();
+    }
+
+    @Test
+    void flushEarlyWhenBufferReachesThreshold() throws InterruptedException {
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .flushIntervalSeconds(3600)
+          .maxQueueSize(10)
+          .earlyFlushFraction(0.5)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        for (int i = 0; i < 5; i++) {
+          wfClient.sendMetric("name-" + i, 1.0, timestamp, "a-source", new HashMap<>());
+        }
+      });
+
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (mockBackend.findAll(postRequestedFor(urlEqualTo("/report?f=wavefront"))).isEmpty()
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront")));
+      wfClient.close();
+    }
+
+    @Test
+    void boundEarlyFlushesWhileBackingOff() throws InterruptedException {
+      mockBackend.stubFor(WireMock.post(urlPathMatching("/report"))
+          .willReturn(WireMock.serviceUnavailable()));
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .flushIntervalSeconds(3600)
+          .maxQueueSize(10)
+          .earlyFlushFraction(0.5)
+          .retryBackoff(1, 1, TimeUnit.HOURS)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      // the buffer stays full while the endpoint is backed off from
+      long end = System.currentTimeMillis() + 1000;
+      int i = 0;
+      while (System.currentTimeMillis() < end) {
+        int n = i++;
+        assertDoesNotThrow(() -> wfClient.sendMetric("name-" + n, 1.0, timestamp, "a-source",
+            new HashMap<>()));
+        Thread.sleep(1);
+      }
+
+      // the first early flush fails and opens the backoff, later ones are not scheduled
+      assertTrue(wfClient.getEarlyFlushCount() <= 2,
+          "early flushes: " + wfClient.getEarlyFlushCount());
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront")));
+      wfClient.close();
+    }
+
+    @Test
+    void backOffAfterServerError() {
+      mockBackend.stubFor(WireMock.post(urlPathMatching("/report"))
+          .willReturn(WireMock.serviceUnavailable()));
+      WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
+          .retryBackoff(1, 1, TimeUnit.HOURS)
+          .includeSdkMetrics(false)
+          .build();
+      long timestamp = System.currentTimeMillis();
+
+      assertDoesNotThrow(() -> {
+        wfClient.sendMetric("a-name", 1.0, timestamp, "a-source", new HashMap<>());
+        wfClient.flush();
+        // the requeued point is held back until the backoff delay elapses
+        wfClient.flush();
+      });
+
+      mockBackend.verify(1, postRequestedFor(urlEqualTo("/report?f=wavefront")));
+    }
+
     @Test
     void sendSpan() {
       WavefrontClient wfClient = new WavefrontClient.Builder(mockBackend.baseUrl())
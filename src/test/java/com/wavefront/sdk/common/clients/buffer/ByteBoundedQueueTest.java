@@ -0,0 +1,66 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ByteBoundedQueue}
+ */
+public class ByteBoundedQueueTest {
+
+  @Test
+  public void testBoundedByBytes() {
+    ByteBoundedQueue queue = new ByteBoundedQueue(new LinkedBlockingQueue<>(),
+        new ByteBudget(10), null);
+    assertTrue(queue.offer("aaaa"));
+    // 3 chars, 6 bytes
+    assertTrue(queue.offer("ΔΔΔ"));
+    assertEquals(10, queue.bytes());
+    assertFalse(queue.offer("a"));
+
+    assertEquals("aaaa", queue.poll());
+    assertEquals(6, queue.bytes());
+    assertTrue(queue.offer("aaaa"));
+
+    List<String> drained = new ArrayList<>();
+    assertEquals(2, queue.drainTo(drained));
+    assertEquals(0, queue.bytes());
+    assertEquals(10, queue.remainingBytes());
+  }
+
+  @Test
+  public void testSharedBudget() {
+    ByteBudget shared = new ByteBudget(8);
+    ByteBoundedQueue first = new ByteBoundedQueue(new LinkedBlockingQueue<>(),
+        new ByteBudget(6), shared);
+    ByteBoundedQueue second = new ByteBoundedQueue(new LinkedBlockingQueue<>(),
+        new ByteBudget(6), shared);
+
+    assertTrue(first.offer("aaaaa"));
+    assertFalse(second.offer("aaaa"));
+    assertEquals(0, second.bytes());
+    assertTrue(second.offer("aaa"));
+    assertEquals(8, shared.used());
+
+    first.poll();
+    assertEquals(3, shared.used());
+    assertTrue(second.offer("aaa"));
+  }
+
+  @Test
+  public void testItemCountBoundStillApplies() {
+    ByteBoundedQueue queue = new ByteBoundedQueue(new LinkedBlockingQueue<>(1),
+        new ByteBudget(100), null);
+    assertTrue(queue.offer("a"));
+    assertFalse(queue.offer("b"));
+    // the rejected item does not hold on to its bytes
+    assertEquals(1, queue.bytes());
+  }
+}
@@ -0,0 +1,118 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link DiskOverflowLog}
+ */
+public class DiskOverflowLogTest {
+
+  @TempDir
+  Path directory;
+
+  private WavefrontSdkMetricsRegistry registry;
+
+  @BeforeEach
+  public void setUp() {
+    registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+  }
+
+  @Test
+  public void testPeekAndCommit() throws IOException {
+    DiskOverflowLog log = new DiskOverflowLog(directory, "test", 1024, registry, "points");
+    assertTrue(log.isEmpty());
+    assertTrue(log.append("a 1\n"));
+    assertTrue(log.append("b 2\n"));
+    assertTrue(log.append("c 3\n"));
+    assertEquals(12, log.bytes());
+
+    assertEquals(Arrays.asList("a 1\n", "b 2\n"), log.peek(2, 100));
+    // not consumed until committed
+    assertEquals(Arrays.asList("a 1\n", "b 2\n"), log.peek(2, 100));
+    log.commit();
+    assertEquals(4, log.bytes());
+
+    // at least one item is returned regardless of the byte limit
+    assertEquals(Collections.singletonList("c 3\n"), log.peek(10, 1));
+    log.commit();
+    assertTrue(log.isEmpty());
+    assertEquals(0, log.bytes());
+    assertTrue(log.peek(10, 100).isEmpty());
+    log.close();
+  }
+
+  @Test
+  public void testRollsAndDeletesSegments() throws IOException {
+    // a single 12 byte segment holds one 8 byte item and its length
+    DiskOverflowLog log = new DiskOverflowLog(directory, "single", 12, registry, "spans");
+    assertTrue(log.append("aaaaaaaa"));
+    assertFalse(log.append("bbbbbbbb"));
+    assertEquals(1, countSegments());
+
+    // three such segments
+    DiskOverflowLog larger = new DiskOverflowLog(directory, "larger", 36, 12, registry, "logs");
+    assertTrue(larger.append("aaaaaaaa"));
+    assertTrue(larger.append("bbbbbbbb"));
+    assertTrue(larger.append("cccccccc"));
+    assertFalse(larger.append("dddddddd"));
+    assertEquals(4, countSegments());
+
+    assertEquals(Collections.singletonList("aaaaaaaa"), larger.peek(10, 100));
+    larger.commit();
+    assertEquals(3, countSegments());
+    assertTrue(larger.append("dddddddd"));
+    assertEquals(Collections.singletonList("bbbbbbbb"), larger.peek(10, 100));
+    larger.commit();
+    assertEquals(Collections.singletonList("cccccccc"), larger.peek(10, 100));
+    larger.commit();
+    assertEquals(Collections.singletonList("dddddddd"), larger.peek(10, 100));
+    larger.commit();
+    assertTrue(larger.isEmpty());
+
+    log.close();
+    larger.close();
+    assertEquals(0, countSegments());
+  }
+
+  @Test
+  public void testRejectsOversizedItems() throws IOException {
+    DiskOverflowLog log = new DiskOverflowLog(directory, "test", 8, registry, "points");
+    assertFalse(log.append("aaaaaaaaa"));
+    assertTrue(log.append("aaaa"));
+    assertEquals(Collections.singletonList("aaaa"), log.peek(1, 100));
+    log.close();
+  }
+
+  @Test
+  public void testRejectsItemsAfterClose() throws IOException {
+    DiskOverflowLog log = new DiskOverflowLog(directory, "test", 1024, registry, "points");
+    assertTrue(log.append("aaaa"));
+    log.close();
+    assertFalse(log.append("bbbb"));
+    assertTrue(log.isEmpty());
+    assertEquals(0, countSegments());
+  }
+
+  private long countSegments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MpscRingBuffer}
+ */
+public class MpscRingBufferTest {
+
+  @Test
+  public void testOfferAndPollInOrder() {
+    MpscRingBuffer<String> buffer = new MpscRingBuffer<>(3);
+    assertTrue(buffer.offer("a"));
+    assertTrue(buffer.offer("b"));
+    assertTrue(buffer.offer("c"));
+    assertFalse(buffer.offer("d"));
+    assertEquals(3, buffer.size());
+    assertEquals(0, buffer.remainingCapacity());
+
+    assertEquals("a", buffer.peek());
+    assertEquals("a", buffer.poll());
+    assertTrue(buffer.offer("d"));
+    assertEquals("b", buffer.poll());
+    assertEquals("c", buffer.poll());
+    assertEquals("d", buffer.poll());
+    assertNull(buffer.poll());
+    assertEquals(0, buffer.size());
+    assertEquals(3, buffer.remainingCapacity());
+  }
+
+  @Test
+  public void testDrainToAndOfferAll() {
+    MpscRingBuffer<String> buffer = new MpscRingBuffer<>(4);
+    assertEquals(3, buffer.offerAll(Arrays.asList("a", "b", "c")));
+    assertEquals(1, buffer.offerAll(Arrays.asList("d", "e")));
+
+    List<String> drained = new ArrayList<>();
+    assertEquals(2, buffer.drainTo(drained, 2));
+    assertEquals(Arrays.asList("a", "b"), drained);
+
+    // wraps around the end of the backing array
+    assertEquals(2, buffer.offerAll(Arrays.asList("e", "f")));
+    drained.clear();
+    assertEquals(4, buffer.drainTo(drained));
+    assertEquals(Arrays.asList("c", "d", "e", "f"), drained);
+    assertEquals(0, buffer.drainTo(drained));
+  }
+
+  @Test
+  public void testTimedOfferAndPoll() throws InterruptedException {
+    MpscRingBuffer<String> buffer = new MpscRingBuffer<>(1);
+    assertTrue(buffer.offer("a", 1, TimeUnit.MILLISECONDS));
+    assertFalse(buffer.offer("b", 1, TimeUnit.MILLISECONDS));
+    assertEquals("a", buffer.poll(1, TimeUnit.MILLISECONDS));
+    assertNull(buffer.poll(1, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    int numThreads = 8;
+    int numItems = 10_000;
+    MpscRingBuffer<String> buffer = new MpscRingBuffer<>(1024);
+    CountDownLatch done = new CountDownLatch(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      new Thread(() -> {
+        for (int i = 0; i < numItems; i++) {
+          String item = thread + ":" + i;
+          while (!buffer.offer(item)) {
+            Thread.yield();
+          }
+        }
+        done.countDown();
+      }).start();
+    }
+
+    Set<String> received = new HashSet<>();
+    int[] lastSeen = new int[numThreads];
+    Arrays.fill(lastSeen, -1);
+    List<String> drained = new ArrayList<>();
+    while (received.size() < numThreads * numItems) {
+      drained.clear();
+      buffer.drainTo(drained, 100);
+      for (String item : drained) {
+        String[] parts = item.split(":");
+        int thread = Integer.parseInt(parts[0]);
+        int seq = Integer.parseInt(parts[1]);
+        // items from a single producer arrive in order
+        assertTrue(seq > lastSeen[thread]);
+        lastSeen[thread] = seq;
+        assertTrue(received.add(item));
+      }
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, buffer.size());
+  }
+}
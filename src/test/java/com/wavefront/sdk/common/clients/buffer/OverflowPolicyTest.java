@@ -0,0 +1,164 @@
+package com.wavefront.sdk.common.clients.buffer;
+
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link OverflowPolicy}
+ */
+public class OverflowPolicyTest {
+
+  private WavefrontSdkMetricsRegistry registry;
+
+  @BeforeEach
+  public void setUp() {
+    registry = new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+  }
+
+  @Test
+  public void testDropNewest() {
+    OverflowPolicy.Handler handler = OverflowPolicy.dropNewest().newHandler(registry, "points");
+    BlockingQueue<String> buffer = new LinkedBlockingQueue<>(2);
+    assertTrue(handler.offer(buffer, "a"));
+    assertTrue(handler.offer(buffer, "b"));
+    assertFalse(handler.offer(buffer, "c"));
+    assertEquals(Arrays.asList("a", "b"), new ArrayList<>(buffer));
+  }
+
+  @Test
+  public void testBlockWithTimeout() throws InterruptedException {
+    OverflowPolicy.Handler handler = OverflowPolicy.blockWithTimeout(10, TimeUnit.SECONDS).
+        newHandler(registry, "points");
+    BlockingQueue<String> buffer = new LinkedBlockingQueue<>(1);
+    assertTrue(handler.offer(buffer, "a"));
+    Thread consumer = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+        buffer.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    consumer.start();
+    // waits for the consumer to make room
+    assertTrue(handler.offer(buffer, "b"));
+    consumer.join();
+    assertEquals("b", buffer.peek());
+    assertEquals(1, registry.newDeltaCounter("points.backpressure.blocked").count());
+
+    handler = OverflowPolicy.blockWithTimeout(1, TimeUnit.MILLISECONDS).
+        newHandler(registry, "spans");
+    assertFalse(handler.offer(buffer, "c"));
+    assertEquals(1, registry.newDeltaCounter("spans.backpressure.timed_out").count());
+  }
+
+  @Test
+  public void testDropOldest() {
+    OverflowPolicy.Handler handler = OverflowPolicy.dropOldest().newHandler(registry, "points");
+    BlockingQueue<String> buffer = new LinkedBlockingQueue<>(2);
+    assertTrue(handler.offer(buffer, "a"));
+    assertTrue(handler.offer(buffer, "b"));
+    List<String> evicted = new ArrayList<>();
+    assertTrue(handler.offer(buffer, "c", evicted::add));
+    assertEquals(Arrays.asList("b", "c"), new ArrayList<>(buffer));
+    assertEquals(Arrays.asList("a"), evicted);
+    assertEquals(1, registry.newDeltaCounter("points.backpressure.evicted").count());
+  }
+
+  @Test
+  public void testDropOldestKeepsBufferForItemsThatCannotFit() {
+    OverflowPolicy.Handler handler = OverflowPolicy.dropOldest().newHandler(registry, "points");
+    ByteBudget sharedBudget = new ByteBudget(8);
+    BlockingQueue<String> buffer = new ByteBoundedQueue(new LinkedBlockingQueue<>(10),
+        new ByteBudget(4), sharedBudget);
+    List<String> evicted = new ArrayList<>();
+    assertTrue(handler.offer(buffer, "ab", evicted::add));
+    // larger than the budget of the buffer
+    assertFalse(handler.offer(buffer, "abcde", evicted::add));
+    // the shared budget is used up by other buffers
+    assertTrue(sharedBudget.tryAcquire(6));
+    assertFalse(handler.offer(buffer, "abcd", evicted::add));
+    assertEquals(Arrays.asList("ab"), new ArrayList<>(buffer));
+    assertTrue(evicted.isEmpty());
+    sharedBudget.release(6);
+    assertTrue(handler.offer(buffer, "abcd", evicted::add));
+    assertEquals(Arrays.asList("ab"), evicted);
+  }
+
+  @Test
+  public void testSampleKeepsBufferForItemsThatCannotFit() {
+    OverflowPolicy.Handler handler = OverflowPolicy.sample().newHandler(registry, "points");
+    BlockingQueue<String> buffer = new ByteBoundedQueue(new LinkedBlockingQueue<>(10),
+        new ByteBudget(4), null);
+    List<String> evicted = new ArrayList<>();
+    assertTrue(handler.offer(buffer, "ab", evicted::add));
+    for (int i = 0; i < 100; i++) {
+      assertFalse(handler.offer(buffer, "abcde", evicted::add));
+    }
+    assertEquals(Arrays.asList("ab"), new ArrayList<>(buffer));
+    assertTrue(evicted.isEmpty());
+    assertEquals(100, registry.newDeltaCounter("points.backpressure.sampled_out").count());
+  }
+
+  @Test
+  public void testSampleByEncodedSize() {
+    OverflowPolicy.Handler handler = OverflowPolicy.sample().newHandler(registry, "points");
+    BlockingQueue<String> buffer = new ByteBoundedQueue(new LinkedBlockingQueue<>(1_000),
+        new ByteBudget(400), null);
+    for (int i = 0; i < 10_000; i++) {
+      handler.offer(buffer, String.format("%04d", i));
+    }
+    assertEquals(100, buffer.size());
+    long evicted = registry.newDeltaCounter("points.backpressure.evicted").count();
+    // sampled against the 100 items held by the buffer rather than its item capacity
+    assertTrue(evicted > 200 && evicted < 800, "evicted " + evicted);
+  }
+
+  @Test
+  public void testSample() {
+    OverflowPolicy.Handler handler = OverflowPolicy.sample().newHandler(registry, "points");
+    BlockingQueue<String> buffer = new LinkedBlockingQueue<>(100);
+    for (int i = 0; i < 10_000; i++) {
+      handler.offer(buffer, Integer.toString(i));
+    }
+    assertEquals(100, buffer.size());
+    long evicted = registry.newDeltaCounter("points.backpressure.evicted").count();
+    long sampledOut = registry.newDeltaCounter("points.backpressure.sampled_out").count();
+    assertEquals(9_900, evicted + sampledOut);
+    // about capacity * ln(10000 / 100) items are kept while the buffer is full
+    assertTrue(evicted > 200 && evicted < 800, "evicted " + evicted);
+
+    // later items keep being sampled in
+    List<Integer> kept = new ArrayList<>();
+    for (String item : buffer) {
+      kept.add(Integer.parseInt(item));
+    }
+    assertTrue(kept.get(kept.size() - 1) > 5_000);
+  }
+
+  @Test
+  public void testSampleHandsOverEvictedItems() {
+    OverflowPolicy.Handler handler = OverflowPolicy.sample().newHandler(registry, "points");
+    BlockingQueue<String> buffer = new LinkedBlockingQueue<>(10);
+    List<String> evicted = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      handler.offer(buffer, Integer.toString(i), evicted::add);
+    }
+    assertEquals(registry.newDeltaCounter("points.backpressure.evicted").count(), evicted.size());
+  }
+}
@@ -0,0 +1,104 @@
+package com.wavefront.sdk.common.clients.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.wavefront.sdk.common.clients.service.CircuitBreaker.Permit.DENIED;
+import static com.wavefront.sdk.common.clients.service.CircuitBreaker.Permit.PROBE;
+import static com.wavefront.sdk.common.clients.service.CircuitBreaker.Permit.REQUEST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link CircuitBreaker}
+ */
+public class CircuitBreakerTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private void advance(long millis) {
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  @Test
+  public void testBacksOffExponentially() {
+    CircuitBreaker breaker = new CircuitBreaker(100, 300, TimeUnit.MILLISECONDS, 10, nanos::get);
+    assertEquals(REQUEST, breaker.tryAcquire());
+
+    // between half and all of 100ms
+    breaker.onFailure();
+    assertEquals(DENIED, breaker.tryAcquire());
+    advance(49);
+    assertEquals(DENIED, breaker.tryAcquire());
+    advance(51);
+    assertEquals(REQUEST, breaker.tryAcquire());
+
+    // between half and all of 200ms
+    breaker.onFailure();
+    advance(99);
+    assertEquals(DENIED, breaker.tryAcquire());
+    advance(101);
+    assertEquals(REQUEST, breaker.tryAcquire());
+
+    // capped at 300ms
+    breaker.onFailure();
+    breaker.onFailure();
+    advance(300);
+    assertEquals(REQUEST, breaker.tryAcquire());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertEquals(4, breaker.getConsecutiveFailures());
+
+    breaker.onSuccess();
+    assertEquals(0, breaker.getConsecutiveFailures());
+    assertEquals(REQUEST, breaker.tryAcquire());
+  }
+
+  @Test
+  public void testNeverOpensWithoutThreshold() {
+    CircuitBreaker breaker = new CircuitBreaker(100, 100, TimeUnit.MILLISECONDS, 0, nanos::get);
+    for (int i = 0; i < 10; i++) {
+      breaker.onFailure();
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertEquals(DENIED, breaker.tryAcquire());
+    advance(100);
+    assertEquals(REQUEST, breaker.tryAcquire());
+    assertEquals(REQUEST, breaker.tryAcquire());
+  }
+
+  @Test
+  public void testOpensAndProbes() {
+    CircuitBreaker breaker = new CircuitBreaker(100, 100, TimeUnit.MILLISECONDS, 2, nanos::get);
+    breaker.onFailure();
+    breaker.onFailure();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertEquals(DENIED, breaker.tryAcquire());
+    assertTrue(breaker.isBackingOff());
+
+    advance(100);
+    // checking does not take the probe
+    assertFalse(breaker.isBackingOff());
+    assertEquals(PROBE, breaker.tryAcquire());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    // a single probe at a time
+    assertEquals(DENIED, breaker.tryAcquire());
+    assertTrue(breaker.isBackingOff());
+
+    // a failed probe opens the breaker again
+    breaker.onFailure();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    advance(100);
+    assertEquals(PROBE, breaker.tryAcquire());
+
+    // an unused probe can be taken by the next caller
+    breaker.release();
+    assertEquals(PROBE, breaker.tryAcquire());
+
+    breaker.onSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertEquals(REQUEST, breaker.tryAcquire());
+  }
+}
@@ -0,0 +1,190 @@
+package com.wavefront.sdk.common.clients.service;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests for the Java 11 implementation of {@link HttpClientTransport}, which is loaded from the
+ * multi-release output of the build since the tests run against the Java 8 classes.
+ */
+public class HttpClientTransportTest {
+
+  private WireMockServer mockBackend;
+  private Transport transport;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    String specVersion = System.getProperty("java.specification.version");
+    assumeTrue(!specVersion.startsWith("1.") && Integer.parseInt(specVersion) >= 11,
+        "HttpClientTransport requires Java 11 or later");
+    transport = newTransport();
+    mockBackend = new WireMockServer(wireMockConfig().dynamicPort());
+    mockBackend.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    if (mockBackend != null) {
+      mockBackend.stop();
+    }
+  }
+
+  @Test
+  public void testPost() throws Exception {
+    mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).willReturn(WireMock.ok()));
+    URL url = new URL(mockBackend.baseUrl() + "/report");
+    int statusCode = transport.post(url, Collections.singletonMap("Content-Type", "text/plain"),
+        false, os -> {
+          os.write("line".getBytes(StandardCharsets.UTF_8));
+          os.close();
+        });
+    assertEquals(200, statusCode);
+    mockBackend.verify(postRequestedFor(urlPathEqualTo("/report")).
+        withHeader("Content-Type", equalTo("text/plain")).
+        withRequestBody(equalTo("line")));
+  }
+
+  @Test
+  public void testPostChunked() throws Exception {
+    mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).willReturn(WireMock.ok()));
+    URL url = new URL(mockBackend.baseUrl() + "/report");
+    // larger than the pipe streaming the body to the client
+    char[] line = new char[256 * 1024];
+    Arrays.fill(line, 'a');
+    String body = new String(line);
+    int statusCode = transport.post(url, Collections.emptyMap(), true, os -> {
+      for (int i = 0; i < body.length(); i += 1000) {
+        os.write(body.substring(i, Math.min(i + 1000, body.length())).
+            getBytes(StandardCharsets.UTF_8));
+      }
+      os.close();
+    });
+    assertEquals(200, statusCode);
+    mockBackend.verify(postRequestedFor(urlPathEqualTo("/report")).
+        withRequestBody(equalTo(body)));
+  }
+
+  @Test
+  public void testPostChunkedFailsWithoutBlockingTheWriter() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    URL url = new URL("http://localhost:" + port + "/report");
+    byte[] chunk = new byte[64 * 1024];
+    long start = System.nanoTime();
+    assertThrows(IOException.class, () -> transport.post(url, Collections.emptyMap(), true,
+        os -> {
+          for (int i = 0; i < 100; i++) {
+            os.write(chunk);
+          }
+          os.close();
+        }));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void testReturnsErrorStatusCodes() throws Exception {
+    mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).
+        willReturn(WireMock.serviceUnavailable()));
+    URL url = new URL(mockBackend.baseUrl() + "/report");
+    assertEquals(503, transport.post(url, Collections.emptyMap(), false, os -> os.close()));
+  }
+
+  @Test
+  public void testCountsResponsesPerClient() throws Exception {
+    mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).willReturn(WireMock.ok()));
+    URL url = new URL(mockBackend.baseUrl() + "/report");
+    WavefrontSdkMetricsRegistry registry1 = newRegistry();
+    WavefrontSdkMetricsRegistry registry2 = newRegistry();
+    Transport transport1 = transport.withMetrics(registry1);
+    Transport transport2 = transport.withMetrics(registry2);
+    transport1.post(url, Collections.emptyMap(), false, os -> os.close());
+    transport1.post(url, Collections.emptyMap(), false, os -> os.close());
+    transport2.post(url, Collections.emptyMap(), false, os -> os.close());
+    assertEquals(2, registry1.newDeltaCounter("transport.responses").count());
+    assertEquals(1, registry2.newDeltaCounter("transport.responses").count());
+  }
+
+  @Test
+  public void testInterrupt() throws Exception {
+    mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).
+        willReturn(WireMock.ok().withFixedDelay(10_000)));
+    URL url = new URL(mockBackend.baseUrl() + "/report");
+    long start = System.nanoTime();
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(InterruptedIOException.class,
+          () -> transport.post(url, Collections.emptyMap(), false, os -> os.close()));
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  private static WavefrontSdkMetricsRegistry newRegistry() {
+    return new WavefrontSdkMetricsRegistry.Builder(null).
+        reportingIntervalSeconds(Integer.MAX_VALUE).
+        build();
+  }
+
+  /**
+   * Loads HttpClientTransport from the versioned classes of the build output, ahead of the
+   * Java 8 class found on the test classpath.
+   */
+  private static Transport newTransport() throws Exception {
+    String name = HttpClientTransport.class.getName();
+    URL classes = HttpClientTransport.class.getProtectionDomain().getCodeSource().getLocation();
+    File versioned = new File(new File(classes.toURI()), "META-INF/versions/11");
+    assumeTrue(versioned.isDirectory(), "the Java 11 classes were not built");
+    ClassLoader loader = new URLClassLoader(new URL[]{versioned.toURI().toURL()},
+        HttpClientTransportTest.class.getClassLoader()) {
+      @Override
+      protected Class<?> loadClass(String className, boolean resolve)
+          throws ClassNotFoundException {
+        if (!className.startsWith(name)) {
+          return super.loadClass(className, resolve);
+        }
+        synchronized (getClassLoadingLock(className)) {
+          Class<?> c = findLoadedClass(className);
+          return c != null ? c : findClass(className);
+        }
+      }
+    };
+    Method create = loader.loadClass(name).
+        getDeclaredMethod("create", Duration.class, Duration.class);
+    create.setAccessible(true);
+    Optional<?> transport =
+        (Optional<?>) create.invoke(null, Duration.ofSeconds(5), Duration.ofSeconds(30));
+    return (Transport) transport.get();
+  }
+}
@@ -0,0 +1,81 @@
+package com.wavefront.sdk.common.clients.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link PooledGzipOutputStream}
+ */
+public class PooledGzipOutputStreamTest {
+
+  @Test
+  public void testRoundTripWithReusedDeflaters() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      sb.append("\"metric.").append(i).append("\" ").append(i).append(" source=\"Δ\"\n");
+    }
+    String content = sb.toString();
+    // deflaters returned to the pool by earlier streams must start from a clean state
+    for (int round = 0; round < 3; round++) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (PooledGzipOutputStream gzipOS = new PooledGzipOutputStream(compressed, 4096)) {
+        gzipOS.write(content.getBytes(StandardCharsets.UTF_8));
+      }
+      assertEquals(content, decompress(compressed.toByteArray()));
+    }
+  }
+
+  @Test
+  public void testCompressionLevels() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      sb.append("\"metric.").append(i % 100).append("\" ").append(i).append(" source=\"a\"\n");
+    }
+    byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+    long[] sizes = new long[2];
+    int[] levels = {Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION};
+    for (int i = 0; i < levels.length; i++) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      PooledGzipOutputStream gzipOS = new PooledGzipOutputStream(compressed, 4096, levels[i]);
+      gzipOS.write(content);
+      gzipOS.close();
+      assertEquals(sb.toString(), decompress(compressed.toByteArray()));
+      assertEquals(content.length, gzipOS.getUncompressedBytes());
+      assertEquals(compressed.size(), gzipOS.getCompressedBytes());
+      sizes[i] = compressed.size();
+    }
+    assertTrue(sizes[1] < sizes[0] / 4);
+    assertThrows(IllegalArgumentException.class,
+        () -> new PooledGzipOutputStream(new ByteArrayOutputStream(), 4096, 10));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    new PooledGzipOutputStream(compressed, 4096).close();
+    assertEquals("", decompress(compressed.toByteArray()));
+  }
+
+  private static String decompress(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -1,11 +1,22 @@
 package com.wavefront.sdk.common.clients.service;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.wavefront.sdk.common.clients.service.token.NoopProxyTokenService;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
+
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
 import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -49,4 +60,34 @@ class ReportingServiceTest {
 
     assertEquals(expectedUrl, actualUrl.toString());
   }
+
+  @Test
+  void testRecordsCompressionOfAcceptedRequestsOnly() throws Exception {
+    WireMockServer mockBackend = new WireMockServer(wireMockConfig().dynamicPort());
+    mockBackend.start();
+    try {
+      WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+          reportingIntervalSeconds(Integer.MAX_VALUE).
+          build();
+      ReportingService service = new ReportingService(URI.create(mockBackend.baseUrl()),
+          new NoopProxyTokenService(), 1, new HttpURLConnectionTransport(),
+          Deflater.DEFAULT_COMPRESSION, registry);
+      List<String> items = Collections.singletonList("\"name\" 1 source=\"source\"\n");
+      ReportingService.Compressed compressed = service.compress("wavefront", items);
+
+      mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).
+          willReturn(WireMock.serviceUnavailable()));
+      assertEquals(503, service.send("wavefront", items));
+      assertEquals(503, service.sendCompressed("wavefront", compressed));
+      assertEquals(0, registry.newDeltaCounter("compression.wavefront.uncompressed_bytes").count());
+
+      mockBackend.stubFor(WireMock.post(urlPathEqualTo("/report")).willReturn(WireMock.ok()));
+      assertEquals(200, service.send("wavefront", items));
+      assertEquals(200, service.sendCompressed("wavefront", compressed));
+      assertEquals(2 * items.get(0).length(),
+          registry.newDeltaCounter("compression.wavefront.uncompressed_bytes").count());
+    } finally {
+      mockBackend.stop();
+    }
+  }
 }
@@ -1,19 +1,25 @@
 package com.wavefront.sdk.proxy;
 
 import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.common.metrics.WavefrontSdkDeltaCounter;
+import com.wavefront.sdk.common.metrics.WavefrontSdkMetricsRegistry;
 import org.junit.jupiter.api.Test;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,7 +28,7 @@ public class ProxyTest {
     private static final int NUM_ITERATIONS = 1000;
     private static final int THREAD_WAIT_ITERATIONS = 10;
     private static final List<String> EXPECTED_METRIC_LINE =
-            Collections.singletonList("^\"dummy\" 1\\.0 [0-9]+ source=\"a-host\"$");
+            Collections.singletonList("^\"dummy\" 1 [0-9]+ source=\"a-host\"$");
 
     private static class MockServer implements Runnable, Closeable {
         public static final int MOCK_PROXY_PORT = 12345;
@@ -148,4 +154,235 @@ public class ProxyTest {
             fail(e);
         }
     }
+
+    @Test
+    public void testAsyncProxyRoundtrip() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            AtomicInteger received = new AtomicInteger();
+            Thread reader = new Thread(() -> {
+                try (Socket socket = server.accept();
+                     BufferedReader in = new BufferedReader(
+                             new InputStreamReader(socket.getInputStream()))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("\"dummy\" 1 ")) {
+                            received.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    // the test fails on the number of lines received
+                }
+            });
+            reader.start();
+
+            WavefrontSender wfSender = new WavefrontProxyClient.Builder("localhost").
+                    metricsPort(server.getLocalPort()).
+                    asyncQueueSize(NUM_THREADS * NUM_ITERATIONS).
+                    build();
+            Thread[] senders = new Thread[NUM_THREADS];
+            for (int i = 0; i < NUM_THREADS; ++i) {
+                senders[i] = new Thread(() -> {
+                    for (int j = 0; j < NUM_ITERATIONS; ++j) {
+                        try {
+                            wfSender.sendMetric("dummy", 1.0, System.currentTimeMillis(),
+                                    "a-host", Collections.emptyMap());
+                        } catch (IOException e) {
+                            fail(e);
+                        }
+                    }
+                });
+                senders[i].start();
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            // closing waits for the queued lines to be written
+            wfSender.close();
+            reader.join(10_000);
+            assertEquals(NUM_THREADS * NUM_ITERATIONS, received.get());
+            assertEquals(0, wfSender.getFailureCount());
+        }
+    }
+
+    @Test
+    public void testAsyncQueueFull() throws Exception {
+        int port;
+        try (ServerSocket server = new ServerSocket(0)) {
+            port = server.getLocalPort();
+        }
+        // nothing listens on the port, so queued lines are never written
+        WavefrontSender wfSender = new WavefrontProxyClient.Builder("localhost").
+                metricsPort(port).
+                asyncQueueSize(10).
+                build();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                wfSender.sendMetric("dummy", 1.0, null, "a-host", null);
+            }
+            assertThrows(IOException.class,
+                    () -> wfSender.sendMetric("dummy", 1.0, null, "a-host", null));
+        } finally {
+            wfSender.close();
+        }
+    }
+
+    @Test
+    public void testAsyncDroppedLinesCountedByKind() throws Exception {
+        int port;
+        try (ServerSocket server = new ServerSocket(0)) {
+            port = server.getLocalPort();
+        }
+        WavefrontSdkMetricsRegistry registry = new WavefrontSdkMetricsRegistry.Builder(null).
+                reportingIntervalSeconds(Integer.MAX_VALUE).
+                build();
+        WavefrontSdkDeltaCounter spansDropped = registry.newDeltaCounter("spans.dropped");
+        WavefrontSdkDeltaCounter spanLogsDropped = registry.newDeltaCounter("span_logs.dropped");
+        ProxyWriter writer = new ProxyWriter();
+        // nothing listens on the port, so queued lines are dropped on close
+        ProxyWriter.Connection connection = writer.newConnection(
+                new InetSocketAddress("localhost", port), 10, registry, "socket",
+                registry.newDeltaCounter("errors"));
+        assertTrue(connection.offer("span\n", spansDropped));
+        assertTrue(connection.offer("span logs\n", spanLogsDropped));
+        assertTrue(connection.offer("span\n", spansDropped));
+        writer.start();
+        writer.close(100, TimeUnit.MILLISECONDS);
+        assertEquals(2, spansDropped.count());
+        assertEquals(1, spanLogsDropped.count());
+    }
+
+    @Test
+    public void testAsyncReconnectDelay() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            WavefrontSender wfSender = new WavefrontProxyClient.Builder("localhost").
+                    metricsPort(server.getLocalPort()).
+                    asyncQueueSize(1000).
+                    build();
+            try {
+                wfSender.sendMetric("dummy", 1.0, null, "a-host", null);
+                // the proxy closes the first connection right away
+                server.accept().close();
+                long closedNanos = System.nanoTime();
+                server.setSoTimeout(10_000);
+                Thread sender = new Thread(() -> {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            wfSender.sendMetric("dummy", 2.0, null, "a-host", null);
+                            Thread.sleep(10);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // stopped by the test
+                    }
+                });
+                sender.start();
+                try (Socket socket = server.accept();
+                     BufferedReader in = new BufferedReader(
+                             new InputStreamReader(socket.getInputStream()))) {
+                    // the connection is not reset right after being closed by the proxy
+                    long delayNanos = System.nanoTime() - closedNanos;
+                    assertTrue(delayNanos >= TimeUnit.MILLISECONDS.toNanos(900));
+                    assertTrue(in.readLine().startsWith("\"dummy\" 2 "));
+                } finally {
+                    sender.interrupt();
+                    sender.join();
+                }
+            } finally {
+                wfSender.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionPool() throws Exception {
+        int connections = 4;
+        int series = 20;
+        try (ServerSocket server = new ServerSocket(0)) {
+            // the values received for each series, on each connection
+            List<Map<String, List<Integer>>> received = new ArrayList<>();
+            Thread[] readers = new Thread[connections];
+            for (int i = 0; i < connections; ++i) {
+                Map<String, List<Integer>> values = new HashMap<>();
+                received.add(values);
+                readers[i] = new Thread(() -> {
+                    try (Socket socket = server.accept();
+                         BufferedReader in = new BufferedReader(
+                                 new InputStreamReader(socket.getInputStream()))) {
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            String[] parts = line.split(" ");
+                            values.computeIfAbsent(parts[0], k -> new ArrayList<>()).
+                                    add(Integer.parseInt(parts[1]));
+                        }
+                    } catch (IOException e) {
+                        // the test fails on the values received
+                    }
+                });
+                readers[i].start();
+            }
+
+            WavefrontSender wfSender = new WavefrontProxyClient.Builder("localhost").
+                    metricsPort(server.getLocalPort()).
+                    connectionsPerPort(connections).
+                    build();
+            Thread[] senders = new Thread[series];
+            for (int i = 0; i < series; ++i) {
+                String name = "series-" + i;
+                senders[i] = new Thread(() -> {
+                    for (int j = 0; j < NUM_ITERATIONS; ++j) {
+                        try {
+                            wfSender.sendMetric(name, j, null, "a-host", null);
+                        } catch (IOException e) {
+                            fail(e);
+                        }
+                    }
+                });
+                senders[i].start();
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            wfSender.close();
+            for (Thread reader : readers) {
+                reader.join(10_000);
+            }
+
+            int used = 0;
+            Map<String, List<Integer>> all = new HashMap<>();
+            for (Map<String, List<Integer>> values : received) {
+                used += values.isEmpty() ? 0 : 1;
+                for (Map.Entry<String, List<Integer>> entry : values.entrySet()) {
+                    // all the points of a series are sent on the same connection
+                    assertNull(all.put(entry.getKey(), entry.getValue()));
+                }
+            }
+            assertTrue(used > 1);
+            assertEquals(series, all.size());
+            for (List<Integer> values : all.values()) {
+                assertEquals(NUM_ITERATIONS, values.size());
+                for (int j = 0; j < NUM_ITERATIONS; ++j) {
+                    assertEquals(j, values.get(j));
+                }
+            }
+            assertEquals(0, wfSender.getFailureCount());
+        }
+    }
+
+    @Test
+    public void testConnectionPoolValidation() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new WavefrontProxyClient.Builder("localhost").connectionsPerPort(0).build());
+        assertThrows(IllegalStateException.class,
+                () -> new WavefrontProxyClient.Builder("localhost").connectionsPerPort(2).
+                        asyncQueueSize(10).build());
+    }
+
+    @Test
+    public void testSocketPathValidation() {
+        assertThrows(IllegalStateException.class,
+                () -> new WavefrontProxyClient.Builder("localhost").metricsPort(2878).
+                        metricsSocketPath("/tmp/wavefront.sock").build());
+        assertThrows(IllegalStateException.class,
+                () -> new WavefrontProxyClient.Builder("localhost").
+                        tracingSocketPath("/tmp/wavefront.sock").asyncQueueSize(10).build());
+    }
 }